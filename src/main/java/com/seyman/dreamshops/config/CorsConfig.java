@@ -35,7 +35,15 @@ public class CorsConfig {
             "Accept",
             "Origin",
             "Access-Control-Request-Method",
-            "Access-Control-Request-Headers"
+            "Access-Control-Request-Headers",
+            "Idempotency-Key",
+            "Admission-Token"
+        ));
+        
+        // Let browser clients read the retry and replay hints
+        configuration.setExposedHeaders(Arrays.asList(
+            "Retry-After",
+            "Idempotent-Replayed"
         ));
         
         // Allow credentials (for JWT tokens)
@@ -0,0 +1,164 @@
+package com.seyman.dreamshops.config;
+
+import com.seyman.dreamshops.service.cache.SegmentedLruCache;
+import com.seyman.dreamshops.service.catalog.CatalogSnapshot;
+import com.seyman.dreamshops.service.catalog.ProductCatalog;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.ContentCachingResponseWrapper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Caches the final JSON bytes (plain and gzipped) of the public catalog GET endpoints, keyed
+ * by the request and the catalog version. A repeated request is answered straight from the
+ * stored bytes, or with 304 when its If-None-Match still matches, without reaching Jackson or JPA.
+ * Any catalog change bumps the version, so stale entries are never served and age out of the LRU,
+ * which is bounded by the size of the stored bytes. The DTOs also say whether a sale is running
+ * right now, so entries expire when the next sale of the catalog starts or ends.
+ */
+@Component
+public class ResponseCacheFilter extends OncePerRequestFilter {
+
+    private final ProductCatalog productCatalog;
+    private final List<String> cachedPaths;
+    private final List<String> excludedPaths;
+    private final boolean enabled;
+    private final SegmentedLruCache entries;
+    private final AntPathMatcher pathMatcher = new AntPathMatcher();
+
+    public ResponseCacheFilter(ProductCatalog productCatalog,
+                               @Value("${api.prefix}") String apiPrefix,
+                               @Value("${response-cache.enabled:true}") boolean enabled,
+                               @Value("${response-cache.max-bytes:33554432}") long maxBytes) {
+        this.productCatalog = productCatalog;
+        this.enabled = enabled;
+        this.cachedPaths = List.of(apiPrefix + "/products/**", apiPrefix + "/categories/all", apiPrefix + "/sales/**");
+        // Streaming responses must not be buffered
+        this.excludedPaths = List.of(apiPrefix + "/products/all/stream", apiPrefix + "/products/all/ndjson");
+        this.entries = new SegmentedLruCache(maxBytes,
+                (key, entry) -> 64 + 2L * key.length() + ((CachedResponse) entry).size());
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        if (!enabled || !HttpMethod.GET.matches(request.getMethod()) || !productCatalog.isReady()) {
+            return true;
+        }
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        return excludedPaths.contains(path) || cachedPaths.stream().noneMatch(pattern -> pathMatcher.match(pattern, path));
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        // Read the version before the handler runs so a concurrent change can only make the entry older
+        CatalogSnapshot snapshot = productCatalog.snapshot();
+        long version = snapshot.getVersion();
+        long expireTime = snapshot.nextSaleChange(System.currentTimeMillis()) - 1;
+        String key = version + ":" + request.getRequestURI() + (request.getQueryString() != null ? "?" + request.getQueryString() : "");
+
+        CachedResponse cached = (CachedResponse) entries.get(key);
+        if (cached != null) {
+            write(request, response, cached);
+            return;
+        }
+
+        ContentCachingResponseWrapper wrapper = new ContentCachingResponseWrapper(response);
+        chain.doFilter(request, wrapper);
+
+        if (wrapper.getStatus() == HttpServletResponse.SC_OK && wrapper.getContentType() != null
+                && MediaType.APPLICATION_JSON.isCompatibleWith(MediaType.parseMediaType(wrapper.getContentType()))) {
+            CachedResponse entry = new CachedResponse(wrapper.getContentType(), wrapper.getContentAsByteArray(), version);
+            // Otherwise entries only age out, a newer catalog version never hits them
+            entries.put(key, entry, expireTime);
+            response.setHeader(HttpHeaders.ETAG, entry.etag);
+            response.setHeader(HttpHeaders.CACHE_CONTROL, "no-cache");
+            // Later hits of the same key may be gzipped, so caches must key on the encoding from the first
+            response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+            if (matches(request, entry.etag)) {
+                // The client already has these bytes, drop the rendered body
+                response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return;
+            }
+        }
+        wrapper.copyBodyToResponse();
+    }
+
+    private static void write(HttpServletRequest request, HttpServletResponse response, CachedResponse cached) throws IOException {
+        response.setHeader(HttpHeaders.ETAG, cached.etag);
+        response.setHeader(HttpHeaders.CACHE_CONTROL, "no-cache");
+        response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+
+        if (matches(request, cached.etag)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        String acceptEncoding = request.getHeader(HttpHeaders.ACCEPT_ENCODING);
+        boolean gzip = acceptEncoding != null && acceptEncoding.contains("gzip");
+        byte[] body = gzip ? cached.gzipped : cached.body;
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setContentType(cached.contentType);
+        if (gzip) {
+            response.setHeader(HttpHeaders.CONTENT_ENCODING, "gzip");
+        }
+        response.setContentLength(body.length);
+        response.getOutputStream().write(body);
+    }
+
+    private static boolean matches(HttpServletRequest request, String etag) {
+        String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+        return ifNoneMatch != null && (ifNoneMatch.contains(etag) || ifNoneMatch.trim().equals("*"));
+    }
+
+    private static class CachedResponse {
+        private final String contentType;
+        private final byte[] body;
+        private final byte[] gzipped;
+        private final String etag;
+
+        CachedResponse(String contentType, byte[] body, long version) throws IOException {
+            this.contentType = contentType;
+            this.body = body;
+            this.gzipped = gzip(body);
+            this.etag = "\"" + version + "-" + digest(body) + "\"";
+        }
+
+        long size() {
+            return body.length + gzipped.length + contentType.length() + etag.length();
+        }
+
+        private static byte[] gzip(byte[] body) throws IOException {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(body.length / 4 + 64);
+            try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+                gzip.write(body);
+            }
+            return out.toByteArray();
+        }
+
+        private static String digest(byte[] body) {
+            try {
+                byte[] hash = MessageDigest.getInstance("SHA-256").digest(body);
+                return HexFormat.of().formatHex(hash, 0, 8);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
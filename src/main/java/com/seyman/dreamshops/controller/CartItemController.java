@@ -7,6 +7,7 @@ import com.seyman.dreamshops.model.User;
 import com.seyman.dreamshops.response.ApiResponse;
 import com.seyman.dreamshops.service.cart.ICartItemService;
 import com.seyman.dreamshops.service.cart.ICartService;
+import com.seyman.dreamshops.service.idempotency.IdempotencyService;
 import com.seyman.dreamshops.service.user.IUserService;
 import io.jsonwebtoken.JwtException;
 import lombok.RequiredArgsConstructor;
@@ -25,9 +26,17 @@ public class CartItemController {
     private final ICartItemService cartItemService;
     private final ICartService cartService;
     private final IUserService userService;
+    private final IdempotencyService idempotencyService;
 
     @PostMapping("/item/add")
-    public ResponseEntity<ApiResponse> addItemToCart(@RequestParam Long productId, @RequestParam Integer quantity) {
+    public ResponseEntity<ApiResponse> addItemToCart(@RequestParam Long productId, @RequestParam Integer quantity,
+                                                     @RequestHeader(value = IdempotencyService.HEADER, required = false) String idempotencyKey) {
+        // Adding increments the quantity, a retried request must not add it twice
+        return idempotencyService.execute("cartItems.item.add", idempotencyKey, "productId=" + productId + "&quantity=" + quantity,
+                () -> addItem(productId, quantity));
+    }
+
+    private ResponseEntity<ApiResponse> addItem(Long productId, Integer quantity) {
         try {
             UserDto user = userService.getAuthenticatedUser();
 
@@ -1,41 +1,136 @@
 package com.seyman.dreamshops.controller;
 
+import com.seyman.dreamshops.dto.AdmissionDto;
 import com.seyman.dreamshops.dto.OrderDto;
+import com.seyman.dreamshops.dto.OrderIntakeDto;
+import com.seyman.dreamshops.enums.OrderStatus;
+import com.seyman.dreamshops.exceptions.AdmissionRequiredException;
+import com.seyman.dreamshops.exceptions.InsufficientStockException;
 import com.seyman.dreamshops.exceptions.ResourceNotFoundException;
+import com.seyman.dreamshops.exceptions.ServiceBusyException;
 import com.seyman.dreamshops.model.Order;
 import com.seyman.dreamshops.response.ApiResponse;
+import com.seyman.dreamshops.service.admission.AdmissionService;
+import com.seyman.dreamshops.service.idempotency.IdempotencyService;
 import com.seyman.dreamshops.service.order.IOrderService;
+import com.seyman.dreamshops.service.order.OrderIntakeService;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.security.core.Authentication;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
 
+import java.time.Duration;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 @RestController
 @RequestMapping("${api.prefix}/orders")
 @RequiredArgsConstructor
 public class OrderController {
 
+    private static final int MAX_INTAKE_WAIT_SECONDS = 30;
+
     private final IOrderService orderService;
+    private final OrderIntakeService orderIntakeService;
+    private final IdempotencyService idempotencyService;
+    private final AdmissionService admissionService;
 
     @PostMapping("/order")
-    public ResponseEntity<ApiResponse> createOrder(@RequestParam Long userId, @RequestParam(required = false) String couponCode) {
-        // Debug logs removed for production
-        
+    public ResponseEntity<ApiResponse> createOrder(@RequestParam Long userId, @RequestParam(required = false) String couponCode,
+                                                   @RequestHeader(value = IdempotencyService.HEADER, required = false) String idempotencyKey,
+                                                   @RequestHeader(value = AdmissionService.HEADER, required = false) String admissionToken) {
+        // A retried submission gets the reference of the first one instead of a second order
+        return idempotencyService.execute("orders.order", idempotencyKey, "userId=" + userId + "&couponCode=" + couponCode,
+                () -> submitOrder(userId, couponCode, admissionToken));
+    }
+
+    private ResponseEntity<ApiResponse> submitOrder(Long userId, String couponCode, String admissionToken) {
         try {
-            OrderDto order = orderService.placeOrder(userId, couponCode);
-            // Debug logs removed for production
-            
-            return ResponseEntity.ok(new ApiResponse("Item Order Success", order));
+            // During a flash sale only users whose checkout slot has opened get through.
+            // Queued for placement, the reference is polled for the order
+            OrderIntakeDto intake = admissionService.admitCheckout(userId, admissionToken,
+                    () -> orderIntakeService.submit(userId, couponCode));
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(new ApiResponse("Order accepted for processing", intake));
+        } catch (AdmissionRequiredException e) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getAdmission().getRetryAfterSeconds()))
+                    .body(new ApiResponse(e.getMessage(), e.getAdmission()));
+        } catch (InsufficientStockException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(new ApiResponse(e.getMessage(), e.getShortages()));
+        } catch (ServiceBusyException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                    .body(new ApiResponse(e.getMessage(), null));
         } catch (Exception e) {
-            // Debug logs removed for production
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(new ApiResponse("Error Occured", e.getMessage()));
         }
     }
 
+    /**
+     * Checkout slot for the user, sent back in the Admission-Token header when ordering. A
+     * slot that has not opened yet comes with the position in the queue and a Retry-After.
+     */
+    @PostMapping("/admission")
+    public ResponseEntity<ApiResponse> requestAdmission(@RequestParam Long userId) {
+        try {
+            return admission(admissionService.admit(userId));
+        } catch (ServiceBusyException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                    .body(new ApiResponse(e.getMessage(), null));
+        }
+    }
+
+    @GetMapping("/admission")
+    public ResponseEntity<ApiResponse> getAdmission(@RequestParam Long userId) {
+        try {
+            return admission(admissionService.getAdmission(userId));
+        } catch (ResourceNotFoundException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(new ApiResponse("Oops!", e.getMessage()));
+        } catch (ServiceBusyException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                    .body(new ApiResponse(e.getMessage(), null));
+        }
+    }
+
+    private static ResponseEntity<ApiResponse> admission(AdmissionDto admission) {
+        if (admission.getRetryAfterSeconds() == 0) {
+            return ResponseEntity.ok(new ApiResponse("Checkout slot is open", admission));
+        }
+        return ResponseEntity.status(HttpStatus.ACCEPTED)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(admission.getRetryAfterSeconds()))
+                .body(new ApiResponse("Waiting for a checkout slot, number " + admission.getPosition() + " in the queue", admission));
+    }
+
+    /**
+     * Result of a queued order. With waitSeconds the response is held until the order is
+     * processed or the wait runs out, whichever comes first.
+     */
+    @GetMapping("/intake/{reference}")
+    public DeferredResult<ResponseEntity<ApiResponse>> getOrderIntake(@PathVariable String reference,
+                                                                      @RequestParam(defaultValue = "0") int waitSeconds) {
+        long timeoutMillis = TimeUnit.SECONDS.toMillis(Math.max(1, Math.min(waitSeconds, MAX_INTAKE_WAIT_SECONDS)));
+        DeferredResult<ResponseEntity<ApiResponse>> response = new DeferredResult<>(timeoutMillis);
+        try {
+            OrderIntakeDto intake = orderIntakeService.getIntake(reference);
+            if (waitSeconds <= 0 || !OrderStatus.PENDING_PROCESSING.name().equals(intake.getStatus())) {
+                response.setResult(ResponseEntity.ok(new ApiResponse("Order status", intake)));
+                return response;
+            }
+            response.onTimeout(() -> response.setResult(ResponseEntity.ok(new ApiResponse("Order status", intake))));
+            orderIntakeService.awaitIntake(reference, Duration.ofMillis(timeoutMillis))
+                    .thenAccept(result -> response.setResult(ResponseEntity.ok(new ApiResponse("Order status", result))));
+        } catch (ResourceNotFoundException e) {
+            response.setResult(ResponseEntity.status(HttpStatus.NOT_FOUND).body(new ApiResponse("Oops!", e.getMessage())));
+        }
+        return response;
+    }
+
     @GetMapping("/{orderId}/order")
     public ResponseEntity<ApiResponse> getOrderById(@PathVariable Long orderId) {
         try {
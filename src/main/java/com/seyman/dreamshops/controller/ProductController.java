@@ -1,20 +1,31 @@
 package com.seyman.dreamshops.controller;
 
 import com.seyman.dreamshops.dto.ProductDto;
+import com.seyman.dreamshops.dto.SuggestionDto;
 import com.seyman.dreamshops.exceptions.AlreadyExistsException;
 import com.seyman.dreamshops.exceptions.ResourceNotFoundException;
+import com.seyman.dreamshops.exceptions.ServiceBusyException;
 import com.seyman.dreamshops.model.Product;
 import com.seyman.dreamshops.requests.AddProductRequest;
+import com.seyman.dreamshops.requests.ProductFilterRequest;
 import com.seyman.dreamshops.requests.ProductUpdateRequest;
 import com.seyman.dreamshops.response.ApiResponse;
 import com.seyman.dreamshops.service.cache.CacheService;
 import com.seyman.dreamshops.service.product.IProductService;
+import com.seyman.dreamshops.service.product.ProductExportService;
+import com.seyman.dreamshops.service.product.ProductCursor;
+import com.seyman.dreamshops.service.search.ProductFacetIndex;
+import com.seyman.dreamshops.service.search.ProductSuggester;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
 import org.aspectj.weaver.ast.Not;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.util.List;
 
@@ -25,8 +36,14 @@ import static org.springframework.http.HttpStatus.*;
 @RequiredArgsConstructor
 public class ProductController {
 
+    private static final String NDJSON_VALUE = "application/x-ndjson";
+
     private final IProductService productService;
     private final CacheService cacheService;
+    private final ProductSuggester productSuggester;
+    private final ProductFacetIndex productFacetIndex;
+    private final ProductExportService productExportService;
+    private final ObjectMapper objectMapper;
 
     @GetMapping("/all")
     public ResponseEntity<ApiResponse> getAllProducts() {
@@ -39,6 +56,37 @@ public class ProductController {
         }
     }
 
+    // Same body as /all, written product by product from the catalog snapshot or a database cursor
+    @GetMapping(value = "/all/stream", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamAllProducts() {
+        StreamingResponseBody body = out -> {
+            try (JsonGenerator generator = objectMapper.createGenerator(out)) {
+                generator.writeStartObject();
+                generator.writeStringField("message", "Success!");
+                generator.writeArrayFieldStart("data");
+                productExportService.forEachProduct(generator::writeObject);
+                generator.writeEndArray();
+                generator.writeEndObject();
+            }
+        };
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+    }
+
+    // Newline delimited JSON, one product per line, for sync jobs
+    @GetMapping(value = "/all/ndjson", produces = NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamAllProductsAsNdjson() {
+        StreamingResponseBody body = out -> {
+            try (JsonGenerator generator = objectMapper.createGenerator(out)) {
+                generator.setRootValueSeparator(null);
+                productExportService.forEachProduct(productDto -> {
+                    generator.writeObject(productDto);
+                    generator.writeRaw('\n');
+                });
+            }
+        };
+        return ResponseEntity.ok().contentType(MediaType.parseMediaType(NDJSON_VALUE)).body(body);
+    }
+
     @GetMapping("/product/{id}/product")
     public ResponseEntity<ApiResponse> getProductById(@PathVariable Long id) {
         try {
@@ -185,6 +233,12 @@ public class ProductController {
         }
     }
 
+    @GetMapping("/suggest")
+    public ResponseEntity<ApiResponse> suggest(@RequestParam String q, @RequestParam(defaultValue = "8") int limit) {
+        List<SuggestionDto> suggestions = productSuggester.suggest(q, limit);
+        return ResponseEntity.ok(new ApiResponse("Suggestions", suggestions));
+    }
+
     @GetMapping("/search/by-category-and-name")
     public ResponseEntity<ApiResponse> searchProductsByCategoryAndName(
             @RequestParam String category, 
@@ -205,8 +259,15 @@ public class ProductController {
     public ResponseEntity<ApiResponse> getAllProductsPaginated(
             @RequestParam(defaultValue = "0") int page,
             @RequestParam(defaultValue = "12") int size,
-            @RequestParam(defaultValue = "name,asc") String sort) {
+            @RequestParam(defaultValue = "name,asc") String sort,
+            @RequestParam(required = false) String cursor) {
         try {
+            // Keyset mode: pass an empty cursor for the first page, then the returned nextCursor
+            if (cursor != null) {
+                org.springframework.data.domain.Sort.Order order = cursorOrder(sort);
+                return cursorPage(productService.getAllProducts(cursor, order, size), order);
+            }
+
             String[] sortParams = sort.split(",");
             String sortBy = sortParams[0];
             String sortDirection = sortParams.length > 1 ? sortParams[1] : "asc";
@@ -231,6 +292,12 @@ public class ProductController {
             response.put("pageSize", productPage.getSize());
             
             return ResponseEntity.ok(new ApiResponse("Products found!", response));
+        } catch (ServiceBusyException e) {
+            return ResponseEntity.status(SERVICE_UNAVAILABLE)
+                    .header(org.springframework.http.HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                    .body(new ApiResponse(e.getMessage(), null));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(BAD_REQUEST).body(new ApiResponse(e.getMessage(), null));
         } catch (Exception e) {
             return ResponseEntity.status(INTERNAL_SERVER_ERROR).body(new ApiResponse("Error: " + e.getMessage(), null));
         }
@@ -241,8 +308,15 @@ public class ProductController {
             @RequestParam String category,
             @RequestParam(defaultValue = "0") int page,
             @RequestParam(defaultValue = "12") int size,
-            @RequestParam(defaultValue = "name,asc") String sort) {
+            @RequestParam(defaultValue = "name,asc") String sort,
+            @RequestParam(required = false) String cursor) {
         try {
+            // Keyset mode: pass an empty cursor for the first page, then the returned nextCursor
+            if (cursor != null) {
+                org.springframework.data.domain.Sort.Order order = cursorOrder(sort);
+                return cursorPage(productService.getProductsByCategory(category, cursor, order, size), order);
+            }
+
             String[] sortParams = sort.split(",");
             String sortBy = sortParams[0];
             String sortDirection = sortParams.length > 1 ? sortParams[1] : "asc";
@@ -268,6 +342,12 @@ public class ProductController {
             response.put("pageSize", productPage.getSize());
             
             return ResponseEntity.ok(new ApiResponse("Products found!", response));
+        } catch (ServiceBusyException e) {
+            return ResponseEntity.status(SERVICE_UNAVAILABLE)
+                    .header(org.springframework.http.HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                    .body(new ApiResponse(e.getMessage(), null));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(BAD_REQUEST).body(new ApiResponse(e.getMessage(), null));
         } catch (Exception e) {
             return ResponseEntity.status(INTERNAL_SERVER_ERROR).body(new ApiResponse("Error: " + e.getMessage(), null));
         }
@@ -279,8 +359,24 @@ public class ProductController {
             @RequestParam(required = false) String category,
             @RequestParam(defaultValue = "0") int page,
             @RequestParam(defaultValue = "12") int size,
-            @RequestParam(defaultValue = "name,asc") String sort) {
+            @RequestParam(defaultValue = "name,asc") String sort,
+            @RequestParam(required = false) String cursor) {
         try {
+            // Keyset mode: pass an empty cursor for the first page, then the returned nextCursor
+            if (cursor != null) {
+                org.springframework.data.domain.Sort.Order order = cursorOrder(sort);
+                boolean hasSearch = search != null && !search.trim().isEmpty();
+                boolean hasCategory = category != null && !category.trim().isEmpty();
+                if (hasSearch && hasCategory) {
+                    return cursorPage(productService.getProductsByCategoryAndNameContaining(category, search, cursor, order, size), order);
+                } else if (hasSearch) {
+                    return cursorPage(productService.getProductsByNameContaining(search, cursor, order, size), order);
+                } else if (hasCategory) {
+                    return cursorPage(productService.getProductsByCategory(category, cursor, order, size), order);
+                }
+                return cursorPage(productService.getAllProducts(cursor, order, size), order);
+            }
+
             String[] sortParams = sort.split(",");
             String sortBy = sortParams[0];
             String sortDirection = sortParams.length > 1 ? sortParams[1] : "asc";
@@ -316,16 +412,75 @@ public class ProductController {
             response.put("pageSize", productPage.getSize());
             
             return ResponseEntity.ok(new ApiResponse("Products found!", response));
+        } catch (ServiceBusyException e) {
+            return ResponseEntity.status(SERVICE_UNAVAILABLE)
+                    .header(org.springframework.http.HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                    .body(new ApiResponse(e.getMessage(), null));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(BAD_REQUEST).body(new ApiResponse(e.getMessage(), null));
         } catch (Exception e) {
             return ResponseEntity.status(INTERNAL_SERVER_ERROR).body(new ApiResponse("Error: " + e.getMessage(), null));
         }
     }
 
+    // Same "field,direction" form as the offset pages
+    private static org.springframework.data.domain.Sort.Order cursorOrder(String sort) {
+        String[] sortParams = sort.split(",");
+        return sortParams.length > 1 && sortParams[1].equalsIgnoreCase("desc")
+                ? org.springframework.data.domain.Sort.Order.desc(sortParams[0])
+                : org.springframework.data.domain.Sort.Order.asc(sortParams[0]);
+    }
+
+    private ResponseEntity<ApiResponse> cursorPage(org.springframework.data.domain.Slice<Product> slice,
+                                                   org.springframework.data.domain.Sort.Order order) {
+        List<ProductDto> productDtos = productService.getConvertedProducts(slice.getContent());
+
+        java.util.Map<String, Object> response = new java.util.HashMap<>();
+        response.put("products", productDtos);
+        response.put("hasNext", slice.hasNext());
+        response.put("nextCursor", slice.hasNext()
+                ? ProductCursor.after(slice.getContent().get(slice.getNumberOfElements() - 1), order).encode()
+                : null);
+        response.put("pageSize", slice.getSize());
+
+        return ResponseEntity.ok(new ApiResponse("Products found!", response));
+    }
+
+    @GetMapping("/filter")
+    public ResponseEntity<ApiResponse> filterProducts(
+            ProductFilterRequest filter,
+            @RequestParam(defaultValue = "0") int page,
+            @RequestParam(defaultValue = "12") int size) {
+        try {
+            org.springframework.data.domain.Pageable pageable = org.springframework.data.domain.PageRequest.of(page, size);
+            ProductFacetIndex.FacetResult result = productFacetIndex.filter(filter, pageable.getOffset(), size);
+            org.springframework.data.domain.Page<Product> productPage = productService.getProductsByIds(
+                    result.getProductIds(), pageable, result.getTotalElements());
+            List<ProductDto> productDtos = productService.getConvertedProducts(productPage.getContent());
+
+            java.util.Map<String, Object> response = new java.util.HashMap<>();
+            response.put("products", productDtos);
+            response.put("totalElements", productPage.getTotalElements());
+            response.put("totalPages", productPage.getTotalPages());
+            response.put("currentPage", productPage.getNumber());
+            response.put("pageSize", productPage.getSize());
+            response.put("facets", result.getFacets());
+
+            return ResponseEntity.ok(new ApiResponse("Products found!", response));
+        } catch (Exception e) {
+            return ResponseEntity.status(INTERNAL_SERVER_ERROR).body(new ApiResponse("Error: " + e.getMessage(), null));
+        }
+    }
+
+    @GetMapping("/catalog/version")
+    public ResponseEntity<ApiResponse> getCatalogVersion() {
+        return ResponseEntity.ok(new ApiResponse("Catalog version", productService.getCatalogVersion()));
+    }
+
     @GetMapping("/count")
     public ResponseEntity<ApiResponse> getProductCount() {
         try {
-            List<Product> products = productService.getAllProducts();
-            return ResponseEntity.ok(new ApiResponse("Product count!", products.size()));
+            return ResponseEntity.ok(new ApiResponse("Product count!", productService.countProducts()));
         } catch (Exception e) {
             return ResponseEntity.status(INTERNAL_SERVER_ERROR).body(new ApiResponse("Error: " + e.getMessage(), null));
         }
@@ -0,0 +1,17 @@
+package com.seyman.dreamshops.dto;
+
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+@Data
+public class AdmissionDto {
+    // ADMITTED once the slot has opened, WAITING before
+    private String status;
+    // Sent back in the Admission-Token header when placing the order
+    private String token;
+    private int position;
+    private long retryAfterSeconds;
+    private LocalDateTime slotStart;
+    private LocalDateTime slotEnd;
+}
@@ -0,0 +1,19 @@
+package com.seyman.dreamshops.dto;
+
+import lombok.Data;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Data
+public class OrderIntakeDto {
+    private String reference;
+    // PENDING_PROCESSING until processed, then the status of the placed order or FAILED
+    private String status;
+    private Long orderId;
+    private OrderDto order;
+    private String message;
+    private List<StockShortageDto> shortages;
+    private LocalDateTime submittedAt;
+    private LocalDateTime completedAt;
+}
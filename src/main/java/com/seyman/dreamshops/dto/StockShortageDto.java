@@ -0,0 +1,13 @@
+package com.seyman.dreamshops.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+@Data
+@AllArgsConstructor
+public class StockShortageDto {
+    private Long productId;
+    private String productName;
+    private int requested;
+    private int available;
+}
@@ -0,0 +1,12 @@
+package com.seyman.dreamshops.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+@Data
+@AllArgsConstructor
+public class SuggestionDto {
+    private String text;
+    private String type;
+    private Long productId;
+}
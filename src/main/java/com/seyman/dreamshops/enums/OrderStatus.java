@@ -1,6 +1,8 @@
 package com.seyman.dreamshops.enums;
 
 public enum OrderStatus {
+    // Accepted by the intake queue, not yet placed
+    PENDING_PROCESSING,
     PENDING,
     CONFIRMED,
     PROCESSING,
@@ -0,0 +1,19 @@
+package com.seyman.dreamshops.exceptions;
+
+import com.seyman.dreamshops.dto.AdmissionDto;
+import lombok.Getter;
+
+/**
+ * Checkout is admission controlled and the caller's slot has not opened yet; the admission
+ * says when it does.
+ */
+@Getter
+public class AdmissionRequiredException extends RuntimeException {
+
+    private final AdmissionDto admission;
+
+    public AdmissionRequiredException(AdmissionDto admission) {
+        super("Checkout is busy, you are number " + admission.getPosition() + " in the queue");
+        this.admission = admission;
+    }
+}
@@ -0,0 +1,21 @@
+package com.seyman.dreamshops.exceptions;
+
+import com.seyman.dreamshops.dto.StockShortageDto;
+import lombok.Getter;
+
+import java.util.List;
+
+@Getter
+public class InsufficientStockException extends RuntimeException {
+
+    private final List<StockShortageDto> shortages;
+
+    public InsufficientStockException(List<StockShortageDto> shortages) {
+        super(message(shortages));
+        this.shortages = shortages;
+    }
+
+    public static String message(List<StockShortageDto> shortages) {
+        return "Insufficient stock for " + shortages.size() + " product(s)";
+    }
+}
@@ -0,0 +1,18 @@
+package com.seyman.dreamshops.exceptions;
+
+import lombok.Getter;
+
+/**
+ * The request was turned away because the service is at capacity; the client should retry
+ * after the given number of seconds.
+ */
+@Getter
+public class ServiceBusyException extends RuntimeException {
+
+    private final long retryAfterSeconds;
+
+    public ServiceBusyException(String message, long retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+}
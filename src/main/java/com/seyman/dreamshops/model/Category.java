@@ -1,6 +1,7 @@
 package com.seyman.dreamshops.model;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.seyman.dreamshops.service.catalog.CatalogCategoryListener;
 import jakarta.persistence.*;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
@@ -13,6 +14,7 @@ import java.util.List;
 @Setter
 @NoArgsConstructor
 @Entity
+@EntityListeners(CatalogCategoryListener.class)
 public class Category {
 
     @Id
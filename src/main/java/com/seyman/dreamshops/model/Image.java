@@ -2,6 +2,7 @@ package com.seyman.dreamshops.model;
 
 import com.fasterxml.jackson.annotation.JsonBackReference;
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.seyman.dreamshops.service.catalog.CatalogImageListener;
 import jakarta.persistence.*;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
@@ -15,7 +16,7 @@ import java.sql.Blob;
 @AllArgsConstructor
 @NoArgsConstructor
 @Entity
-
+@EntityListeners(CatalogImageListener.class)
 public class Image {
 
     @Id
@@ -19,6 +19,8 @@ public class OrderItem {
     private Long id;
     private int quantity;
     private BigDecimal price;
+    // The flash-sale allotment the quantity was taken from, null if it was not
+    private Long flashSaleAllotment;
 
     @JsonIgnore
     @ManyToOne
@@ -1,6 +1,7 @@
 package com.seyman.dreamshops.model;
 
 import com.fasterxml.jackson.annotation.JsonManagedReference;
+import com.seyman.dreamshops.service.search.ProductIndexListener;
 import jakarta.persistence.*;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
@@ -15,6 +16,7 @@ import java.util.List;
 @Setter
 @NoArgsConstructor
 @Entity
+@EntityListeners(ProductIndexListener.class)
 public class Product {
 
     @Id
@@ -34,6 +36,8 @@ public class Product {
     private LocalDateTime saleStartDate;
     private LocalDateTime saleEndDate;
     private Integer flashSaleStock;
+    // Identifies the current flash-sale allotment, every new allotment gets the next one
+    private Long flashSaleAllotment;
 
     @ManyToOne
     @JoinColumn(name = "category_id")
@@ -3,13 +3,25 @@ package com.seyman.dreamshops.repository;
 import com.seyman.dreamshops.model.Cart;
 import com.seyman.dreamshops.model.CartItem;
 import com.seyman.dreamshops.model.Product;
+import jakarta.persistence.LockModeType;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
+import java.util.List;
+
 @Repository
 public interface CartItemRepository extends JpaRepository<CartItem, Long> {
     void deleteAllByCartId(Long id);
     void deleteAllByProductId(Long productId);
     boolean existsByProductId(Long productId);
     CartItem findByCartAndProduct(Cart cart, Product product);
+
+    // Locked in id order, so concurrent orders of the same cart wait for each other instead of deadlocking
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT ci FROM CartItem ci WHERE ci.id IN :ids ORDER BY ci.id")
+    List<CartItem> findAllByIdForUpdate(@Param("ids") Collection<Long> ids);
 }
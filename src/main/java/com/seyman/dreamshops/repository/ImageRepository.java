@@ -2,12 +2,22 @@ package com.seyman.dreamshops.repository;
 
 import com.seyman.dreamshops.model.Image;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 
 @Repository
 public interface ImageRepository extends JpaRepository<Image, Long> {
 
     List<Image> findByProductId(Long id);
+
+    // [product id, image id, file name, download url] rows, the image blob is not loaded
+    @Query("SELECT i.product.id, i.id, i.fileName, i.downloadUrl FROM Image i WHERE i.product.id IN :productIds ORDER BY i.id")
+    List<Object[]> findImageInfoByProductIds(@Param("productIds") Collection<Long> productIds);
+
+    @Query("SELECT i.product.id, i.id, i.fileName, i.downloadUrl FROM Image i WHERE i.product IS NOT NULL ORDER BY i.id")
+    List<Object[]> findAllImageInfo();
 }
@@ -2,9 +2,16 @@ package com.seyman.dreamshops.repository;
 
 import com.seyman.dreamshops.model.OrderItem;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
+import java.util.List;
+
 @Repository
 public interface OrderItemRepository extends JpaRepository<OrderItem, Long> {
     boolean existsByProductId(Long productId);
-} 
\ No newline at end of file
+
+    // [productId, total ordered quantity] pairs, used as popularity weight for suggestions
+    @Query("SELECT oi.product.id, SUM(oi.quantity) FROM OrderItem oi GROUP BY oi.product.id")
+    List<Object[]> sumQuantityGroupByProduct();
+}
\ No newline at end of file
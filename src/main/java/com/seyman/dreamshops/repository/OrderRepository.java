@@ -1,11 +1,14 @@
 package com.seyman.dreamshops.repository;
 
+import com.seyman.dreamshops.enums.OrderStatus;
 import com.seyman.dreamshops.model.Order;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 
 @Repository
@@ -35,4 +38,11 @@ public interface OrderRepository extends JpaRepository<Order, Long> {
            "LEFT JOIN FETCH p.category " +
            "ORDER BY o.orderDate DESC")
     List<Order> findAllWithDetails();
+
+    // Moves the order to the new status only from one of the expected ones, so a transition happens once
+    @Modifying
+    @Query("UPDATE com.seyman.dreamshops.model.Order o SET o.orderStatus = :status " +
+           "WHERE o.orderId = :orderId AND o.orderStatus IN :expected")
+    int updateStatusIfIn(@Param("orderId") Long orderId, @Param("expected") Collection<OrderStatus> expected,
+                         @Param("status") OrderStatus status);
 }
@@ -1,15 +1,22 @@
 package com.seyman.dreamshops.repository;
 
 import com.seyman.dreamshops.model.Product;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
 
 import java.util.List;
+import java.util.stream.Stream;
 
 public interface ProductRepository extends JpaRepository<Product, Long> {
+
+    int STREAM_FETCH_SIZE = 500;
+
     List<Product> findByCategoryName(String category);
 
     List<Product> findByBrand(String brand);
@@ -43,7 +50,31 @@ public interface ProductRepository extends JpaRepository<Product, Long> {
            "LEFT JOIN FETCH p.category " +
            "ORDER BY p.name ASC")
     List<Product> findAllWithImagesAndCategory();
-    
+
+    // Used to build the in-memory product indexes (images are not needed there)
+    @Query("SELECT p FROM Product p LEFT JOIN FETCH p.category")
+    List<Product> findAllWithCategory();
+
+    // Re-indexed when their category is renamed, the indexes hold the category name
+    @Query("SELECT p FROM Product p LEFT JOIN FETCH p.category c WHERE c.id = :categoryId")
+    List<Product> findByCategoryIdWithCategory(@Param("categoryId") Long categoryId);
+
+    // Cursor over the whole catalog for the streaming endpoints, must be consumed inside a transaction.
+    // MySQL only streams with useCursorFetch=true on the JDBC url (see application.properties), otherwise it buffers the result set
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "" + STREAM_FETCH_SIZE))
+    @Query("SELECT p FROM Product p LEFT JOIN FETCH p.category ORDER BY p.name ASC, p.id ASC")
+    Stream<Product> streamAllWithCategory();
+
+    // [id, category name, brand] rows used to reconcile the in-memory product counts
+    @Query("SELECT p.id, c.name, p.brand FROM Product p LEFT JOIN p.category c")
+    List<Object[]> findIdsWithCategoryAndBrand();
+
+    @Query("SELECT COUNT(p) FROM Product p WHERE LOWER(p.name) LIKE LOWER(CONCAT('%', :search, '%'))")
+    long countByNameContaining(@Param("search") String search);
+
+    @Query("SELECT COUNT(p) FROM Product p WHERE p.category.name = :category AND LOWER(p.name) LIKE LOWER(CONCAT('%', :search, '%'))")
+    long countByCategoryNameAndNameContaining(@Param("category") String category, @Param("search") String search);
+
     @Query("SELECT DISTINCT p FROM Product p " +
            "LEFT JOIN FETCH p.images " +
            "LEFT JOIN FETCH p.category " +
@@ -124,6 +155,31 @@ public interface ProductRepository extends JpaRepository<Product, Long> {
     @Query("SELECT p.id FROM Product p WHERE p.category.name = :category AND LOWER(p.name) LIKE LOWER(CONCAT('%', :search, '%')) ORDER BY p.name ASC")
     Page<Long> findProductIdsByCategoryAndNameContaining(@Param("category") String category, @Param("search") String search, Pageable pageable);
     
+    // KEYSET PAGINATION: IDs strictly after the (name, id) of the previous page's last product,
+    // the Pageable only carries the limit so no OFFSET or COUNT query is issued
+    @Query("SELECT p.id FROM Product p " +
+           "WHERE (:first = true OR p.name > :name OR (p.name = :name AND p.id > :id)) " +
+           "ORDER BY p.name ASC, p.id ASC")
+    List<Long> findProductIdsAfter(@Param("first") boolean first, @Param("name") String name, @Param("id") Long id, Pageable limit);
+
+    @Query("SELECT p.id FROM Product p " +
+           "WHERE p.category.name = :category " +
+           "AND (:first = true OR p.name > :name OR (p.name = :name AND p.id > :id)) " +
+           "ORDER BY p.name ASC, p.id ASC")
+    List<Long> findProductIdsByCategoryAfter(@Param("category") String category, @Param("first") boolean first, @Param("name") String name, @Param("id") Long id, Pageable limit);
+
+    @Query("SELECT p.id FROM Product p " +
+           "WHERE LOWER(p.name) LIKE LOWER(CONCAT('%', :search, '%')) " +
+           "AND (:first = true OR p.name > :name OR (p.name = :name AND p.id > :id)) " +
+           "ORDER BY p.name ASC, p.id ASC")
+    List<Long> findProductIdsByNameContainingAfter(@Param("search") String search, @Param("first") boolean first, @Param("name") String name, @Param("id") Long id, Pageable limit);
+
+    @Query("SELECT p.id FROM Product p " +
+           "WHERE p.category.name = :category AND LOWER(p.name) LIKE LOWER(CONCAT('%', :search, '%')) " +
+           "AND (:first = true OR p.name > :name OR (p.name = :name AND p.id > :id)) " +
+           "ORDER BY p.name ASC, p.id ASC")
+    List<Long> findProductIdsByCategoryAndNameContainingAfter(@Param("category") String category, @Param("search") String search, @Param("first") boolean first, @Param("name") String name, @Param("id") Long id, Pageable limit);
+
     // Step 2: Get full objects with JOIN FETCH for specific IDs (fast)
     @Query("SELECT DISTINCT p FROM Product p " +
            "LEFT JOIN FETCH p.images " +
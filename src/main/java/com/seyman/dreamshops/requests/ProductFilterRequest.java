@@ -0,0 +1,16 @@
+package com.seyman.dreamshops.requests;
+
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+public class ProductFilterRequest {
+    // Several values of the same facet are OR'ed, different facets are AND'ed
+    private List<String> category;
+    private List<String> brand;
+    private List<String> priceBand;
+    private Boolean onSale;
+    private Boolean flashSale;
+    private Boolean inStock;
+}
@@ -0,0 +1,242 @@
+package com.seyman.dreamshops.service.admission;
+
+import com.seyman.dreamshops.dto.AdmissionDto;
+import com.seyman.dreamshops.exceptions.AdmissionRequiredException;
+import com.seyman.dreamshops.exceptions.ResourceNotFoundException;
+import com.seyman.dreamshops.exceptions.ServiceBusyException;
+import com.seyman.dreamshops.service.admission.AdmissionTokenSigner.Slot;
+import com.seyman.dreamshops.service.cache.SharedStateStore;
+import com.seyman.dreamshops.service.inventory.FlashSaleStockLedger;
+import com.seyman.dreamshops.service.order.OrderIntakeService;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Waiting room in front of checkout while a flash sale is live. Each user gets a signed slot
+ * from {@link CheckoutTokenBucket}, whose rate follows the capacity measured by
+ * {@link OrderIntakeService}. When the bucket is drained the slot lies in the future, and its
+ * distance in tokens is the user's position in the queue. An order is only taken with an open
+ * slot, each slot once.
+ * <p>
+ * The bucket is per node: every node admits what its own workers can place. The slot a user
+ * holds and the ids of used slots are kept in {@link SharedStateStore}, so a user is queued
+ * once and a slot used once whichever node they reach.
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class AdmissionService {
+
+    public static final String HEADER = "Admission-Token";
+
+    private static final String HELD_KEY_PREFIX = "admission:slot:";
+    private static final String USED_KEY_PREFIX = "admission:used:";
+
+    private final FlashSaleStockLedger flashSaleStockLedger;
+    private final OrderIntakeService orderIntakeService;
+    private final SharedStateStore sharedStateStore;
+
+    @Value("${admission.enabled:true}")
+    private boolean enabled;
+
+    @Value("${admission.secret:${jwt.secret}}")
+    private String secret;
+
+    // Checkouts per second until the workers have been measured
+    @Value("${admission.initial-rate:20}")
+    private double initialRate;
+
+    @Value("${admission.min-rate:5}")
+    private double minRate;
+
+    @Value("${admission.max-rate:500}")
+    private double maxRate;
+
+    // Share of the measured capacity handed out, the rest covers the error of the estimate
+    @Value("${admission.utilization:0.8}")
+    private double utilization;
+
+    @Value("${admission.burst:20}")
+    private int burst;
+
+    // How long an opened slot can be used
+    @Value("${admission.slot-seconds:60}")
+    private long slotSeconds;
+
+    // Users who would wait longer are turned away instead of queued
+    @Value("${admission.max-wait-seconds:300}")
+    private long maxWaitSeconds;
+
+    private CheckoutTokenBucket bucket;
+    private AdmissionTokenSigner signer;
+
+    @PostConstruct
+    public void init() {
+        bucket = new CheckoutTokenBucket(initialRate, burst);
+        signer = new AdmissionTokenSigner(secret);
+    }
+
+    /**
+     * @return whether admission is enabled and a flash sale is within its sale window with stock left
+     */
+    public boolean isActive() {
+        return enabled && flashSaleStockLedger.isSaleLive();
+    }
+
+    /**
+     * Gives the user a checkout slot, or the one they already hold.
+     *
+     * @throws ServiceBusyException if the slot would open later than the longest wait
+     */
+    public AdmissionDto admit(Long userId) {
+        long now = System.currentTimeMillis();
+        return toDto(shared(() -> hold(userId, now)), now);
+    }
+
+    /**
+     * @throws ResourceNotFoundException if the user holds no slot
+     */
+    public AdmissionDto getAdmission(Long userId) {
+        long now = System.currentTimeMillis();
+        Slot slot = shared(() -> held(userId, now)).orElseThrow(() ->
+                new ResourceNotFoundException("No checkout slot for user " + userId));
+        return toDto(slot, now);
+    }
+
+    /**
+     * Runs the checkout of an order of the user, while admission is active only with an open
+     * slot. It takes the open slot of the token; without a usable token the call asks for a
+     * slot itself, and goes through if that one is open right away. The slot counts as used
+     * once the checkout returns; if it throws, the slot stays usable for a retry.
+     *
+     * @throws AdmissionRequiredException if the slot has not opened yet
+     * @throws ServiceBusyException       if no slot could be given out
+     */
+    public <T> T admitCheckout(Long userId, String token, Supplier<T> checkout) {
+        if (!isActive()) {
+            return checkout.get();
+        }
+        long now = System.currentTimeMillis();
+        Slot verified = token != null && !token.isBlank() ? signer.verify(token) : null;
+        Slot slot = shared(() -> verified != null && verified.userId().equals(userId) && !verified.expired(now) && !isUsed(verified)
+                ? verified : hold(userId, now));
+        if (!slot.open(now)) {
+            throw new AdmissionRequiredException(toDto(slot, now));
+        }
+        String usedKey = USED_KEY_PREFIX + slot.id();
+        // Kept a little past the slot's end, the token is refused as expired by then
+        Duration usedTtl = Duration.ofMillis(slot.expiresAtMillis() - now).plusSeconds(1);
+        if (!shared(() -> sharedStateStore.setIfAbsent(usedKey, userId.toString(), usedTtl))) {
+            // Taken by a concurrent order of the same user
+            throw new AdmissionRequiredException(admit(userId));
+        }
+        T result;
+        try {
+            result = checkout.get();
+        } catch (RuntimeException e) {
+            try {
+                sharedStateStore.delete(usedKey);
+            } catch (DataAccessException storeFailure) {
+                log.warn("Checkout slot {} stays used after a failed checkout: {}", slot.id(), storeFailure.getMessage());
+            }
+            throw e;
+        }
+        try {
+            sharedStateStore.compareAndDelete(HELD_KEY_PREFIX + userId, signer.sign(slot));
+        } catch (DataAccessException e) {
+            log.debug("Used checkout slot {} is left to expire: {}", slot.id(), e.getMessage());
+        }
+        return result;
+    }
+
+    /**
+     * Follows the measured checkout capacity.
+     */
+    @Scheduled(fixedDelayString = "${admission.adjust-interval-ms:1000}")
+    public void adjust() {
+        double capacity = orderIntakeService.measuredCapacity();
+        double rate = capacity > 0 ? Math.max(minRate, Math.min(maxRate, capacity * utilization)) : initialRate;
+        if (Math.abs(rate - bucket.perSecond()) > bucket.perSecond() * 0.05) {
+            log.debug("Checkout admission rate {} per second, measured capacity {}", Math.round(rate), Math.round(capacity));
+            bucket.setRate(rate, burst);
+        }
+    }
+
+    // The slot the user holds, or a new one; a concurrent request that stored one first wins
+    private Slot hold(Long userId, long now) {
+        String key = HELD_KEY_PREFIX + userId;
+        Optional<String> heldToken = sharedStateStore.get(key);
+        Optional<Slot> held = heldToken.map(signer::verify).filter(slot -> usable(slot, now));
+        if (held.isPresent()) {
+            return held.get();
+        }
+        heldToken.ifPresent(stale -> sharedStateStore.compareAndDelete(key, stale));
+        Slot slot = reserve(userId, now);
+        if (sharedStateStore.setIfAbsent(key, signer.sign(slot), Duration.ofMillis(slot.expiresAtMillis() - now))) {
+            return slot;
+        }
+        return held(userId, now).orElse(slot);
+    }
+
+    private Optional<Slot> held(Long userId, long now) {
+        return sharedStateStore.get(HELD_KEY_PREFIX + userId).map(signer::verify).filter(slot -> usable(slot, now));
+    }
+
+    private boolean usable(Slot slot, long now) {
+        return slot != null && !slot.expired(now) && !isUsed(slot);
+    }
+
+    private boolean isUsed(Slot slot) {
+        return sharedStateStore.get(USED_KEY_PREFIX + slot.id()).isPresent();
+    }
+
+    private Slot reserve(Long userId, long now) {
+        long waitNanos = bucket.reserve(TimeUnit.SECONDS.toNanos(maxWaitSeconds));
+        if (waitNanos < 0) {
+            long retryAfter = TimeUnit.NANOSECONDS.toSeconds(bucket.currentWaitNanos()) - maxWaitSeconds;
+            throw new ServiceBusyException("The checkout queue is full, please try again later", Math.max(1, retryAfter));
+        }
+        long notBefore = now + TimeUnit.NANOSECONDS.toMillis(waitNanos);
+        return signer.newSlot(userId, notBefore, notBefore + TimeUnit.SECONDS.toMillis(slotSeconds));
+    }
+
+    private AdmissionDto toDto(Slot slot, long now) {
+        long waitMillis = Math.max(0, slot.notBeforeMillis() - now);
+        AdmissionDto admission = new AdmissionDto();
+        admission.setStatus(waitMillis > 0 ? "WAITING" : "ADMITTED");
+        admission.setToken(signer.sign(slot));
+        // Slots handed out ahead of this one, at the current rate
+        admission.setPosition((int) Math.ceil((double) TimeUnit.MILLISECONDS.toNanos(waitMillis) / bucket.intervalNanos()));
+        admission.setRetryAfterSeconds((waitMillis + 999) / 1000);
+        admission.setSlotStart(time(slot.notBeforeMillis()));
+        admission.setSlotEnd(time(slot.expiresAtMillis()));
+        return admission;
+    }
+
+    // Slots are not handed out or taken while the store is unreachable
+    private static <T> T shared(Supplier<T> call) {
+        try {
+            return call.get();
+        } catch (DataAccessException e) {
+            log.warn("Checkout slots are unavailable: {}", e.getMessage());
+            throw new ServiceBusyException("Checkout admission is unavailable right now, please retry", 1);
+        }
+    }
+
+    private static LocalDateTime time(long epochMillis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), ZoneId.systemDefault());
+    }
+}
@@ -0,0 +1,83 @@
+package com.seyman.dreamshops.service.admission;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.UUID;
+
+/**
+ * Admission tokens: the user, the slot they may check out in and a nonce, followed by an
+ * HMAC-SHA256 of those, both Base64url encoded and joined by a dot.
+ */
+public class AdmissionTokenSigner {
+
+    private static final String ALGORITHM = "HmacSHA256";
+
+    public record Slot(String id, Long userId, long notBeforeMillis, long expiresAtMillis) {
+
+        public boolean open(long nowMillis) {
+            return nowMillis >= notBeforeMillis && nowMillis < expiresAtMillis;
+        }
+
+        public boolean expired(long nowMillis) {
+            return nowMillis >= expiresAtMillis;
+        }
+    }
+
+    private final SecretKeySpec key;
+
+    public AdmissionTokenSigner(String secret) {
+        this.key = new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), ALGORITHM);
+    }
+
+    public Slot newSlot(Long userId, long notBeforeMillis, long expiresAtMillis) {
+        return new Slot(UUID.randomUUID().toString(), userId, notBeforeMillis, expiresAtMillis);
+    }
+
+    public String sign(Slot slot) {
+        String payload = encode((slot.id() + ":" + slot.userId() + ":" + slot.notBeforeMillis() + ":" + slot.expiresAtMillis())
+                .getBytes(StandardCharsets.UTF_8));
+        return payload + "." + encode(mac(payload));
+    }
+
+    /**
+     * @return the slot of the token, or null if it is malformed or not signed by this key
+     */
+    public Slot verify(String token) {
+        int dot = token.indexOf('.');
+        if (dot < 0) {
+            return null;
+        }
+        String payload = token.substring(0, dot);
+        try {
+            byte[] signature = Base64.getUrlDecoder().decode(token.substring(dot + 1));
+            if (!MessageDigest.isEqual(signature, mac(payload))) {
+                return null;
+            }
+            String[] fields = new String(Base64.getUrlDecoder().decode(payload), StandardCharsets.UTF_8).split(":");
+            if (fields.length != 4) {
+                return null;
+            }
+            return new Slot(fields[0], Long.parseLong(fields[1]), Long.parseLong(fields[2]), Long.parseLong(fields[3]));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private byte[] mac(String payload) {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            return mac.doFinal(payload.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Cannot sign admission tokens", e);
+        }
+    }
+
+    private static String encode(byte[] bytes) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+}
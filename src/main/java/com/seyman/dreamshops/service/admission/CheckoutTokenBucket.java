@@ -0,0 +1,67 @@
+package com.seyman.dreamshops.service.admission;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket kept as the time the next token is due (the generic cell rate algorithm), so
+ * taking one is a single compare-and-set. Instead of only granting or refusing, a caller can
+ * reserve a future token: the reservation moves the due time on, and callers that come later
+ * queue behind it.
+ */
+public class CheckoutTokenBucket {
+
+    private final AtomicLong theoreticalArrival = new AtomicLong(System.nanoTime());
+    private volatile long intervalNanos;
+    private volatile long toleranceNanos;
+
+    public CheckoutTokenBucket(double perSecond, int burst) {
+        setRate(perSecond, burst);
+    }
+
+    /**
+     * @return nanoseconds until the reserved token may be used, 0 for right away, or -1 if
+     * it would be further away than maxWaitNanos; nothing is reserved then
+     */
+    public long reserve(long maxWaitNanos) {
+        while (true) {
+            long now = System.nanoTime();
+            long due = theoreticalArrival.get();
+            long interval = intervalNanos;
+            long wait = Math.max(0, due - toleranceNanos - now);
+            if (wait > maxWaitNanos) {
+                return -1;
+            }
+            if (theoreticalArrival.compareAndSet(due, Math.max(due, now) + interval)) {
+                return wait;
+            }
+        }
+    }
+
+    /**
+     * @return how long a reservation made now would wait
+     */
+    public long currentWaitNanos() {
+        return Math.max(0, theoreticalArrival.get() - toleranceNanos - System.nanoTime());
+    }
+
+    /**
+     * @param burst tokens that can be taken at once after a quiet period
+     */
+    public void setRate(double perSecond, int burst) {
+        if (perSecond <= 0 || burst < 1) {
+            throw new IllegalArgumentException("Rate and burst must be positive: " + perSecond + ", " + burst);
+        }
+        long interval = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / perSecond));
+        this.toleranceNanos = (burst - 1) * interval;
+        this.intervalNanos = interval;
+    }
+
+    public double perSecond() {
+        return (double) TimeUnit.SECONDS.toNanos(1) / intervalNanos;
+    }
+
+    public long intervalNanos() {
+        return intervalNanos;
+    }
+}
@@ -0,0 +1,37 @@
+package com.seyman.dreamshops.service.cache;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.boot.actuate.health.Status;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+
+/**
+ * Reports the Redis circuit of {@link CacheService} as the "cacheCircuit" health component.
+ * An open circuit is DEGRADED rather than DOWN: requests are still served from the local tiers.
+ */
+@Component("cacheCircuit")
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "spring.data.redis.repositories.enabled", havingValue = "true", matchIfMissing = false)
+public class CacheCircuitHealthIndicator implements HealthIndicator {
+
+    static final Status DEGRADED = new Status("DEGRADED", "Redis is unreachable, serving from the local cache");
+
+    private final CacheService cacheService;
+
+    @Override
+    public Health health() {
+        RedisCircuitBreaker circuit = cacheService.getCircuit();
+        Health.Builder health = circuit.isOpen()
+                ? Health.status(DEGRADED).withDetail("openSince", Instant.ofEpochMilli(circuit.openedAt()).toString())
+                : Health.up();
+        return health.withDetail("state", circuit.state())
+                .withDetail("consecutiveFailures", circuit.consecutiveFailures())
+                .withDetail("shortCircuited", circuit.shortCircuitedCount())
+                .withDetail("opened", circuit.openedCount())
+                .build();
+    }
+}
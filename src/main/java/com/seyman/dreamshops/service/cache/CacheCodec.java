@@ -0,0 +1,27 @@
+package com.seyman.dreamshops.service.cache;
+
+import com.fasterxml.jackson.databind.JavaType;
+
+import java.io.IOException;
+
+/**
+ * Serializes cache values for Redis. The id is written into the header of every entry, so
+ * entries written with another codec stay readable while the configured codec changes.
+ * Additional codecs can be registered as beans.
+ */
+public interface CacheCodec {
+
+    /**
+     * Stored in the entry header, must be unique and never reused for another format.
+     */
+    byte id();
+
+    /**
+     * Name used to select the codec with the cache.codec property.
+     */
+    String name();
+
+    byte[] encode(Object value) throws IOException;
+
+    Object decode(byte[] data, JavaType type) throws IOException;
+}
@@ -0,0 +1,119 @@
+package com.seyman.dreamshops.service.cache;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Binary layout of a Redis cache value:
+ * <pre>
+ * magic (0xCA) | format version | codec id | flags | refreshAt (8 bytes) | payload
+ * </pre>
+ * The payload is deflated when it is larger than the compression threshold. Values written
+ * before this layout are plain JSON text, optionally prefixed with "~refreshAt|"; they never
+ * start with the magic byte and are still read through {@link #isEnvelope}.
+ */
+public final class CacheEnvelope {
+
+    public static final byte MAGIC = (byte) 0xCA;
+    public static final byte FORMAT_VERSION = 1;
+
+    private static final byte FLAG_DEFLATED = 1;
+    private static final int HEADER_LENGTH = 12;
+
+    private CacheEnvelope() {
+    }
+
+    public static byte[] wrap(byte codecId, byte[] payload, long refreshAt, int compressionThreshold) {
+        byte flags = 0;
+        if (compressionThreshold >= 0 && payload.length > compressionThreshold) {
+            byte[] deflated = deflate(payload);
+            // Already compact payloads can grow, keep whichever is smaller
+            if (deflated.length < payload.length) {
+                payload = deflated;
+                flags |= FLAG_DEFLATED;
+            }
+        }
+        return ByteBuffer.allocate(HEADER_LENGTH + payload.length)
+                .put(MAGIC)
+                .put(FORMAT_VERSION)
+                .put(codecId)
+                .put(flags)
+                .putLong(refreshAt)
+                .put(payload)
+                .array();
+    }
+
+    public static boolean isEnvelope(byte[] data) {
+        return data.length >= HEADER_LENGTH && data[0] == MAGIC;
+    }
+
+    public static Unwrapped unwrap(byte[] data) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        buffer.get();
+        byte version = buffer.get();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Unsupported cache entry format version " + version);
+        }
+        byte codecId = buffer.get();
+        byte flags = buffer.get();
+        long refreshAt = buffer.getLong();
+        byte[] payload = new byte[buffer.remaining()];
+        buffer.get(payload);
+        if ((flags & FLAG_DEFLATED) != 0) {
+            payload = inflate(payload);
+        }
+        return new Unwrapped(codecId, refreshAt, payload);
+    }
+
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 64);
+            byte[] chunk = new byte[8192];
+            while (!deflater.finished()) {
+                out.write(chunk, 0, deflater.deflate(chunk));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] data) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 4);
+            byte[] chunk = new byte[8192];
+            while (!inflater.finished()) {
+                int length = inflater.inflate(chunk);
+                if (length == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Truncated compressed cache entry");
+                }
+                out.write(chunk, 0, length);
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt compressed cache entry", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class Unwrapped {
+        private final byte codecId;
+        private final long refreshAt;
+        private final byte[] payload;
+    }
+}
@@ -0,0 +1,59 @@
+package com.seyman.dreamshops.service.cache;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Delivers the messages other nodes publish to every {@link RedisChannelListener}: cache
+ * invalidations for the local L1 tier, product changes for the in-memory indexes. The listener
+ * container is not a lifecycle bean since an unreachable Redis would fail the startup, and it
+ * does not recover from a failed first subscribe on its own; this retries until it is listening.
+ */
+@Component
+@Slf4j
+@ConditionalOnProperty(name = "spring.data.redis.repositories.enabled", havingValue = "true", matchIfMissing = false)
+public class CacheInvalidationSubscriber implements DisposableBean {
+
+    private final RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+    private final List<RedisChannelListener> listeners;
+    private boolean subscribedBefore;
+
+    public CacheInvalidationSubscriber(RedisConnectionFactory connectionFactory, List<RedisChannelListener> listeners) {
+        this.listeners = listeners;
+        container.setConnectionFactory(connectionFactory);
+        listeners.forEach(listener -> container.addMessageListener(listener, new ChannelTopic(listener.channel())));
+        container.afterPropertiesSet();
+    }
+
+    // The first run happens right after startup
+    @Scheduled(fixedDelayString = "${cache.invalidation-subscribe-retry-ms:10000}")
+    public synchronized void subscribe() {
+        if (container.isListening()) {
+            return;
+        }
+        try {
+            container.stop();
+            container.start();
+            log.info("Subscribed to {} Redis channels", listeners.size());
+            if (subscribedBefore) {
+                listeners.forEach(RedisChannelListener::onResubscribed);
+            }
+            subscribedBefore = true;
+        } catch (Exception e) {
+            log.warn("Cache invalidation subscription failed, retrying later: {}", e.getMessage());
+        }
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        container.destroy();
+    }
+}
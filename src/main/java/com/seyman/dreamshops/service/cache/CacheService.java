@@ -1,60 +1,496 @@
 package com.seyman.dreamshops.service.cache;
 
 import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.DeserializationFeature;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.SerializationFeature;
-import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.type.TypeFactory;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.Cursor;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
+/**
+ * Two-tier cache: a small local L1 of already deserialized values in front of Redis (L2).
+ * Every invalidation is published on a Redis channel so the other nodes drop their L1 copies;
+ * without Redis a plain in-memory map is used instead.
+ */
 @Service
 @Slf4j
-public class CacheService {
+public class CacheService implements RedisChannelListener {
 
     @Autowired(required = false)
     private RedisTemplate<String, String> redisTemplate; // String-only Redis template
+
+    @Autowired(required = false)
+    private MeterRegistry meterRegistry;
     
-    private final ObjectMapper objectMapper; // Local ObjectMapper for this service only
+    @Autowired(required = false)
+    private List<CacheCodec> customCodecs = List.of();
+
+    // Every known codec by header id, any of them can be read
+    private final Map<Byte, CacheCodec> codecs = new HashMap<>();
+    // Used to write new entries
+    private CacheCodec codec;
+    // Reads entries written before CacheEnvelope
+    private final CacheCodec jsonCodec = JacksonCacheCodec.json();
     
-    // Fallback in-memory cache when Redis is not available
-    private final ConcurrentMap<String, CacheEntry> inMemoryCache = new ConcurrentHashMap<>();
+    // Fallback in-memory cache when Redis is not available, bounded by an estimated byte budget
+    private final SegmentedLruCache inMemoryCache = new SegmentedLruCache(64L * 1024 * 1024, CacheService::estimateWeight);
+
+    private static final String GENERATION_KEY_PREFIX = "cache:generation:";
+    private static final int SCAN_BATCH_SIZE = 500;
+    // Guessed heap size of an object other than a string, number or collection
+    private static final long OBJECT_WEIGHT = 1024;
+    private static final String LOAD_LOCK_PREFIX = "cache:load-lock:";
+    private static final long LOCK_POLL_MILLIS = 50;
+
+    // Deletes the lock only while it still holds our token, so an expired lock taken over by another node survives
+    private static final RedisScript<Long> RELEASE_LOCK = new DefaultRedisScript<>(
+            "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('del', KEYS[1]) else return 0 end", Long.class);
+
+    // "cache:deps:<dependency>" holds the physical keys built from that dependency,
+    // "cache:dependencies" the names of all dependencies with such a set
+    private static final String DEPENDENCY_KEY_PREFIX = "cache:deps:";
+    private static final String DEPENDENCY_REGISTRY_KEY = "cache:dependencies";
+    // Outlives the hard TTL of the keys in a set, each recorded key extends it again
+    private static final Duration MIN_DEPENDENCY_TTL = Duration.ofHours(1);
+    private static final int MAX_LOCAL_DEPENDENCIES = 10_000;
+
+    // Reads and deletes the dependency sets in one step, so a key recorded meanwhile lands in a new set
+    @SuppressWarnings("rawtypes")
+    private static final RedisScript<List> DRAIN_DEPENDENCIES = new DefaultRedisScript<>(
+            "local keys = {} "
+                    + "for _, set in ipairs(KEYS) do "
+                    + "for _, key in ipairs(redis.call('smembers', set)) do keys[#keys + 1] = key end "
+                    + "redis.call('del', set) "
+                    + "end "
+                    + "return keys", List.class);
+
+    // Dependencies of keys cached in memory; dropping a dependency also drops its keys,
+    // since they could no longer be invalidated precisely
+    private final Map<String, Set<String>> localDependencies = new LinkedHashMap<>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Set<String>> eldest) {
+            if (size() <= MAX_LOCAL_DEPENDENCIES) {
+                return false;
+            }
+            eldest.getValue().forEach(inMemoryCache::remove);
+            return true;
+        }
+    };
+
+    // Loads currently running on this node, by physical key
+    private final ConcurrentMap<String, CompletableFuture<Object>> inFlightLoads = new ConcurrentHashMap<>();
+
+    // Values written before CacheEnvelope carried "~<refreshAt>|" in front of the JSON
+    private static final String LEGACY_REFRESH_HEADER = "~";
+    private static final long NO_REFRESH = Long.MAX_VALUE;
+
+    // Written-behind values not stored yet, by physical key, see registerWrite
+    private final ConcurrentMap<String, Object> pendingWrites = new ConcurrentHashMap<>();
+
+    // Keys with a background refresh queued or running on this node
+    private final Set<String> refreshing = ConcurrentHashMap.newKeySet();
+    private final ThreadPoolExecutor refreshExecutor = newExecutor("cache-refresh-", 2, 100);
+
+    // Serializes and writes loaded values off the request thread, created in init()
+    private ThreadPoolExecutor writeBehindExecutor;
+    private final LongAdder droppedWrites = new LongAdder();
+
+    // Current generation per key namespace (the part before the first ':')
+    private final ConcurrentMap<String, Generation> generations = new ConcurrentHashMap<>();
+
+    @Value("${cache.generation-refresh-ms:1000}")
+    private long generationRefreshMillis = 1000;
+
+    @Value("${cache.memory.max-bytes:67108864}")
+    private long memoryMaxBytes = 64L * 1024 * 1024;
+
+    @Value("${cache.single-flight.wait-ms:10000}")
+    private long singleFlightWaitMillis = 10000;
+
+    @Value("${cache.single-flight.distributed-lock:true}")
+    private boolean distributedLoadLock = true;
+
+    @Value("${cache.single-flight.lock-ttl-ms:10000}")
+    private long loadLockTtlMillis = 10000;
+
+    @Value("${cache.write-behind.enabled:true}")
+    private boolean writeBehindEnabled = true;
+
+    @Value("${cache.write-behind.threads:2}")
+    private int writeBehindThreads = 2;
+
+    @Value("${cache.write-behind.queue-capacity:1000}")
+    private int writeBehindQueueCapacity = 1000;
+
+    @Value("${cache.codec:smile}")
+    private String codecName = "smile";
+
+    // Payloads above this size are deflated, -1 disables compression
+    @Value("${cache.compression-threshold-bytes:1024}")
+    private int compressionThreshold = 1024;
+
+    @Value("${cache.ttl-jitter-ratio:0.1}")
+    private double ttlJitterRatio = 0.1;
+
+    @Value("${cache.stale-ratio:0.5}")
+    private double staleRatio = 0.5;
+
+    @Value("${cache.refresh-ahead-ratio:0.2}")
+    private double refreshAheadRatio = 0.2;
+
+    @Value("${cache.l1.max-entries:500}")
+    private int l1MaxEntries = 500;
+
+    @Value("${cache.l1.ttl-seconds:30}")
+    private long l1TtlSeconds = 30;
+
+    @Getter
+    @Value("${cache.invalidation-channel:cache:invalidation}")
+    private String invalidationChannel = "cache:invalidation";
+
+    // Lets a node ignore its own invalidation messages
+    private final String nodeId = UUID.randomUUID().toString();
+
+    // Local L1 tier in access order, only used in front of Redis
+    private final Map<String, CacheEntry> l1Cache = new LinkedHashMap<>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+            return size() > l1MaxEntries;
+        }
+    };
+
+    @Value("${cache.circuit.failure-threshold:5}")
+    private int circuitFailureThreshold = 5;
+
+    // Redis calls are short-circuited to the local tiers while it is open
+    @Getter
+    private final RedisCircuitBreaker circuit = new RedisCircuitBreaker(5);
+
+    // Invalidations that did not reach Redis, replayed once it is reachable again.
+    // Single keys are replayed by bumping their namespace.
+    private final Set<String> pendingNamespaces = ConcurrentHashMap.newKeySet();
+    private final Set<String> pendingDependencies = ConcurrentHashMap.newKeySet();
+    private volatile boolean pendingOverflow = false;
+
+    private final TierStats l1Stats = new TierStats();
+    private final TierStats redisStats = new TierStats();
+    private final TierStats memoryStats = new TierStats();
     
     public CacheService() {
-        this.objectMapper = new ObjectMapper();
-        this.objectMapper.registerModule(new JavaTimeModule());
-        this.objectMapper.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
-        // Configure Jackson to ignore unknown properties during deserialization
-        // This fixes issues with computed fields like effectivePrice and savings
-        this.objectMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        registerCodec(jsonCodec);
+        registerCodec(JacksonCacheCodec.smile());
+        this.codec = codecs.get(JacksonCacheCodec.SMILE_ID);
     }
 
-    public void put(String key, Object value, Duration ttl) {
+    @PostConstruct
+    void init() {
+        customCodecs.forEach(this::registerCodec);
+        this.codec = codecs.values().stream()
+                .filter(candidate -> candidate.name().equalsIgnoreCase(codecName))
+                .findFirst()
+                .orElseThrow(() -> new IllegalStateException("Unknown cache codec: " + codecName));
+        log.info("Writing cache entries with the {} codec", codec.name());
+
+        inMemoryCache.setMaxWeight(memoryMaxBytes);
+        circuit.setFailureThreshold(circuitFailureThreshold);
+        if (writeBehindEnabled) {
+            writeBehindExecutor = newExecutor("cache-write-", writeBehindThreads, writeBehindQueueCapacity);
+        }
+        if (meterRegistry == null) {
+            return;
+        }
+        l1Stats.register(meterRegistry, "l1");
+        redisStats.register(meterRegistry, "redis");
+        memoryStats.register(meterRegistry, "memory");
+        Gauge.builder("cache.l1.size", l1Cache, cache -> {
+            synchronized (cache) {
+                return cache.size();
+            }
+        }).description("Entries in the local L1 cache").register(meterRegistry);
+        Gauge.builder("cache.memory.size", inMemoryCache, SegmentedLruCache::size)
+                .description("Entries in the in-memory fallback cache").register(meterRegistry);
+        Gauge.builder("cache.memory.bytes", inMemoryCache, SegmentedLruCache::weight)
+                .description("Estimated size of the in-memory fallback cache").baseUnit("bytes").register(meterRegistry);
+        FunctionCounter.builder("cache.memory.evictions", inMemoryCache, SegmentedLruCache::evictionCount)
+                .description("Entries evicted from the in-memory fallback cache").register(meterRegistry);
+        Gauge.builder("cache.redis.circuit.open", circuit, breaker -> breaker.isOpen() ? 1 : 0)
+                .description("Whether Redis calls are short-circuited to the local cache").register(meterRegistry);
+        FunctionCounter.builder("cache.redis.circuit.short-circuited", circuit, RedisCircuitBreaker::shortCircuitedCount)
+                .description("Redis calls skipped while the circuit was open").register(meterRegistry);
+        FunctionCounter.builder("cache.redis.circuit.failures", circuit, RedisCircuitBreaker::failureCount)
+                .description("Failed Redis calls").register(meterRegistry);
+        FunctionCounter.builder("cache.redis.circuit.opened", circuit, RedisCircuitBreaker::openedCount)
+                .description("Times the Redis circuit opened").register(meterRegistry);
+        FunctionCounter.builder("cache.write-behind.dropped", droppedWrites, LongAdder::sum)
+                .description("Cache writes dropped because the write-behind queue was full").register(meterRegistry);
+        if (writeBehindExecutor != null) {
+            Gauge.builder("cache.write-behind.queued", writeBehindExecutor, executor -> executor.getQueue().size())
+                    .description("Cache writes waiting for the write-behind executor").register(meterRegistry);
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        refreshExecutor.shutdownNow();
+        if (writeBehindExecutor != null) {
+            // Queued writes are only worth a short wait, the values can always be loaded again
+            writeBehindExecutor.shutdown();
+            try {
+                writeBehindExecutor.awaitTermination(2, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // Expired fallback entries would otherwise stay until the same key is read again
+    @Scheduled(fixedDelayString = "${cache.memory.sweep-interval-ms:60000}")
+    public void sweepExpired() {
+        int removed = inMemoryCache.removeExpired();
+        if (removed > 0) {
+            log.debug("Swept {} expired entries from the in-memory cache", removed);
+        }
+    }
+
+    /**
+     * Closes an open circuit once Redis answers a PING again, and replays the invalidations
+     * it missed. The local tiers are cleared on close: they may hold values other nodes have
+     * invalidated meanwhile, and Redis is the shared copy again.
+     */
+    @Scheduled(fixedDelayString = "${cache.circuit.probe-interval-ms:2000}")
+    public void probeRedis() {
+        if (redisTemplate == null) {
+            return;
+        }
+        if (circuit.isOpen()) {
+            try {
+                redisTemplate.execute((RedisCallback<String>) connection -> connection.ping());
+            } catch (Exception e) {
+                log.debug("Redis is still unreachable: {}", e.getMessage());
+                return;
+            }
+            if (circuit.close()) {
+                removeLocal(key -> true);
+                inMemoryCache.removeIf(key -> true);
+                synchronized (localDependencies) {
+                    localDependencies.clear();
+                }
+                log.info("Redis is reachable again after {} s, closed the cache circuit",
+                        (System.currentTimeMillis() - circuit.openedAt()) / 1000);
+            }
+        }
+        replayPendingInvalidations();
+    }
+
+    private void replayPendingInvalidations() {
+        if (pendingOverflow) {
+            pendingOverflow = false;
+            pendingDependencies.clear();
+            pendingDependencies.addAll(dependencies(""));
+        }
+        List<String> namespaces = new ArrayList<>(pendingNamespaces);
+        List<String> dependencies = new ArrayList<>(pendingDependencies);
+        if (namespaces.isEmpty() && dependencies.isEmpty()) {
+            return;
+        }
+        namespaces.forEach(pendingNamespaces::remove);
+        dependencies.forEach(pendingDependencies::remove);
+        log.info("Replaying missed cache invalidations: namespaces {}, {} dependencies", namespaces, dependencies.size());
+        namespaces.forEach(this::invalidateNamespace);
+        if (!dependencies.isEmpty()) {
+            invalidateDependencies(dependencies);
+        }
+    }
+
+    public void put(String logicalKey, Object value, Duration ttl) {
+        store(physicalKey(logicalKey), value, jitter(ttl), NO_REFRESH);
+    }
+
+    /**
+     * Like {@link #put}, but serializes and writes the value on the write-behind executor.
+     * With Redis the value is in this node's L1 right away. When the queue is full the write
+     * is dropped and counted, the next miss loads the value again.
+     */
+    public void putAsync(String logicalKey, Object value, Duration ttl) {
+        String key = physicalKey(logicalKey);
+        Duration jittered = jitter(ttl);
+        if (redisAvailable()) {
+            putLocal(key, value, jittered, NO_REFRESH);
+        }
+        Object token = registerWrite(key);
+        writeBehind(() -> writeIfCurrent(key, token, () -> store(key, value, jittered, NO_REFRESH)),
+                key, () -> pendingWrites.remove(key, token));
+    }
+
+    /**
+     * {@link #putAll} on the write-behind executor, see {@link #putAsync}.
+     */
+    public void putAllAsync(Map<String, ?> values, Duration ttl) {
+        if (values.isEmpty()) {
+            return;
+        }
+        Map<String, Object> byKey = new LinkedHashMap<>();
+        Map<String, Object> tokens = new HashMap<>();
+        values.forEach((logicalKey, value) -> {
+            String key = physicalKey(logicalKey);
+            byKey.put(key, value);
+            tokens.put(key, registerWrite(key));
+        });
+        writeBehind(() -> {
+            byKey.keySet().removeIf(key -> pendingWrites.get(key) != tokens.get(key));
+            storeAll(byKey, ttl);
+            byKey.keySet().stream()
+                    .filter(key -> !claimWrite(key, tokens.get(key)))
+                    .forEach(this::evictWritten);
+        }, byKey.size() + " keys", () -> tokens.forEach(pendingWrites::remove));
+    }
+
+    // Runs the write in the background, or inline without a write-behind executor.
+    // The finisher always runs, once, whether the write ran, failed or was dropped.
+    private void writeBehind(Runnable write, String description, Runnable finisher) {
+        if (writeBehindExecutor == null) {
+            try {
+                write.run();
+            } finally {
+                finisher.run();
+            }
+            return;
+        }
         try {
-            if (redisTemplate != null) {
-                // Convert object to JSON string for Redis storage
-                String jsonValue = objectMapper.writeValueAsString(value);
-                redisTemplate.opsForValue().set(key, jsonValue, ttl);
-                log.debug("Cached value in Redis (as JSON string) with key: {}", key);
+            writeBehindExecutor.execute(() -> {
+                try {
+                    write.run();
+                } catch (Exception e) {
+                    log.warn("Write-behind of {} failed: {}", description, e.getMessage());
+                } finally {
+                    finisher.run();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            droppedWrites.increment();
+            log.debug("Write-behind queue is full, dropped the write of {}", description);
+            finisher.run();
+        }
+    }
+
+    // A queued write only runs while it is still the latest one for its key and the key was
+    // not invalidated meanwhile; removeLocal drops the token of an invalidated key
+    private Object registerWrite(String key) {
+        Object token = new Object();
+        pendingWrites.put(key, token);
+        return token;
+    }
+
+    private void writeIfCurrent(String key, Object token, Runnable write) {
+        if (pendingWrites.get(key) != token) {
+            return;
+        }
+        write.run();
+        if (!claimWrite(key, token)) {
+            evictWritten(key);
+        }
+    }
+
+    private boolean claimWrite(String key, Object token) {
+        return pendingWrites.remove(key, token);
+    }
+
+    // The key was invalidated while its value was being written, the value is already stale
+    private void evictWritten(String key) {
+        synchronized (l1Cache) {
+            l1Cache.remove(key);
+        }
+        inMemoryCache.remove(key);
+        if (!redisAvailable()) {
+            return;
+        }
+        try {
+            redisTemplate.delete(key);
+            publish(InvalidationType.KEY, key);
+        } catch (Exception e) {
+            redisFailed(e);
+            log.warn("Failed to evict stale cached value for key {}: {}", key, e.getMessage());
+        }
+    }
+
+    private void store(String key, Object value, Duration ttl, long refreshAt) {
+        byte[] payload = null;
+        try {
+            if (redisAvailable()) {
+                // Binary value, written through the raw connection since the template only handles strings
+                payload = codec.encode(value);
+                byte[] entry = CacheEnvelope.wrap(codec.id(), payload, refreshAt, compressionThreshold);
+                redisTemplate.execute((RedisCallback<Boolean>) connection -> connection.stringCommands()
+                        .set(rawKey(key), entry, Expiration.from(ttl), RedisStringCommands.SetOption.upsert()));
+                circuit.recordSuccess();
+                log.debug("Cached value in Redis ({} bytes, {}) with key: {}", entry.length, codec.name(), key);
+                // Other nodes may still hold an older value under the same key
+                publish(InvalidationType.KEY, key);
+                putLocal(key, value, ttl, refreshAt);
             } else {
                 // Fall back to in-memory cache
                 long expireTime = System.currentTimeMillis() + ttl.toMillis();
-                inMemoryCache.put(key, new CacheEntry(value, expireTime));
+                inMemoryCache.put(key, new CacheEntry(value, expireTime, refreshAt), expireTime);
                 log.debug("Cached value in memory with key: {}", key);
             }
         } catch (Exception e) {
+            redisFailed(e);
             log.warn("Failed to cache value with key {}: {}", key, e.getMessage());
             // Fallback to in-memory cache if Redis fails
             try {
                 long expireTime = System.currentTimeMillis() + ttl.toMillis();
-                inMemoryCache.put(key, new CacheEntry(value, expireTime));
+                long weight = payload != null ? 2L * payload.length : -1;
+                inMemoryCache.put(key, new CacheEntry(value, expireTime, refreshAt, weight), expireTime);
                 log.debug("Fallback: Cached value in memory with key: {}", key);
             } catch (Exception ex) {
                 log.error("Failed to cache in memory as well: {}", ex.getMessage());
@@ -62,117 +498,889 @@ public class CacheService {
         }
     }
 
-    public <T> Optional<T> get(String key, Class<T> type) {
+    /**
+     * Stores a loaded value with a soft TTL: it is fresh for the (jittered) TTL and kept for
+     * another stale-ratio of it. From the last refresh-ahead-ratio of the fresh period on, and
+     * while stale, a hit is still served immediately and triggers one background refresh.
+     */
+    private void storeLoaded(String key, Object value, Duration ttl, Collection<String> dependencies) {
+        storeLoaded(key, value, ttl, dependencies, false, () -> { });
+    }
+
+    // In the background, the value is put in L1 first so this node already sees it
+    private void storeLoaded(String key, Object value, Duration ttl, Collection<String> dependencies,
+                             boolean inBackground, Runnable finisher) {
+        long fresh = jitter(ttl).toMillis();
+        long refreshAt = System.currentTimeMillis() + (long) (fresh * (1 - refreshAheadRatio));
+        Duration hardTtl = Duration.ofMillis(fresh + (long) (fresh * staleRatio));
+        if (!inBackground) {
+            try {
+                store(key, value, hardTtl, refreshAt);
+                recordDependencies(key, dependencies, hardTtl);
+            } finally {
+                finisher.run();
+            }
+            return;
+        }
+        if (redisAvailable()) {
+            putLocal(key, value, hardTtl, refreshAt);
+        }
+        // Recorded right away, so an invalidation racing the write finds the key and cancels it
+        recordDependencies(key, dependencies, hardTtl);
+        Object token = registerWrite(key);
+        writeBehind(() -> writeIfCurrent(key, token, () -> store(key, value, hardTtl, refreshAt)), key, () -> {
+            pendingWrites.remove(key, token);
+            finisher.run();
+        });
+    }
+
+    // Spreads out the expiry of keys written together
+    private Duration jitter(Duration ttl) {
+        if (ttlJitterRatio <= 0) {
+            return ttl;
+        }
+        double factor = 1 + ThreadLocalRandom.current().nextDouble(-ttlJitterRatio, ttlJitterRatio);
+        return Duration.ofMillis(Math.max(1, (long) (ttl.toMillis() * factor)));
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> Optional<T> get(String logicalKey, Class<T> type) {
+        return lookup(physicalKey(logicalKey), TypeFactory.defaultInstance().constructType(type), type::isInstance)
+                .map(entry -> (T) entry.getValue());
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> Optional<T> get(String logicalKey, TypeReference<T> typeReference) {
+        // Generic type arguments are erased, the key alone decides what is stored under it
+        return lookup(physicalKey(logicalKey), TypeFactory.defaultInstance().constructType(typeReference), value -> true)
+                .map(entry -> (T) entry.getValue());
+    }
+
+    private Optional<CacheEntry> lookup(String key, JavaType type, Predicate<Object> accepts) {
         try {
             if (redisTemplate != null) {
-                // Try Redis first - get JSON string and convert back to object
-                String jsonValue = redisTemplate.opsForValue().get(key);
-                if (jsonValue != null) {
-                    T value = objectMapper.readValue(jsonValue, type);
+                CacheEntry local = getLocal(key);
+                if (local != null && accepts.test(local.getValue())) {
+                    l1Stats.hit();
+                    log.debug("Cache HIT in L1 for key: {}", key);
+                    return Optional.of(local);
+                }
+                l1Stats.miss();
+            }
+            if (redisAvailable()) {
+                // Then Redis - get the raw entry and decode it with the codec named in its header
+                byte[] stored = redisTemplate.execute((RedisCallback<byte[]>) connection -> connection.stringCommands().get(rawKey(key)));
+                circuit.recordSuccess();
+                if (stored != null) {
+                    CacheEntry decoded = decode(stored, type);
+                    redisStats.hit();
                     log.debug("Cache HIT in Redis for key: {}", key);
-                    return Optional.of(value);
+                    return Optional.of(putLocal(key, decoded.getValue(), Duration.ofSeconds(l1TtlSeconds), decoded.refreshAt));
                 }
+                redisStats.miss();
             }
             
             // Check in-memory cache
-            CacheEntry entry = inMemoryCache.get(key);
-            if (entry != null && !entry.isExpired() && type.isInstance(entry.getValue())) {
+            Object cached = inMemoryCache.get(key);
+            if (cached instanceof CacheEntry entry && accepts.test(entry.getValue())) {
+                memoryStats.hit();
                 log.debug("Cache HIT in memory for key: {}", key);
-                return Optional.of(type.cast(entry.getValue()));
-            } else if (entry != null && entry.isExpired()) {
-                // Remove expired entry
-                inMemoryCache.remove(key);
+                return Optional.of(entry);
+            }
+            if (redisTemplate == null) {
+                memoryStats.miss();
             }
             
             log.debug("Cache MISS for key: {}", key);
             return Optional.empty();
         } catch (Exception e) {
+            redisFailed(e);
             log.warn("Failed to get cached value for key {}: {}", key, e.getMessage());
             return Optional.empty();
         }
     }
 
-    public <T> Optional<T> get(String key, TypeReference<T> typeReference) {
-        try {
+    /**
+     * Reads many keys at once: L1 first, then a single MGET for the rest.
+     *
+     * @return the values found, by logical key; missing keys are absent
+     */
+    public <T> Map<String, T> getAll(Collection<String> logicalKeys, Class<T> type) {
+        Map<String, T> found = new HashMap<>(logicalKeys.size() * 2);
+        Map<String, String> pending = new LinkedHashMap<>();
+        for (String logicalKey : logicalKeys) {
+            String key = physicalKey(logicalKey);
             if (redisTemplate != null) {
-                // Try Redis first - get JSON string and convert back to object with proper generic type info
-                String jsonValue = redisTemplate.opsForValue().get(key);
-                if (jsonValue != null) {
-                    T value = objectMapper.readValue(jsonValue, typeReference);
-                    log.debug("Cache HIT in Redis for key: {} with TypeReference", key);
-                    return Optional.of(value);
+                CacheEntry local = getLocal(key);
+                if (local != null && type.isInstance(local.getValue())) {
+                    l1Stats.hit();
+                    found.put(logicalKey, type.cast(local.getValue()));
+                    continue;
                 }
+                l1Stats.miss();
             }
-            
-            // For in-memory cache, try to cast if possible
-            CacheEntry entry = inMemoryCache.get(key);
-            if (entry != null && !entry.isExpired()) {
+            pending.put(logicalKey, key);
+        }
+
+        if (!pending.isEmpty() && redisAvailable()) {
+            try {
+                byte[][] rawKeys = pending.values().stream().map(CacheService::rawKey).toArray(byte[][]::new);
+                List<byte[]> stored = redisTemplate.execute((RedisCallback<List<byte[]>>) connection -> connection.stringCommands().mGet(rawKeys));
+                circuit.recordSuccess();
+                int index = 0;
+                for (Map.Entry<String, String> entry : new ArrayList<>(pending.entrySet())) {
+                    byte[] value = stored != null ? stored.get(index++) : null;
+                    if (value == null) {
+                        redisStats.miss();
+                        continue;
+                    }
+                    try {
+                        CacheEntry decoded = decode(value, TypeFactory.defaultInstance().constructType(type));
+                        putLocal(entry.getValue(), decoded.getValue(), Duration.ofSeconds(l1TtlSeconds), decoded.refreshAt);
+                        found.put(entry.getKey(), type.cast(decoded.getValue()));
+                        pending.remove(entry.getKey());
+                        redisStats.hit();
+                    } catch (Exception e) {
+                        log.warn("Failed to decode cached value for key {}: {}", entry.getValue(), e.getMessage());
+                    }
+                }
+            } catch (Exception e) {
+                redisFailed(e);
+                log.warn("Failed to get {} cached values: {}", pending.size(), e.getMessage());
+            }
+        }
+
+        for (Map.Entry<String, String> entry : pending.entrySet()) {
+            Object cached = inMemoryCache.get(entry.getValue());
+            if (cached instanceof CacheEntry cacheEntry && type.isInstance(cacheEntry.getValue())) {
+                memoryStats.hit();
+                found.put(entry.getKey(), type.cast(cacheEntry.getValue()));
+            } else if (redisTemplate == null) {
+                memoryStats.miss();
+            }
+        }
+        log.debug("Cache multi-get found {} of {} keys", found.size(), logicalKeys.size());
+        return found;
+    }
+
+    /**
+     * Writes many values in one pipelined round trip, together with their invalidation messages.
+     */
+    public void putAll(Map<String, ?> values, Duration ttl) {
+        if (values.isEmpty()) {
+            return;
+        }
+        Map<String, Object> byKey = new LinkedHashMap<>();
+        values.forEach((logicalKey, value) -> byKey.put(physicalKey(logicalKey), value));
+        storeAll(byKey, ttl);
+    }
+
+    private void storeAll(Map<String, Object> byKey, Duration ttl) {
+        if (byKey.isEmpty()) {
+            return;
+        }
+        if (redisAvailable()) {
+            try {
+                Map<String, byte[]> encoded = new LinkedHashMap<>();
+                for (Map.Entry<String, Object> entry : byKey.entrySet()) {
+                    encoded.put(entry.getKey(), CacheEnvelope.wrap(codec.id(), codec.encode(entry.getValue()), NO_REFRESH, compressionThreshold));
+                }
+                byte[] channel = rawKey(invalidationChannel);
+                redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                    encoded.forEach((key, entry) -> {
+                        connection.stringCommands().set(rawKey(key), entry, Expiration.from(jitter(ttl)), RedisStringCommands.SetOption.upsert());
+                        connection.publish(channel, rawKey(invalidationMessage(InvalidationType.KEY, key)));
+                    });
+                    return null;
+                });
+                circuit.recordSuccess();
+                byKey.forEach((key, value) -> putLocal(key, value, ttl, NO_REFRESH));
+                log.debug("Cached {} values in Redis in one pipeline", byKey.size());
+                return;
+            } catch (Exception e) {
+                redisFailed(e);
+                log.warn("Failed to cache {} values in Redis: {}", byKey.size(), e.getMessage());
+            }
+        }
+        long expireTime = System.currentTimeMillis() + ttl.toMillis();
+        byKey.forEach((key, value) -> inMemoryCache.put(key, new CacheEntry(value, expireTime, NO_REFRESH), expireTime));
+    }
+
+    /**
+     * Returns the cached value, or loads and caches it on a miss. Concurrent misses on the same
+     * key share a single load: on this node they wait for the request that is already loading,
+     * and with Redis a short lock makes other nodes wait for its result instead of loading too.
+     * A loader exception is rethrown to every waiting caller and nothing is cached.
+     * Loaded values use a soft TTL, see {@link #storeLoaded}.
+     */
+    public <T> T getOrLoad(String logicalKey, Class<T> type, Duration ttl, Supplier<T> loader) {
+        return getOrLoad(logicalKey, TypeFactory.defaultInstance().constructType(type), type::isInstance, ttl, List.of(), loader);
+    }
+
+    public <T> T getOrLoad(String logicalKey, TypeReference<T> typeReference, Duration ttl, Supplier<T> loader) {
+        return getOrLoad(logicalKey, typeReference, ttl, List.of(), loader);
+    }
+
+    /**
+     * Like {@link #getOrLoad(String, TypeReference, Duration, Supplier)}, and records the loaded
+     * key under each of the given dependencies, so {@link #invalidateDependencies} evicts it.
+     */
+    public <T> T getOrLoad(String logicalKey, TypeReference<T> typeReference, Duration ttl,
+                           Collection<String> dependencies, Supplier<T> loader) {
+        return getOrLoad(logicalKey, TypeFactory.defaultInstance().constructType(typeReference), value -> true, ttl, dependencies, loader);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T getOrLoad(String logicalKey, JavaType type, Predicate<Object> accepts, Duration ttl,
+                            Collection<String> dependencies, Supplier<T> loader) {
+        String key = physicalKey(logicalKey);
+        Optional<CacheEntry> entry = lookup(key, type, accepts);
+        if (entry.isPresent()) {
+            if (System.currentTimeMillis() >= entry.get().refreshAt) {
+                refreshInBackground(key, ttl, dependencies, loader);
+            }
+            return (T) entry.get().getValue();
+        }
+
+        Supplier<Optional<T>> lookup = () -> lookup(key, type, accepts).map(cached -> (T) cached.getValue());
+        CompletableFuture<Object> load = new CompletableFuture<>();
+        CompletableFuture<Object> inFlight = inFlightLoads.putIfAbsent(key, load);
+        if (inFlight != null) {
+            return (T) awaitLoad(key, inFlight, loader);
+        }
+        try {
+            T value = loadOnce(key, lookup, ttl, dependencies, loader);
+            load.complete(value);
+            return value;
+        } catch (RuntimeException e) {
+            load.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlightLoads.remove(key, load);
+        }
+    }
+
+    private <T> T loadOnce(String key, Supplier<Optional<T>> lookup, Duration ttl,
+                           Collection<String> dependencies, Supplier<T> loader) {
+        String lockKey = LOAD_LOCK_PREFIX + key;
+        String token = UUID.randomUUID().toString();
+        boolean locked = false;
+        if (distributedLoadLock && redisAvailable()) {
+            try {
+                locked = Boolean.TRUE.equals(redisTemplate.opsForValue()
+                        .setIfAbsent(lockKey, token, Duration.ofMillis(loadLockTtlMillis)));
+                if (!locked) {
+                    // Another node is loading, its result shows up in the cache
+                    Optional<T> loaded = pollWhileLocked(lockKey, lookup);
+                    if (loaded.isPresent()) {
+                        return loaded.get();
+                    }
+                }
+            } catch (Exception e) {
+                redisFailed(e);
+                log.debug("Load lock unavailable for key {}, loading locally: {}", key, e.getMessage());
+            }
+        }
+
+        // The lock is held until the value is in the cache, other nodes wait for it there
+        boolean lockHandedOver = false;
+        try {
+            // Stored by someone else between the first lookup and taking over the load
+            Optional<T> cached = lookup.get();
+            if (cached.isPresent()) {
+                return cached.get();
+            }
+            T value = loader.get();
+            if (value != null) {
+                // Stored under the key read before loading, a namespace bumped meanwhile never sees it.
+                // Written behind, so the caller gets the value without waiting for serialization.
+                boolean release = locked;
+                lockHandedOver = true;
+                storeLoaded(key, value, ttl, dependencies, true, () -> {
+                    if (release) {
+                        releaseLock(lockKey, token);
+                    }
+                });
+            }
+            return value;
+        } finally {
+            if (locked && !lockHandedOver) {
+                releaseLock(lockKey, token);
+            }
+        }
+    }
+
+    // At most one refresh per key on this node, and with Redis the load lock keeps it to one across nodes
+    private void refreshInBackground(String key, Duration ttl, Collection<String> dependencies, Supplier<?> loader) {
+        if (!refreshing.add(key)) {
+            return;
+        }
+        try {
+            refreshExecutor.execute(() -> {
+                String lockKey = LOAD_LOCK_PREFIX + key;
+                String token = UUID.randomUUID().toString();
+                boolean locked = false;
                 try {
-                    @SuppressWarnings("unchecked")
-                    T value = (T) entry.getValue();
-                    log.debug("Cache HIT in memory for key: {} with TypeReference", key);
-                    return Optional.of(value);
-                } catch (ClassCastException e) {
-                    log.debug("Type cast failed for in-memory cache, removing entry: {}", key);
-                    inMemoryCache.remove(key);
-                }
-            } else if (entry != null && entry.isExpired()) {
-                // Remove expired entry
-                inMemoryCache.remove(key);
+                    if (distributedLoadLock && redisAvailable()) {
+                        locked = Boolean.TRUE.equals(redisTemplate.opsForValue()
+                                .setIfAbsent(lockKey, token, Duration.ofMillis(loadLockTtlMillis)));
+                        if (!locked) {
+                            return;
+                        }
+                    }
+                    Object value = loader.get();
+                    if (value != null) {
+                        storeLoaded(key, value, ttl, dependencies);
+                    }
+                    log.debug("Refreshed cache key {} in the background", key);
+                } catch (Exception e) {
+                    log.warn("Background refresh of cache key {} failed: {}", key, e.getMessage());
+                } finally {
+                    if (locked) {
+                        releaseLock(lockKey, token);
+                    }
+                    refreshing.remove(key);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Queue is full, a later hit tries again
+            refreshing.remove(key);
+        }
+    }
+
+    private static ThreadPoolExecutor newExecutor(String threadNamePrefix, int threads, int queueCapacity) {
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory(threadNamePrefix);
+        threadFactory.setDaemon(true);
+        return new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueCapacity), threadFactory);
+    }
+
+    private <T> Optional<T> pollWhileLocked(String lockKey, Supplier<Optional<T>> lookup) {
+        long deadline = System.currentTimeMillis() + Math.min(singleFlightWaitMillis, loadLockTtlMillis);
+        while (System.currentTimeMillis() < deadline) {
+            try {
+                Thread.sleep(LOCK_POLL_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return Optional.empty();
             }
-            
-            log.debug("Cache MISS for key: {} with TypeReference", key);
-            return Optional.empty();
+            Optional<T> cached = lookup.get();
+            if (cached.isPresent() || !Boolean.TRUE.equals(redisTemplate.hasKey(lockKey))) {
+                return cached;
+            }
+        }
+        return Optional.empty();
+    }
+
+    private void releaseLock(String lockKey, String token) {
+        try {
+            redisTemplate.execute(RELEASE_LOCK, List.of(lockKey), token);
         } catch (Exception e) {
-            log.warn("Failed to get cached value for key {} with TypeReference: {}", key, e.getMessage());
-            return Optional.empty();
+            redisFailed(e);
+            log.debug("Failed to release load lock {}, it expires on its own: {}", lockKey, e.getMessage());
         }
     }
 
-    public void delete(String key) {
+    private Object awaitLoad(String key, CompletableFuture<Object> inFlight, Supplier<?> loader) {
         try {
-            if (redisTemplate != null) {
-                redisTemplate.delete(key);
-                log.debug("Deleted key from Redis: {}", key);
+            return inFlight.get(singleFlightWaitMillis, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
             }
-            inMemoryCache.remove(key);
-            log.debug("Deleted key from memory: {}", key);
+            throw new IllegalStateException(e.getCause());
+        } catch (TimeoutException e) {
+            log.warn("Timed out waiting for the in-flight load of key {}, loading directly", key);
+            return loader.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return loader.get();
+        }
+    }
+
+    public void delete(String logicalKey) {
+        String key = physicalKey(logicalKey);
+        removeLocal(key::equals);
+        inMemoryCache.remove(key);
+        log.debug("Deleted key from memory: {}", key);
+        if (redisTemplate == null) {
+            return;
+        }
+        if (!redisAvailable()) {
+            missedInvalidation(logicalKey);
+            return;
+        }
+        try {
+            redisTemplate.delete(key);
+            log.debug("Deleted key from Redis: {}", key);
+            publish(InvalidationType.KEY, key);
         } catch (Exception e) {
+            redisFailed(e);
+            missedInvalidation(logicalKey);
             log.warn("Failed to delete cached value for key {}: {}", key, e.getMessage());
         }
     }
 
+    /**
+     * Invalidates the keys matching a glob pattern. A whole namespace ("products:*") is
+     * invalidated in O(1) by bumping its generation; any other pattern is resolved with an
+     * incremental SCAN and non-blocking UNLINK instead of KEYS.
+     */
     public void deleteByPattern(String pattern) {
+        int separator = pattern.indexOf(':');
+        if (separator > 0 && pattern.substring(separator).equals(":*")) {
+            invalidateNamespace(pattern.substring(0, separator));
+            return;
+        }
+        String physicalPattern = physicalKey(pattern);
         try {
-            if (redisTemplate != null) {
-                var keys = redisTemplate.keys(pattern);
-                if (keys != null && !keys.isEmpty()) {
-                    redisTemplate.delete(keys);
-                    log.info("Deleted {} keys matching pattern: {}", keys.size(), pattern);
+            if (redisTemplate != null && !redisAvailable()) {
+                missedInvalidation(pattern);
+            } else if (redisTemplate != null) {
+                long deleted = 0;
+                List<String> batch = new ArrayList<>(SCAN_BATCH_SIZE);
+                try (Cursor<String> cursor = redisTemplate.scan(ScanOptions.scanOptions().match(physicalPattern).count(SCAN_BATCH_SIZE).build())) {
+                    while (cursor.hasNext()) {
+                        batch.add(cursor.next());
+                        if (batch.size() == SCAN_BATCH_SIZE) {
+                            deleted += unlink(batch);
+                        }
+                    }
                 }
+                deleted += unlink(batch);
+                log.info("Deleted {} keys matching pattern: {}", deleted, pattern);
+                publish(InvalidationType.PATTERN, physicalPattern);
             }
-            // For in-memory cache, remove keys matching pattern
-            inMemoryCache.keySet().removeIf(key -> key.matches(pattern.replace("*", ".*")));
+            Predicate<String> matcher = globMatcher(physicalPattern);
+            removeLocal(matcher);
+            inMemoryCache.removeIf(matcher);
             log.debug("Deleted keys matching pattern from memory: {}", pattern);
         } catch (Exception e) {
+            redisFailed(e);
+            missedInvalidation(pattern);
             log.warn("Failed to delete cached values for pattern {}: {}", pattern, e.getMessage());
         }
     }
+
+    /**
+     * Makes every key of the namespace unreachable by moving it to the next generation.
+     * Entries of older generations are never read again and expire through their TTL.
+     */
+    public void invalidateNamespace(String namespace) {
+        long previous = generation(namespace);
+        long next = previous + 1;
+        try {
+            if (redisTemplate != null && !redisAvailable()) {
+                pendingNamespaces.add(namespace);
+            } else if (redisTemplate != null) {
+                Long incremented = redisTemplate.opsForValue().increment(GENERATION_KEY_PREFIX + namespace);
+                if (incremented != null) {
+                    next = incremented;
+                }
+            }
+        } catch (Exception e) {
+            redisFailed(e);
+            pendingNamespaces.add(namespace);
+            log.warn("Failed to bump cache generation of namespace {} in Redis: {}", namespace, e.getMessage());
+        }
+        generations.put(namespace, new Generation(next, System.currentTimeMillis()));
+        publish(InvalidationType.NAMESPACE, namespace + "=" + next);
+
+        // Local entries of the old generation can go right away, a prefix check per key is enough
+        String oldPrefix = namespace + ":g" + previous + ":";
+        removeLocal(key -> key.startsWith(oldPrefix));
+        inMemoryCache.removeIf(key -> key.startsWith(oldPrefix));
+        log.info("Invalidated cache namespace {} (generation {})", namespace, next);
+    }
     
+    /**
+     * Evicts every key recorded under any of the dependencies, from Redis and from the local
+     * tiers of all nodes. Keys of older generations are skipped, they are unreachable anyway.
+     *
+     * @return the number of keys evicted
+     */
+    public int invalidateDependencies(Collection<String> dependencies) {
+        if (dependencies.isEmpty()) {
+            return 0;
+        }
+        Set<String> keys = new LinkedHashSet<>();
+        synchronized (localDependencies) {
+            dependencies.forEach(dependency -> {
+                Set<String> local = localDependencies.remove(dependency);
+                if (local != null) {
+                    keys.addAll(local);
+                }
+            });
+        }
+        try {
+            if (redisTemplate != null && !redisAvailable()) {
+                missedDependencies(dependencies);
+            } else if (redisTemplate != null) {
+                List<String> setKeys = dependencies.stream().map(dependency -> DEPENDENCY_KEY_PREFIX + dependency).toList();
+                List<?> drained = redisTemplate.execute(DRAIN_DEPENDENCIES, setKeys);
+                if (drained != null) {
+                    drained.forEach(key -> keys.add(String.valueOf(key)));
+                }
+                redisTemplate.opsForSet().remove(DEPENDENCY_REGISTRY_KEY, dependencies.toArray());
+                if (!keys.isEmpty()) {
+                    byte[] channel = rawKey(invalidationChannel);
+                    redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                        connection.keyCommands().unlink(keys.stream().map(CacheService::rawKey).toArray(byte[][]::new));
+                        keys.forEach(key -> connection.publish(channel, rawKey(invalidationMessage(InvalidationType.KEY, key))));
+                        return null;
+                    });
+                }
+            }
+        } catch (Exception e) {
+            redisFailed(e);
+            missedDependencies(dependencies);
+            log.warn("Failed to invalidate cache dependencies {} in Redis: {}", dependencies, e.getMessage());
+        }
+        removeLocal(keys::contains);
+        keys.forEach(inMemoryCache::remove);
+        log.debug("Invalidated {} cached keys of dependencies {}", keys.size(), dependencies);
+        return keys.size();
+    }
+
+    /**
+     * @return the dependencies that currently have keys recorded, starting with the prefix
+     */
+    public Set<String> dependencies(String prefix) {
+        Set<String> names = new HashSet<>();
+        synchronized (localDependencies) {
+            localDependencies.keySet().stream().filter(name -> name.startsWith(prefix)).forEach(names::add);
+        }
+        try {
+            if (redisAvailable()) {
+                Set<String> stored = redisTemplate.opsForSet().members(DEPENDENCY_REGISTRY_KEY);
+                if (stored != null) {
+                    stored.stream().filter(name -> name.startsWith(prefix)).forEach(names::add);
+                }
+            }
+        } catch (Exception e) {
+            redisFailed(e);
+            log.warn("Failed to read cache dependencies: {}", e.getMessage());
+        }
+        return names;
+    }
+
+    private void recordDependencies(String key, Collection<String> dependencies, Duration ttl) {
+        if (dependencies.isEmpty()) {
+            return;
+        }
+        if (redisAvailable()) {
+            try {
+                long seconds = Math.max(MIN_DEPENDENCY_TTL.getSeconds(), 2 * ttl.getSeconds());
+                byte[] member = rawKey(key);
+                byte[] registry = rawKey(DEPENDENCY_REGISTRY_KEY);
+                redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                    for (String dependency : dependencies) {
+                        byte[] set = rawKey(DEPENDENCY_KEY_PREFIX + dependency);
+                        connection.setCommands().sAdd(set, member);
+                        connection.keyCommands().expire(set, seconds);
+                        connection.setCommands().sAdd(registry, rawKey(dependency));
+                    }
+                    connection.keyCommands().expire(registry, seconds);
+                    return null;
+                });
+                return;
+            } catch (Exception e) {
+                redisFailed(e);
+                log.warn("Failed to record dependencies of key {} in Redis: {}", key, e.getMessage());
+            }
+        }
+        // The value went to the in-memory tier (or Redis just failed), track it locally
+        synchronized (localDependencies) {
+            dependencies.forEach(dependency -> localDependencies.computeIfAbsent(dependency, name -> new HashSet<>()).add(key));
+        }
+    }
+
     public void clearProductCaches() {
         log.info("Clearing all product-related caches due to schema changes...");
-        deleteByPattern("products:*");
+        invalidateNamespace("products");
         log.info("Product caches cleared successfully");
     }
 
-    // Inner class for in-memory cache entries
+    @Override
+    public String channel() {
+        return invalidationChannel;
+    }
+
+    /**
+     * Applies an invalidation published by another node to the local L1 tier.
+     * Messages are "nodeId|type|payload".
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String[] parts = new String(message.getBody(), StandardCharsets.UTF_8).split("\\|", 3);
+        if (parts.length != 3 || nodeId.equals(parts[0])) {
+            return;
+        }
+        try {
+            switch (InvalidationType.valueOf(parts[1])) {
+                case KEY -> removeLocal(parts[2]::equals);
+                case PATTERN -> removeLocal(globMatcher(parts[2]));
+                case NAMESPACE -> {
+                    int separator = parts[2].lastIndexOf('=');
+                    String namespace = parts[2].substring(0, separator);
+                    long value = Long.parseLong(parts[2].substring(separator + 1));
+                    generations.merge(namespace, new Generation(value, System.currentTimeMillis()),
+                            (current, received) -> current.value > received.value ? current : received);
+                    String current = namespace + ":g" + generation(namespace) + ":";
+                    removeLocal(key -> key.startsWith(namespace + ":g") && !key.startsWith(current));
+                }
+            }
+            log.debug("Applied cache invalidation from node {}: {} {}", parts[0], parts[1], parts[2]);
+        } catch (RuntimeException e) {
+            log.warn("Ignoring malformed cache invalidation message: {}", e.getMessage());
+        }
+    }
+
+    private void publish(InvalidationType type, String payload) {
+        if (!redisAvailable()) {
+            return;
+        }
+        try {
+            redisTemplate.convertAndSend(invalidationChannel, invalidationMessage(type, payload));
+        } catch (Exception e) {
+            redisFailed(e);
+            log.warn("Failed to publish cache invalidation {} {}: {}", type, payload, e.getMessage());
+        }
+    }
+
+    private String invalidationMessage(InvalidationType type, String payload) {
+        return nodeId + "|" + type + "|" + payload;
+    }
+
+    // Redis is skipped while the circuit is open, the local tiers answer without waiting for a timeout
+    private boolean redisAvailable() {
+        return redisTemplate != null && circuit.allowRequest();
+    }
+
+    // Only Redis access errors count towards opening the circuit, not codec failures
+    private void redisFailed(Exception e) {
+        if (e instanceof DataAccessException && circuit.recordFailure()) {
+            log.error("Redis failed {} times in a row, serving from the local cache until it is reachable again: {}",
+                    circuitFailureThreshold, e.getMessage());
+        }
+    }
+
+    // A key or pattern that did not reach Redis is replayed by bumping its whole namespace
+    private void missedInvalidation(String logicalKeyOrPattern) {
+        int separator = logicalKeyOrPattern.indexOf(':');
+        if (separator > 0) {
+            pendingNamespaces.add(logicalKeyOrPattern.substring(0, separator));
+        } else {
+            log.warn("Cannot replay the invalidation of {}, it has no namespace", logicalKeyOrPattern);
+        }
+    }
+
+    private void missedDependencies(Collection<String> dependencies) {
+        if (pendingDependencies.size() + dependencies.size() > MAX_LOCAL_DEPENDENCIES) {
+            // Too many to track one by one, every dependency is invalidated on recovery
+            pendingOverflow = true;
+            return;
+        }
+        pendingDependencies.addAll(dependencies);
+    }
+
+    private CacheEntry getLocal(String key) {
+        synchronized (l1Cache) {
+            CacheEntry entry = l1Cache.get(key);
+            if (entry != null && entry.isExpired()) {
+                l1Cache.remove(key);
+                return null;
+            }
+            return entry;
+        }
+    }
+
+    private CacheEntry putLocal(String key, Object value, Duration ttl, long refreshAt) {
+        long l1Ttl = Math.min(ttl.toMillis(), Duration.ofSeconds(l1TtlSeconds).toMillis());
+        CacheEntry entry = new CacheEntry(value, System.currentTimeMillis() + l1Ttl, refreshAt);
+        synchronized (l1Cache) {
+            l1Cache.put(key, entry);
+        }
+        return entry;
+    }
+
+    // Also cancels the queued writes of the keys, they would store a value older than the invalidation
+    private void removeLocal(Predicate<String> keys) {
+        synchronized (l1Cache) {
+            l1Cache.keySet().removeIf(keys);
+        }
+        if (!pendingWrites.isEmpty()) {
+            pendingWrites.keySet().removeIf(keys);
+        }
+    }
+
+    private void registerCodec(CacheCodec candidate) {
+        CacheCodec previous = codecs.putIfAbsent(candidate.id(), candidate);
+        if (previous != null && previous != candidate) {
+            throw new IllegalStateException("Cache codecs " + previous.name() + " and " + candidate.name() + " share id " + candidate.id());
+        }
+    }
+
+    // Only value and refreshAt of the result are used, the caller re-wraps it for L1
+    private CacheEntry decode(byte[] stored, JavaType type) throws IOException {
+        if (!CacheEnvelope.isEnvelope(stored)) {
+            // Written before CacheEnvelope: JSON text, optionally with a refresh header
+            String json = new String(stored, StandardCharsets.UTF_8);
+            long refreshAt = NO_REFRESH;
+            if (json.startsWith(LEGACY_REFRESH_HEADER)) {
+                int separator = json.indexOf('|');
+                refreshAt = Long.parseLong(json.substring(LEGACY_REFRESH_HEADER.length(), separator));
+                json = json.substring(separator + 1);
+            }
+            return new CacheEntry(jsonCodec.decode(json.getBytes(StandardCharsets.UTF_8), type), 0, refreshAt);
+        }
+        CacheEnvelope.Unwrapped unwrapped = CacheEnvelope.unwrap(stored);
+        CacheCodec entryCodec = codecs.get(unwrapped.getCodecId());
+        if (entryCodec == null) {
+            throw new IOException("No cache codec with id " + unwrapped.getCodecId());
+        }
+        return new CacheEntry(entryCodec.decode(unwrapped.getPayload(), type), 0, unwrapped.getRefreshAt());
+    }
+
+    private static byte[] rawKey(String key) {
+        return key.getBytes(StandardCharsets.UTF_8);
+    }
+
+    // Rough heap footprint: UTF-16 key plus about twice the encoded size of the value when it
+    // was encoded anyway, else a guess from its shape; nothing is serialized to weigh a put
+    private static long estimateWeight(String key, Object value) {
+        long valueWeight;
+        if (value instanceof CacheEntry entry) {
+            valueWeight = entry.weight >= 0 ? entry.weight : estimateValueWeight(entry.getValue(), 0);
+        } else {
+            valueWeight = estimateValueWeight(value, 0);
+        }
+        return 64 + 2L * key.length() + valueWeight;
+    }
+
+    // A collection weighs its size times its first element, nested up to two levels
+    private static long estimateValueWeight(Object value, int depth) {
+        if (value == null || value instanceof Number || value instanceof Boolean || value instanceof Enum<?>) {
+            return 16;
+        }
+        if (value instanceof CharSequence text) {
+            return 40 + 2L * text.length();
+        }
+        if (value instanceof byte[] bytes) {
+            return 16 + bytes.length;
+        }
+        if (depth < 2 && value instanceof Collection<?> collection) {
+            Object first = collection.isEmpty() ? null : collection.iterator().next();
+            return 32 + collection.size() * (8 + estimateValueWeight(first, depth + 1));
+        }
+        if (depth < 2 && value instanceof Map<?, ?> map) {
+            Map.Entry<?, ?> first = map.isEmpty() ? null : map.entrySet().iterator().next();
+            long entryWeight = first == null ? 0
+                    : estimateValueWeight(first.getKey(), depth + 1) + estimateValueWeight(first.getValue(), depth + 1);
+            return 48 + map.size() * (32 + entryWeight);
+        }
+        return OBJECT_WEIGHT;
+    }
+
+    // Glob to regex, compiled once per pattern rather than per key
+    private static Predicate<String> globMatcher(String glob) {
+        Pattern regex = Pattern.compile(Arrays.stream(glob.split("\\*", -1))
+                .map(Pattern::quote)
+                .collect(Collectors.joining(".*")));
+        return key -> regex.matcher(key).matches();
+    }
+
+    // "products:all" is stored as "products:g<generation>:all", keys without a namespace are stored as is
+    private String physicalKey(String logicalKey) {
+        int separator = logicalKey.indexOf(':');
+        if (separator <= 0) {
+            return logicalKey;
+        }
+        String namespace = logicalKey.substring(0, separator);
+        return namespace + ":g" + generation(namespace) + logicalKey.substring(separator);
+    }
+
+    // Generations are shared through Redis and re-read at most once per refresh interval
+    private long generation(String namespace) {
+        Generation cached = generations.get(namespace);
+        long now = System.currentTimeMillis();
+        if (cached != null && (redisTemplate == null || now - cached.readAt < generationRefreshMillis)) {
+            return cached.value;
+        }
+        long value = cached != null ? cached.value : 0;
+        try {
+            if (redisAvailable()) {
+                String stored = redisTemplate.opsForValue().get(GENERATION_KEY_PREFIX + namespace);
+                value = stored != null ? Long.parseLong(stored) : 0;
+            }
+        } catch (Exception e) {
+            redisFailed(e);
+            log.debug("Failed to read cache generation of namespace {}: {}", namespace, e.getMessage());
+        }
+        generations.put(namespace, new Generation(value, now));
+        return value;
+    }
+
+    private long unlink(List<String> keys) {
+        if (keys.isEmpty()) {
+            return 0;
+        }
+        Long removed = redisTemplate.unlink(keys);
+        keys.clear();
+        return removed != null ? removed : 0;
+    }
+
+    private enum InvalidationType {
+        KEY, PATTERN, NAMESPACE
+    }
+
+    private static class TierStats {
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+
+        void hit() {
+            hits.increment();
+        }
+
+        void miss() {
+            misses.increment();
+        }
+
+        void register(MeterRegistry registry, String tier) {
+            FunctionCounter.builder("cache.gets", hits, LongAdder::sum)
+                    .tags("tier", tier, "result", "hit").register(registry);
+            FunctionCounter.builder("cache.gets", misses, LongAdder::sum)
+                    .tags("tier", tier, "result", "miss").register(registry);
+        }
+    }
+
+    private static class Generation {
+        private final long value;
+        private final long readAt;
+
+        Generation(long value, long readAt) {
+            this.value = value;
+            this.readAt = readAt;
+        }
+    }
+
+    // Inner class for L1 and in-memory cache entries
     private static class CacheEntry {
         private final Object value;
         private final long expireTime;
+        // When a hit should start a background refresh, NO_REFRESH for plain puts
+        private final long refreshAt;
+        // Heap estimate from the encoded value, -1 when it was not encoded
+        private final long weight;
+
+        public CacheEntry(Object value, long expireTime, long refreshAt) {
+            this(value, expireTime, refreshAt, -1);
+        }
 
-        public CacheEntry(Object value, long expireTime) {
+        public CacheEntry(Object value, long expireTime, long refreshAt, long weight) {
             this.value = value;
             this.expireTime = expireTime;
+            this.refreshAt = refreshAt;
+            this.weight = weight;
         }
 
         public Object getValue() {
@@ -0,0 +1,62 @@
+package com.seyman.dreamshops.service.cache;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+
+import java.io.IOException;
+
+/**
+ * Jackson based codecs: plain JSON, and Smile, Jackson's binary JSON which is smaller and
+ * faster to parse (field names are back-referenced, numbers are not stored as text).
+ */
+public class JacksonCacheCodec implements CacheCodec {
+
+    public static final byte JSON_ID = 1;
+    public static final byte SMILE_ID = 2;
+
+    private final byte id;
+    private final String name;
+    private final ObjectMapper objectMapper;
+
+    private JacksonCacheCodec(byte id, String name, ObjectMapper objectMapper) {
+        this.id = id;
+        this.name = name;
+        this.objectMapper = objectMapper;
+        this.objectMapper.registerModule(new JavaTimeModule());
+        this.objectMapper.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+        // Computed fields like effectivePrice and savings are serialized but have no setter
+        this.objectMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    }
+
+    public static JacksonCacheCodec json() {
+        return new JacksonCacheCodec(JSON_ID, "json", new ObjectMapper());
+    }
+
+    public static JacksonCacheCodec smile() {
+        return new JacksonCacheCodec(SMILE_ID, "smile", new ObjectMapper(new SmileFactory()));
+    }
+
+    @Override
+    public byte id() {
+        return id;
+    }
+
+    @Override
+    public String name() {
+        return name;
+    }
+
+    @Override
+    public byte[] encode(Object value) throws IOException {
+        return objectMapper.writeValueAsBytes(value);
+    }
+
+    @Override
+    public Object decode(byte[] data, JavaType type) throws IOException {
+        return objectMapper.readValue(data, type);
+    }
+}
@@ -0,0 +1,18 @@
+package com.seyman.dreamshops.service.cache;
+
+import org.springframework.data.redis.connection.MessageListener;
+
+/**
+ * Listens on a Redis pub/sub channel, subscribed by {@link CacheInvalidationSubscriber}.
+ */
+public interface RedisChannelListener extends MessageListener {
+
+    String channel();
+
+    /**
+     * Called when the subscription is back after it was lost; messages published meanwhile
+     * were missed.
+     */
+    default void onResubscribed() {
+    }
+}
@@ -0,0 +1,102 @@
+package com.seyman.dreamshops.service.cache;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Circuit breaker around the Redis tier. It opens after a run of consecutive failures, after
+ * which requests are short-circuited to the local tiers instead of each waiting for the client
+ * timeout. It stays open until a background probe finds Redis reachable again and closes it.
+ */
+public class RedisCircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN
+    }
+
+    private final AtomicReference<State> state = new AtomicReference<>(State.CLOSED);
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder shortCircuited = new LongAdder();
+    private final LongAdder opened = new LongAdder();
+
+    private volatile int failureThreshold;
+    private volatile long openedAt;
+
+    public RedisCircuitBreaker(int failureThreshold) {
+        this.failureThreshold = failureThreshold;
+    }
+
+    /**
+     * @return whether Redis may be called; a refused call is counted as short-circuited
+     */
+    public boolean allowRequest() {
+        if (state.get() == State.CLOSED) {
+            return true;
+        }
+        shortCircuited.increment();
+        return false;
+    }
+
+    public void recordSuccess() {
+        // Read first, so the common case does not write a shared cache line
+        if (consecutiveFailures.get() != 0) {
+            consecutiveFailures.set(0);
+        }
+    }
+
+    /**
+     * @return whether this failure opened the circuit
+     */
+    public boolean recordFailure() {
+        failures.increment();
+        if (consecutiveFailures.incrementAndGet() < failureThreshold || !state.compareAndSet(State.CLOSED, State.OPEN)) {
+            return false;
+        }
+        openedAt = System.currentTimeMillis();
+        opened.increment();
+        return true;
+    }
+
+    /**
+     * @return whether the circuit was open
+     */
+    public boolean close() {
+        consecutiveFailures.set(0);
+        return state.compareAndSet(State.OPEN, State.CLOSED);
+    }
+
+    public void setFailureThreshold(int failureThreshold) {
+        this.failureThreshold = failureThreshold;
+    }
+
+    public State state() {
+        return state.get();
+    }
+
+    public boolean isOpen() {
+        return state.get() == State.OPEN;
+    }
+
+    // Only meaningful while open
+    public long openedAt() {
+        return openedAt;
+    }
+
+    public int consecutiveFailures() {
+        return consecutiveFailures.get();
+    }
+
+    public long failureCount() {
+        return failures.sum();
+    }
+
+    public long shortCircuitedCount() {
+        return shortCircuited.sum();
+    }
+
+    public long openedCount() {
+        return opened.sum();
+    }
+}
@@ -0,0 +1,182 @@
+package com.seyman.dreamshops.service.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+import java.util.function.ToLongBiFunction;
+
+/**
+ * Bounded local cache with a segmented LRU policy and a memory budget in estimated bytes.
+ * New entries start in the probation segment and are promoted to the protected segment on
+ * their second hit, so a burst of one-off keys (distinct searches, deep pages) only churns
+ * probation and cannot flush the hot entries. Expired entries are dropped when read and by
+ * {@link #removeExpired()}, which is meant to be called periodically.
+ */
+public class SegmentedLruCache {
+
+    private static final double PROTECTED_RATIO = 0.8;
+
+    // Both segments are kept in access order, the eldest entry is the least recently used one
+    private final LinkedHashMap<String, Node> probation = new LinkedHashMap<>(64, 0.75f, true);
+    private final LinkedHashMap<String, Node> protectedSegment = new LinkedHashMap<>(64, 0.75f, true);
+    private final ToLongBiFunction<String, Object> weigher;
+
+    private long maxWeight;
+    private long probationWeight;
+    private long protectedWeight;
+    private long evictions;
+
+    public SegmentedLruCache(long maxWeight, ToLongBiFunction<String, Object> weigher) {
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+    }
+
+    public synchronized Object get(String key) {
+        Node node = protectedSegment.get(key);
+        if (node != null) {
+            if (node.isExpired()) {
+                protectedSegment.remove(key);
+                protectedWeight -= node.weight;
+                return null;
+            }
+            return node.value;
+        }
+
+        node = probation.remove(key);
+        if (node == null) {
+            return null;
+        }
+        probationWeight -= node.weight;
+        if (node.isExpired()) {
+            return null;
+        }
+        // Second hit: promote, and make room by demoting the coldest protected entries
+        protectedSegment.put(key, node);
+        protectedWeight += node.weight;
+        long maxProtected = (long) (maxWeight * PROTECTED_RATIO);
+        Iterator<Map.Entry<String, Node>> eldest = protectedSegment.entrySet().iterator();
+        while (protectedWeight > maxProtected && protectedSegment.size() > 1) {
+            Map.Entry<String, Node> demoted = eldest.next();
+            eldest.remove();
+            protectedWeight -= demoted.getValue().weight;
+            probation.put(demoted.getKey(), demoted.getValue());
+            probationWeight += demoted.getValue().weight;
+        }
+        return node.value;
+    }
+
+    /**
+     * Stores the value unless its estimated weight alone exceeds half the budget.
+     *
+     * @return whether the value was stored
+     */
+    public synchronized boolean put(String key, Object value, long expireTime) {
+        remove(key);
+        long weight = weigher.applyAsLong(key, value);
+        if (weight > maxWeight / 2) {
+            return false;
+        }
+        probation.put(key, new Node(value, expireTime, weight));
+        probationWeight += weight;
+        evict();
+        return true;
+    }
+
+    public synchronized void remove(String key) {
+        Node node = probation.remove(key);
+        if (node != null) {
+            probationWeight -= node.weight;
+        }
+        node = protectedSegment.remove(key);
+        if (node != null) {
+            protectedWeight -= node.weight;
+        }
+    }
+
+    public synchronized void removeIf(Predicate<String> keys) {
+        probationWeight -= removeIf(probation, (key, node) -> keys.test(key));
+        protectedWeight -= removeIf(protectedSegment, (key, node) -> keys.test(key));
+    }
+
+    /**
+     * @return the number of expired entries removed
+     */
+    public synchronized int removeExpired() {
+        int before = size();
+        probationWeight -= removeIf(probation, (key, node) -> node.isExpired());
+        protectedWeight -= removeIf(protectedSegment, (key, node) -> node.isExpired());
+        return before - size();
+    }
+
+    public synchronized void setMaxWeight(long maxWeight) {
+        this.maxWeight = maxWeight;
+        evict();
+    }
+
+    public synchronized int size() {
+        return probation.size() + protectedSegment.size();
+    }
+
+    public synchronized long weight() {
+        return probationWeight + protectedWeight;
+    }
+
+    public synchronized long evictionCount() {
+        return evictions;
+    }
+
+    // Probation goes first; the newest entry is only evicted when protected is already empty
+    private void evict() {
+        while (probationWeight + protectedWeight > maxWeight) {
+            boolean fromProbation = probation.size() > 1 || protectedSegment.isEmpty();
+            LinkedHashMap<String, Node> segment = fromProbation ? probation : protectedSegment;
+            Iterator<Node> eldest = segment.values().iterator();
+            if (!eldest.hasNext()) {
+                return;
+            }
+            Node node = eldest.next();
+            eldest.remove();
+            if (fromProbation) {
+                probationWeight -= node.weight;
+            } else {
+                protectedWeight -= node.weight;
+            }
+            evictions++;
+        }
+    }
+
+    private static long removeIf(LinkedHashMap<String, Node> segment, NodeFilter filter) {
+        long removed = 0;
+        Iterator<Map.Entry<String, Node>> entries = segment.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<String, Node> entry = entries.next();
+            if (filter.test(entry.getKey(), entry.getValue())) {
+                removed += entry.getValue().weight;
+                entries.remove();
+            }
+        }
+        return removed;
+    }
+
+    @FunctionalInterface
+    private interface NodeFilter {
+        boolean test(String key, Node node);
+    }
+
+    private static class Node {
+        private final Object value;
+        private final long expireTime;
+        private final long weight;
+
+        Node(Object value, long expireTime, long weight) {
+            this.value = value;
+            this.expireTime = expireTime;
+            this.weight = weight;
+        }
+
+        boolean isExpired() {
+            return System.currentTimeMillis() > expireTime;
+        }
+    }
+}
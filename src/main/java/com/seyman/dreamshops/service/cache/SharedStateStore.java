@@ -0,0 +1,198 @@
+package com.seyman.dreamshops.service.cache;
+
+import com.seyman.dreamshops.exceptions.ServiceBusyException;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * State that every node has to see the same way: plain Redis keys with an exact TTL, never
+ * evicted by the cache tiers of {@link CacheService}. Unlike the cache it does not fall back
+ * to local state when Redis fails; the error goes to the caller, since a local answer could
+ * contradict another node. Without Redis enabled (spring.data.redis.repositories.enabled)
+ * the application runs as a single node and a local map stands in. That map is bounded: once
+ * it holds shared-state.local.max-entries, new claims ({@link #setIfAbsent(String, String, Duration)})
+ * are refused with {@link ServiceBusyException} until entries expire. Nothing is evicted to make
+ * room, so a record that is held stays until its TTL runs out.
+ */
+@Service
+public class SharedStateStore {
+
+    // Deletes the key only while it still holds the expected value
+    private static final RedisScript<Long> COMPARE_AND_DELETE = new DefaultRedisScript<>(
+            "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('del', KEYS[1]) else return 0 end", Long.class);
+
+    // Takes the amount off the counter only if it holds that much; nil for a missing counter, -1 if short
+    private static final RedisScript<Long> TAKE = new DefaultRedisScript<>(
+            "local value = redis.call('get', KEYS[1]) "
+                    + "if not value then return nil end "
+                    + "if tonumber(value) < tonumber(ARGV[1]) then return -1 end "
+                    + "return redis.call('decrby', KEYS[1], ARGV[1])", Long.class);
+
+    @Autowired(required = false)
+    private RedisTemplate<String, String> redisTemplate;
+
+    // Boot configures a template whenever the Redis client is on the classpath
+    @Value("${spring.data.redis.repositories.enabled:false}")
+    private boolean redisEnabled;
+
+    private record LocalEntry(String value, long expiresAt) {
+
+        boolean expired(long now) {
+            return expiresAt > 0 && now >= expiresAt;
+        }
+    }
+
+    @Value("${shared-state.local.max-entries:100000}")
+    private int maxLocalEntries = 100000;
+
+    private final Map<String, LocalEntry> local = new ConcurrentHashMap<>();
+    private volatile long lastFullSweep;
+
+    @PostConstruct
+    void init() {
+        if (!redisEnabled) {
+            redisTemplate = null;
+        }
+    }
+
+    /**
+     * @return whether the state is shared with other nodes through Redis
+     */
+    public boolean isShared() {
+        return redisTemplate != null;
+    }
+
+    public Optional<String> get(String key) {
+        if (redisTemplate != null) {
+            return Optional.ofNullable(redisTemplate.opsForValue().get(key));
+        }
+        LocalEntry entry = local.get(key);
+        return entry != null && !entry.expired(System.currentTimeMillis()) ? Optional.of(entry.value()) : Optional.empty();
+    }
+
+    public void set(String key, String value, Duration ttl) {
+        if (redisTemplate != null) {
+            redisTemplate.opsForValue().set(key, value, ttl);
+            return;
+        }
+        local.put(key, new LocalEntry(value, expiresAt(ttl)));
+    }
+
+    /**
+     * @return whether the key was set; false if it already held a value
+     * @throws ServiceBusyException if the local map is full
+     */
+    public boolean setIfAbsent(String key, String value, Duration ttl) {
+        if (redisTemplate != null) {
+            return Boolean.TRUE.equals(redisTemplate.opsForValue().setIfAbsent(key, value, ttl));
+        }
+        long now = System.currentTimeMillis();
+        if (local.size() >= maxLocalEntries && !local.containsKey(key) && !hasRoom(now)) {
+            throw new ServiceBusyException("Too many requests are in progress, please try again later", 1);
+        }
+        LocalEntry entry = new LocalEntry(value, expiresAt(ttl));
+        return local.compute(key, (k, current) -> current == null || current.expired(now) ? entry : current) == entry;
+    }
+
+    /**
+     * Like {@link #setIfAbsent(String, String, Duration)}, for a key without expiry.
+     */
+    public boolean setIfAbsent(String key, String value) {
+        if (redisTemplate != null) {
+            return Boolean.TRUE.equals(redisTemplate.opsForValue().setIfAbsent(key, value));
+        }
+        long now = System.currentTimeMillis();
+        LocalEntry entry = new LocalEntry(value, 0);
+        return local.compute(key, (k, current) -> current == null || current.expired(now) ? entry : current) == entry;
+    }
+
+    public void delete(String key) {
+        if (redisTemplate != null) {
+            redisTemplate.delete(key);
+            return;
+        }
+        local.remove(key);
+    }
+
+    /**
+     * Deletes the key only while it still holds the value.
+     */
+    public boolean compareAndDelete(String key, String expected) {
+        if (redisTemplate != null) {
+            Long deleted = redisTemplate.execute(COMPARE_AND_DELETE, List.of(key), expected);
+            return deleted != null && deleted > 0;
+        }
+        long now = System.currentTimeMillis();
+        LocalEntry entry = local.get(key);
+        return entry != null && !entry.expired(now) && entry.value().equals(expected) && local.remove(key, entry);
+    }
+
+    /**
+     * Adds the delta to a counter without expiry, creating it at 0.
+     *
+     * @return the new value
+     */
+    public long increment(String key, long delta) {
+        if (redisTemplate != null) {
+            Long value = redisTemplate.opsForValue().increment(key, delta);
+            return value != null ? value : 0;
+        }
+        return Long.parseLong(local.merge(key, new LocalEntry(Long.toString(delta), 0),
+                (current, added) -> new LocalEntry(Long.toString(Long.parseLong(current.value()) + delta), current.expiresAt())).value());
+    }
+
+    /**
+     * Takes the amount off a counter if it holds at least that much.
+     *
+     * @return the remaining value, -1 if the counter holds less, or null if there is no counter
+     */
+    public Long take(String key, long amount) {
+        if (redisTemplate != null) {
+            return redisTemplate.execute(TAKE, List.of(key), Long.toString(amount));
+        }
+        Long[] result = new Long[1];
+        local.computeIfPresent(key, (k, current) -> {
+            long value = Long.parseLong(current.value());
+            if (value < amount) {
+                result[0] = -1L;
+                return current;
+            }
+            result[0] = value - amount;
+            return new LocalEntry(Long.toString(value - amount), current.expiresAt());
+        });
+        return result[0];
+    }
+
+    @Scheduled(fixedDelayString = "${cache.memory.sweep-interval-ms:60000}")
+    public void sweepExpired() {
+        if (redisTemplate == null) {
+            long now = System.currentTimeMillis();
+            local.values().removeIf(entry -> entry.expired(now));
+        }
+    }
+
+    // Sweeps at most once a second while full, a full map must not cost a scan per request
+    private boolean hasRoom(long now) {
+        if (now - lastFullSweep >= 1000) {
+            lastFullSweep = now;
+            local.values().removeIf(entry -> entry.expired(now));
+        }
+        return local.size() < maxLocalEntries;
+    }
+
+    private static long expiresAt(Duration ttl) {
+        return System.currentTimeMillis() + ttl.toMillis();
+    }
+}
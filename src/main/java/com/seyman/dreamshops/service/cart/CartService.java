@@ -3,6 +3,7 @@ package com.seyman.dreamshops.service.cart;
 
 import com.seyman.dreamshops.dto.CartDto;
 import com.seyman.dreamshops.dto.CartItemDto;
+import com.seyman.dreamshops.dto.ProductDto;
 import com.seyman.dreamshops.exceptions.ResourceNotFoundException;
 import com.seyman.dreamshops.model.Cart;
 import com.seyman.dreamshops.model.CartItem;
@@ -17,10 +18,11 @@ import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.math.BigDecimal;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.stream.Collectors;
 
 @Service
 @RequiredArgsConstructor
@@ -121,9 +123,14 @@ public class CartService implements ICartService{
         // Items are eagerly loaded via JOIN FETCH, so no lazy loading issues
         Set<CartItemDto> cartItemDtos;
         if (cart.getItems() != null && !cart.getItems().isEmpty()) {
-            cartItemDtos = cart.getItems().stream()
-                    .map(this::convertCartItemToDto)
-                    .collect(Collectors.toSet());
+            // Product DTOs of all items are assembled in one batch
+            List<CartItem> items = List.copyOf(cart.getItems());
+            List<ProductDto> productDtos = productService.getConvertedProducts(
+                    items.stream().map(CartItem::getProduct).toList());
+            cartItemDtos = new HashSet<>();
+            for (int i = 0; i < items.size(); i++) {
+                cartItemDtos.add(convertCartItemToDto(items.get(i), productDtos.get(i)));
+            }
         } else {
             cartItemDtos = Set.of(); // Empty set
         }
@@ -132,13 +139,13 @@ public class CartService implements ICartService{
         return cartDto;
     }
 
-    private CartItemDto convertCartItemToDto(CartItem cartItem) {
+    private CartItemDto convertCartItemToDto(CartItem cartItem, ProductDto productDto) {
         CartItemDto cartItemDto = new CartItemDto();
         cartItemDto.setItemId(cartItem.getId());
         cartItemDto.setQuantity(cartItem.getQuantity());
         cartItemDto.setUnitPrice(cartItem.getUnitPrice());
         cartItemDto.setTotalPrice(cartItem.getTotalPrice());
-        cartItemDto.setProduct(productService.convertToDto(cartItem.getProduct()));
+        cartItemDto.setProduct(productDto);
         return cartItemDto;
     }
 }
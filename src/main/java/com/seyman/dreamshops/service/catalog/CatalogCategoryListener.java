@@ -0,0 +1,47 @@
+package com.seyman.dreamshops.service.catalog;
+
+import com.seyman.dreamshops.model.Category;
+import com.seyman.dreamshops.model.Product;
+import com.seyman.dreamshops.repository.ProductRepository;
+import com.seyman.dreamshops.service.search.ProductIndexListener;
+import jakarta.persistence.PostRemove;
+import jakarta.persistence.PostUpdate;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+
+/**
+ * JPA entity listener re-indexing the products of a renamed or removed category after commit.
+ * The catalog snapshot and the search, sort, facet and count indexes all hold the category
+ * name, so the products go through {@link ProductIndexListener} like any other product write,
+ * which also brings the other nodes along. A new category has no products yet.
+ */
+@Component
+@RequiredArgsConstructor
+public class CatalogCategoryListener {
+
+    // Resolved lazily: the repositories are built with this listener
+    private final ObjectProvider<ProductRepository> productRepository;
+    private final ObjectProvider<ProductIndexListener> productIndexListener;
+    private final ObjectProvider<PlatformTransactionManager> transactionManager;
+
+    @PostUpdate
+    @PostRemove
+    public void onChange(Category category) {
+        Long categoryId = category.getId();
+        // Read in a new transaction, after the one renaming the category has committed
+        TransactionTemplate readTransaction = new TransactionTemplate(transactionManager.getObject());
+        readTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        readTransaction.setReadOnly(true);
+        productIndexListener.getObject().onBulkUpdate(() -> {
+            List<Product> products = readTransaction.execute(status ->
+                    productRepository.getObject().findByCategoryIdWithCategory(categoryId));
+            return products != null ? products : List.of();
+        });
+    }
+}
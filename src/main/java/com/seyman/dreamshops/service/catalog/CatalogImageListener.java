@@ -0,0 +1,39 @@
+package com.seyman.dreamshops.service.catalog;
+
+import com.seyman.dreamshops.model.Image;
+import jakarta.persistence.PostPersist;
+import jakarta.persistence.PostRemove;
+import jakarta.persistence.PostUpdate;
+import com.seyman.dreamshops.service.search.ProductChangeBroadcaster;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * JPA entity listener refreshing the image metadata of the catalog snapshot after an image
+ * of a product is added, replaced or deleted, here and on the other nodes.
+ */
+@Component
+@RequiredArgsConstructor
+public class CatalogImageListener {
+
+    private final ObjectProvider<ProductCatalog> productCatalog;
+    private final ObjectProvider<ProductChangeBroadcaster> productChangeBroadcaster;
+
+    @PostPersist
+    @PostUpdate
+    @PostRemove
+    public void onChange(Image image) {
+        if (image.getProduct() == null) {
+            return;
+        }
+        Long productId = image.getProduct().getId();
+        ProductCatalog.afterCommit(() -> {
+            productCatalog.ifAvailable(catalog -> catalog.refreshImages(List.of(productId)));
+            productChangeBroadcaster.ifAvailable(broadcaster ->
+                    broadcaster.publish(ProductChangeBroadcaster.ChangeType.IMAGES, List.of(productId)));
+        });
+    }
+}
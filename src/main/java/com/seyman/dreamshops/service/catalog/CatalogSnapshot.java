@@ -0,0 +1,405 @@
+package com.seyman.dreamshops.service.catalog;
+
+import com.seyman.dreamshops.model.Category;
+import com.seyman.dreamshops.model.Image;
+import com.seyman.dreamshops.model.Product;
+import lombok.Getter;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * One immutable version of the catalog: detached product copies with their categories and
+ * image metadata, in sorted arrays by id, name, category, brand and sale state. Never
+ * modified after construction; {@link ProductCatalog} derives the next version with
+ * {@link #with}, which merges the changed products into the arrays in one pass instead of
+ * sorting the catalog again.
+ */
+public class CatalogSnapshot {
+
+    // Same order as the listing queries: name, then id for equal names
+    static final Comparator<Product> NAME_ORDER = Comparator
+            .comparing((Product product) -> nameKey(product.getName()))
+            .thenComparing(Product::getId);
+
+    private static final Comparator<Product> ID_ORDER = Comparator.comparing(Product::getId);
+
+    // Same order as the sale queries: latest sale start first
+    private static final Comparator<Product> SALE_ORDER = Comparator
+            .comparing(Product::getSaleStartDate, Comparator.nullsLast(Comparator.<LocalDateTime>reverseOrder()))
+            .thenComparing(Product::getId);
+
+    private static final Predicate<Product> ON_SALE = product -> Boolean.TRUE.equals(product.getIsOnSale());
+    private static final Predicate<Product> FLASH_SALE = product -> Boolean.TRUE.equals(product.getIsFlashSale());
+    private static final Product[] NONE = new Product[0];
+
+    @Getter
+    private final long version;
+    private final Product[] byId;
+    private final Product[] byName;
+    private final Map<String, Product[]> byCategory;
+    private final Map<String, Product[]> byBrand;
+    private final Product[] onSale;
+    private final Product[] flashSale;
+    // Epoch millis at which the sale state of some product may flip, ascending, one per sale start and end
+    private final long[] saleChanges;
+
+    private CatalogSnapshot(long version, Product[] byId, Product[] byName, Map<String, Product[]> byCategory,
+                            Map<String, Product[]> byBrand, Product[] onSale, Product[] flashSale, long[] saleChanges) {
+        this.version = version;
+        this.byId = byId;
+        this.byName = byName;
+        this.byCategory = Collections.unmodifiableMap(byCategory);
+        this.byBrand = Collections.unmodifiableMap(byBrand);
+        this.onSale = onSale;
+        this.flashSale = flashSale;
+        this.saleChanges = saleChanges;
+    }
+
+    /**
+     * Builds a snapshot of the given product copies from scratch.
+     */
+    static CatalogSnapshot of(long version, Collection<Product> products) {
+        return new CatalogSnapshot(version - 1, NONE, NONE, Map.of(), Map.of(), NONE, NONE, new long[0])
+                .with(version, products, List.of());
+    }
+
+    /**
+     * The next version: these product copies added or replaced and these ids removed. Costs
+     * one pass over each sorted array the changes touch, plus sorting the changes.
+     */
+    CatalogSnapshot with(long nextVersion, Collection<Product> changed, Collection<Long> removedIds) {
+        // The last copy of a product wins
+        Map<Long, Product> latest = new LinkedHashMap<>();
+        changed.forEach(product -> latest.put(product.getId(), product));
+        List<Product> added = new ArrayList<>(latest.values());
+        List<Product> removed = new ArrayList<>();
+        for (Product product : added) {
+            Product previous = getProduct(product.getId());
+            if (previous != null) {
+                removed.add(previous);
+            }
+        }
+        for (Long productId : removedIds) {
+            Product previous = getProduct(productId);
+            if (previous != null && !latest.containsKey(productId)) {
+                removed.add(previous);
+            }
+        }
+        List<Product> removedOnSale = removed.stream().filter(ON_SALE).toList();
+        List<Product> addedOnSale = added.stream().filter(ON_SALE).toList();
+        return new CatalogSnapshot(nextVersion,
+                merge(byId, removed, added, ID_ORDER),
+                merge(byName, removed, added, NAME_ORDER),
+                regroup(byCategory, removed, added, product -> product.getCategory() != null ? nameKey(product.getCategory().getName()) : null),
+                regroup(byBrand, removed, added, Product::getBrand),
+                merge(onSale, removedOnSale, addedOnSale, SALE_ORDER),
+                merge(flashSale, removed.stream().filter(FLASH_SALE).toList(), added.stream().filter(FLASH_SALE).toList(), SALE_ORDER),
+                merge(saleChanges, saleChangesOf(removedOnSale), saleChangesOf(addedOnSale)));
+    }
+
+    public int size() {
+        return byId.length;
+    }
+
+    public Product getProduct(Long id) {
+        if (id == null) {
+            return null;
+        }
+        int low = 0;
+        int high = byId.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int comparison = byId[mid].getId().compareTo(id);
+            if (comparison < 0) {
+                low = mid + 1;
+            } else if (comparison > 0) {
+                high = mid - 1;
+            } else {
+                return byId[mid];
+            }
+        }
+        return null;
+    }
+
+    // Products for the given ids in the same order, unknown ids are skipped
+    public List<Product> getProducts(Collection<Long> ids) {
+        List<Product> products = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            Product product = getProduct(id);
+            if (product != null) {
+                products.add(product);
+            }
+        }
+        return products;
+    }
+
+    // Null when the product is not part of the snapshot
+    public List<ImageInfo> getImages(Long productId) {
+        Product product = getProduct(productId);
+        if (product == null) {
+            return null;
+        }
+        return imagesOf(product);
+    }
+
+    public List<Product> getAllProducts() {
+        return view(byName);
+    }
+
+    public List<Product> getProductsByCategory(String category) {
+        return view(byCategory.getOrDefault(nameKey(category), NONE));
+    }
+
+    public List<Product> getProductsByBrand(String brand) {
+        return brand == null ? List.of() : view(byBrand.getOrDefault(brand, NONE));
+    }
+
+    // The exact (case sensitive) name, among the products whose name is equal ignoring case
+    public List<Product> getProductsByName(String name) {
+        if (name == null) {
+            return List.of();
+        }
+        String key = nameKey(name);
+        int low = 0;
+        int high = byName.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (nameKey(byName[mid].getName()).compareTo(key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        List<Product> products = new ArrayList<>();
+        for (int i = low; i < byName.length && nameKey(byName[i].getName()).equals(key); i++) {
+            if (name.equals(byName[i].getName())) {
+                products.add(byName[i]);
+            }
+        }
+        return products;
+    }
+
+    public List<Product> getProductsOnSale() {
+        return view(onSale);
+    }
+
+    public List<Product> getFlashSaleProducts() {
+        return view(flashSale);
+    }
+
+    /**
+     * The first moment after {@code now} (epoch millis) at which a sale starts or ends, so a
+     * product's {@link Product#isCurrentlyOnSale()} may differ; Long.MAX_VALUE for none.
+     */
+    public long nextSaleChange(long now) {
+        int low = 0;
+        int high = saleChanges.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (saleChanges[mid] <= now) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low < saleChanges.length ? saleChanges[low] : Long.MAX_VALUE;
+    }
+
+    // Every product, in id order
+    List<Product> products() {
+        return view(byId);
+    }
+
+    static List<ImageInfo> imagesOf(Product copy) {
+        return copy.getImages().stream().map(ImageInfo::new).toList();
+    }
+
+    private static List<Product> view(Product[] products) {
+        return Collections.unmodifiableList(Arrays.asList(products));
+    }
+
+    // The sorted array without the removed and with the added products, in one pass
+    private static Product[] merge(Product[] sorted, List<Product> removed, List<Product> added, Comparator<Product> order) {
+        if (removed.isEmpty() && added.isEmpty()) {
+            return sorted;
+        }
+        List<Product> removing = new ArrayList<>(removed);
+        removing.sort(order);
+        List<Product> adding = new ArrayList<>(added);
+        adding.sort(order);
+
+        Product[] result = new Product[sorted.length + adding.size()];
+        int size = 0;
+        int r = 0;
+        int a = 0;
+        for (Product product : sorted) {
+            while (r < removing.size() && order.compare(removing.get(r), product) < 0) {
+                r++;
+            }
+            if (r < removing.size() && order.compare(removing.get(r), product) == 0) {
+                r++;
+                continue;
+            }
+            while (a < adding.size() && order.compare(adding.get(a), product) < 0) {
+                result[size++] = adding.get(a++);
+            }
+            result[size++] = product;
+        }
+        while (a < adding.size()) {
+            result[size++] = adding.get(a++);
+        }
+        return size == result.length ? result : Arrays.copyOf(result, size);
+    }
+
+    // Same for a sorted multiset of times
+    private static long[] merge(long[] sorted, long[] removed, long[] added) {
+        if (removed.length == 0 && added.length == 0) {
+            return sorted;
+        }
+        long[] result = new long[sorted.length + added.length];
+        int size = 0;
+        int r = 0;
+        int a = 0;
+        for (long time : sorted) {
+            while (r < removed.length && removed[r] < time) {
+                r++;
+            }
+            if (r < removed.length && removed[r] == time) {
+                r++;
+                continue;
+            }
+            while (a < added.length && added[a] < time) {
+                result[size++] = added[a++];
+            }
+            result[size++] = time;
+        }
+        while (a < added.length) {
+            result[size++] = added[a++];
+        }
+        return size == result.length ? result : Arrays.copyOf(result, size);
+    }
+
+    // Copies the group map and merges the changes into the groups they touch only
+    private static Map<String, Product[]> regroup(Map<String, Product[]> groups, List<Product> removed, List<Product> added,
+                                                  Function<Product, String> key) {
+        Map<String, List<Product>> removedByKey = byKey(removed, key);
+        Map<String, List<Product>> addedByKey = byKey(added, key);
+        if (removedByKey.isEmpty() && addedByKey.isEmpty()) {
+            return groups;
+        }
+        Map<String, Product[]> result = new HashMap<>(groups);
+        Set<String> touched = new HashSet<>(removedByKey.keySet());
+        touched.addAll(addedByKey.keySet());
+        for (String value : touched) {
+            Product[] group = merge(result.getOrDefault(value, NONE),
+                    removedByKey.getOrDefault(value, List.of()), addedByKey.getOrDefault(value, List.of()), NAME_ORDER);
+            if (group.length == 0) {
+                result.remove(value);
+            } else {
+                result.put(value, group);
+            }
+        }
+        return result;
+    }
+
+    private static Map<String, List<Product>> byKey(List<Product> products, Function<Product, String> key) {
+        Map<String, List<Product>> grouped = new HashMap<>();
+        for (Product product : products) {
+            String value = key.apply(product);
+            if (value != null) {
+                grouped.computeIfAbsent(value, k -> new ArrayList<>()).add(product);
+            }
+        }
+        return grouped;
+    }
+
+    // A sale is on from its start and until after its end
+    private static long[] saleChangesOf(List<Product> onSale) {
+        ZoneId zone = ZoneId.systemDefault();
+        List<Long> times = new ArrayList<>();
+        for (Product product : onSale) {
+            if (product.getSaleStartDate() != null) {
+                times.add(product.getSaleStartDate().atZone(zone).toInstant().toEpochMilli());
+            }
+            if (product.getSaleEndDate() != null) {
+                times.add(product.getSaleEndDate().atZone(zone).toInstant().toEpochMilli() + 1);
+            }
+        }
+        return times.stream().mapToLong(Long::longValue).sorted().toArray();
+    }
+
+    private static String nameKey(String name) {
+        return name != null ? name.toLowerCase(Locale.ROOT) : "";
+    }
+
+    /**
+     * Detached copy of a product for the snapshot; categories are shared between the copies
+     * through the given map and images carry metadata only.
+     */
+    static Product copyOf(Product product, Map<Long, Category> categories, List<ImageInfo> images) {
+        Product copy = new Product();
+        copy.setId(product.getId());
+        copy.setName(product.getName());
+        copy.setBrand(product.getBrand());
+        copy.setPrice(product.getPrice());
+        copy.setInventory(product.getInventory());
+        copy.setDescription(product.getDescription());
+        copy.setDiscountPrice(product.getDiscountPrice());
+        copy.setDiscountPercentage(product.getDiscountPercentage());
+        copy.setIsOnSale(product.getIsOnSale());
+        copy.setIsFlashSale(product.getIsFlashSale());
+        copy.setSaleStartDate(product.getSaleStartDate());
+        copy.setSaleEndDate(product.getSaleEndDate());
+        copy.setFlashSaleStock(product.getFlashSaleStock());
+        copy.setFlashSaleAllotment(product.getFlashSaleAllotment());
+        if (product.getCategory() != null) {
+            Category category = product.getCategory();
+            Category shared = categories.get(category.getId());
+            if (shared == null || !Objects.equals(shared.getName(), category.getName())) {
+                shared = new Category(category.getName());
+                shared.setId(category.getId());
+                categories.put(shared.getId(), shared);
+            }
+            copy.setCategory(shared);
+        }
+        copy.setImages(images.stream().map(image -> image.toImage(copy)).toList());
+        return copy;
+    }
+
+    @Getter
+    public static class ImageInfo {
+        private final Long id;
+        private final String fileName;
+        private final String downloadUrl;
+
+        ImageInfo(Long id, String fileName, String downloadUrl) {
+            this.id = id;
+            this.fileName = fileName;
+            this.downloadUrl = downloadUrl;
+        }
+
+        private ImageInfo(Image image) {
+            this(image.getId(), image.getFileName(), image.getDownloadUrl());
+        }
+
+        private Image toImage(Product product) {
+            return new Image(id, fileName, null, null, downloadUrl, product);
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.seyman.dreamshops.service.catalog;
+
+import com.seyman.dreamshops.model.Category;
+import com.seyman.dreamshops.model.Product;
+import com.seyman.dreamshops.repository.ImageRepository;
+import com.seyman.dreamshops.service.search.IProductIndex;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Holds the current {@link CatalogSnapshot}. Readers take the volatile reference without
+ * locking; every product or image change derives a new snapshot with the next version
+ * number from the current one and swaps it in (copy-on-write).
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class ProductCatalog implements IProductIndex {
+
+    private final ImageRepository imageRepository;
+
+    private volatile CatalogSnapshot snapshot;
+    // The category of the copies, shared between them; written under the catalog lock only
+    private final Map<Long, Category> categories = new HashMap<>();
+
+    public boolean isReady() {
+        return snapshot != null;
+    }
+
+    // Null until the catalog has been built on startup
+    public CatalogSnapshot snapshot() {
+        return snapshot;
+    }
+
+    public long version() {
+        CatalogSnapshot current = snapshot;
+        return current != null ? current.getVersion() : 0;
+    }
+
+    @Override
+    public synchronized void rebuild(List<Product> products) {
+        Map<Long, List<CatalogSnapshot.ImageInfo>> images = loadImages(null);
+        categories.clear();
+        List<Product> copies = new ArrayList<>(products.size());
+        for (Product product : products) {
+            copies.add(CatalogSnapshot.copyOf(product, categories, images.getOrDefault(product.getId(), List.of())));
+        }
+        snapshot = CatalogSnapshot.of(nextVersion(), copies);
+        log.info("Catalog snapshot {} built with {} products", snapshot.getVersion(), copies.size());
+    }
+
+    @Override
+    public void index(Product product) {
+        indexAll(List.of(product));
+    }
+
+    // One snapshot for all products of a change
+    @Override
+    public synchronized void indexAll(List<Product> products) {
+        if (snapshot == null) {
+            return;
+        }
+        List<Product> indexable = products.stream()
+                .filter(product -> product != null && product.getId() != null)
+                .toList();
+        if (indexable.isEmpty()) {
+            return;
+        }
+        List<Long> added = indexable.stream()
+                .map(Product::getId)
+                .filter(id -> snapshot.getProduct(id) == null)
+                .toList();
+        Map<Long, List<CatalogSnapshot.ImageInfo>> images = added.isEmpty() ? Map.of() : loadImages(added);
+        List<Product> copies = new ArrayList<>(indexable.size());
+        for (Product product : indexable) {
+            Product previous = snapshot.getProduct(product.getId());
+            copies.add(CatalogSnapshot.copyOf(product, categories, previous != null
+                    ? CatalogSnapshot.imagesOf(previous)
+                    : images.getOrDefault(product.getId(), List.of())));
+        }
+        snapshot = snapshot.with(nextVersion(), copies, List.of());
+    }
+
+    @Override
+    public synchronized void remove(Long productId) {
+        if (snapshot == null || snapshot.getProduct(productId) == null) {
+            return;
+        }
+        snapshot = snapshot.with(nextVersion(), List.of(), List.of(productId));
+    }
+
+    /**
+     * Reloads the image metadata of the products, called when their images change.
+     */
+    public synchronized void refreshImages(Collection<Long> productIds) {
+        if (snapshot == null) {
+            return;
+        }
+        List<Long> known = productIds.stream().filter(id -> snapshot.getProduct(id) != null).distinct().toList();
+        if (known.isEmpty()) {
+            return;
+        }
+        Map<Long, List<CatalogSnapshot.ImageInfo>> loaded = loadImages(known);
+        List<Product> copies = new ArrayList<>(known.size());
+        for (Long productId : known) {
+            copies.add(CatalogSnapshot.copyOf(snapshot.getProduct(productId), categories, loaded.getOrDefault(productId, List.of())));
+        }
+        snapshot = snapshot.with(nextVersion(), copies, List.of());
+    }
+
+    // Runs the action once the current transaction commits, or right away without one.
+    // A failure is only logged, the write it follows is committed already.
+    static void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            runSafely(action);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                runSafely(action);
+            }
+        });
+    }
+
+    private static void runSafely(Runnable action) {
+        try {
+            action.run();
+        } catch (RuntimeException e) {
+            log.error("Failed to update the catalog snapshot: {}", e.getMessage(), e);
+        }
+    }
+
+    private long nextVersion() {
+        return snapshot != null ? snapshot.getVersion() + 1 : 1;
+    }
+
+    // All images when productIds is null
+    private Map<Long, List<CatalogSnapshot.ImageInfo>> loadImages(Collection<Long> productIds) {
+        List<Object[]> rows = productIds == null
+                ? imageRepository.findAllImageInfo()
+                : imageRepository.findImageInfoByProductIds(productIds);
+        Map<Long, List<CatalogSnapshot.ImageInfo>> images = new HashMap<>();
+        for (Object[] row : rows) {
+            images.computeIfAbsent((Long) row[0], id -> new ArrayList<>())
+                    .add(new CatalogSnapshot.ImageInfo((Long) row[1], (String) row[2], (String) row[3]));
+        }
+        images.replaceAll((id, list) -> List.copyOf(list));
+        return images;
+    }
+}
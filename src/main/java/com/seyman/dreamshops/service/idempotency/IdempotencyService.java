@@ -0,0 +1,259 @@
+package com.seyman.dreamshops.service.idempotency;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.seyman.dreamshops.exceptions.ServiceBusyException;
+import com.seyman.dreamshops.response.ApiResponse;
+import com.seyman.dreamshops.service.cache.SharedStateStore;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Runs a request carrying an Idempotency-Key header at most once. The key is a record in
+ * {@link SharedStateStore}, which the cache tiers never evict: the request that creates it
+ * (set-if-absent) executes, and then replaces it with its response, kept for the key's TTL
+ * and replayed to every retry with an "Idempotent-Replayed" header. A request finding the
+ * record still in progress waits for the response. Concurrent requests with the same key on
+ * this node wait for the one that is executing without going to the store. Keys are scoped to
+ * the operation and the authenticated user.
+ * <p>
+ * Server errors (5xx) and 429 Too Many Requests are not kept: the record is removed, and a
+ * retry executes the request again. So is a record whose node died while executing, once its
+ * claim TTL has run out.
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class IdempotencyService {
+
+    public static final String HEADER = "Idempotency-Key";
+    public static final String REPLAYED_HEADER = "Idempotent-Replayed";
+
+    private static final String KEY_PREFIX = "idempotency:";
+    private static final int MAX_KEY_LENGTH = 255;
+    private static final long POLL_MILLIS = 100;
+
+    private final SharedStateStore sharedStateStore;
+    private final ObjectMapper objectMapper;
+
+    @Value("${idempotency.ttl-hours:24}")
+    private long ttlHours;
+
+    // Longest a request waits for the execution of the same key elsewhere
+    @Value("${idempotency.wait-timeout-ms:10000}")
+    private long waitTimeoutMillis;
+
+    // Outlives the slowest request, the record of a crashed node frees up after it
+    @Value("${idempotency.claim-ttl-ms:30000}")
+    private long claimTtlMillis;
+
+    private final ConcurrentMap<String, CompletableFuture<StoredResponse>> executing = new ConcurrentHashMap<>();
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class StoredResponse {
+        // Set while the request executes, identifies the execution holding the key
+        private String owner;
+        // The request parameters, a key is only valid for the request it was first used with
+        private String fingerprint;
+        private int status;
+        private String message;
+        private String data;
+
+        boolean inProgress() {
+            return owner != null;
+        }
+    }
+
+    // The response of this call when it executed the request, else the stored one to replay
+    private record Outcome(ResponseEntity<ApiResponse> executed, StoredResponse stored) {
+    }
+
+    /**
+     * @param operation      name of the endpoint, keys of different endpoints never collide
+     * @param idempotencyKey the header value; without one the request simply executes
+     * @param fingerprint    the parameters of the request
+     * @throws ServiceBusyException if the shared store is unreachable, the request does not run then
+     */
+    public ResponseEntity<ApiResponse> execute(String operation, String idempotencyKey, String fingerprint,
+                                               Supplier<ResponseEntity<ApiResponse>> request) {
+        if (idempotencyKey == null || idempotencyKey.isBlank()) {
+            return request.get();
+        }
+        if (idempotencyKey.length() > MAX_KEY_LENGTH) {
+            return ResponseEntity.badRequest()
+                    .body(new ApiResponse(HEADER + " must be at most " + MAX_KEY_LENGTH + " characters", null));
+        }
+        String key = KEY_PREFIX + operation + ":" + principal() + ":" + idempotencyKey;
+
+        CompletableFuture<StoredResponse> execution = new CompletableFuture<>();
+        CompletableFuture<StoredResponse> running = executing.putIfAbsent(key, execution);
+        if (running != null) {
+            return awaitExecution(running, fingerprint);
+        }
+        try {
+            Outcome outcome = claimOrAwait(key, fingerprint, request);
+            execution.complete(outcome.stored());
+            if (outcome.executed() != null) {
+                return outcome.executed();
+            }
+            return outcome.stored() != null ? replay(outcome.stored(), fingerprint) : stillProcessing();
+        } catch (DataAccessException e) {
+            execution.completeExceptionally(e);
+            log.warn("Idempotency records are unavailable: {}", e.getMessage());
+            throw new ServiceBusyException("The request cannot be checked for duplicates right now, please retry", 1);
+        } catch (RuntimeException e) {
+            execution.completeExceptionally(e);
+            throw e;
+        } finally {
+            executing.remove(key, execution);
+        }
+    }
+
+    // Executes the request if this call creates the record, otherwise waits for the response
+    // in it; no response if it is still in progress when the wait runs out.
+    private Outcome claimOrAwait(String key, String fingerprint, Supplier<ResponseEntity<ApiResponse>> request) {
+        long deadline = System.currentTimeMillis() + waitTimeoutMillis;
+        while (true) {
+            StoredResponse claim = new StoredResponse(UUID.randomUUID().toString(), fingerprint, 0, null, null);
+            String claimJson = write(claim);
+            if (sharedStateStore.setIfAbsent(key, claimJson, Duration.ofMillis(claimTtlMillis))) {
+                return executeClaimed(key, claimJson, fingerprint, request);
+            }
+            Optional<StoredResponse> stored = read(key);
+            if (stored.isPresent() && (!stored.get().inProgress() || !stored.get().getFingerprint().equals(fingerprint))) {
+                return new Outcome(null, stored.get());
+            }
+            // In progress elsewhere, or gone again (failed, or expired after a crash) and up for a new claim
+            if (System.currentTimeMillis() >= deadline) {
+                return new Outcome(null, null);
+            }
+            try {
+                Thread.sleep(POLL_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return new Outcome(null, null);
+            }
+        }
+    }
+
+    private Outcome executeClaimed(String key, String claimJson, String fingerprint,
+                                 Supplier<ResponseEntity<ApiResponse>> request) {
+        ResponseEntity<ApiResponse> response;
+        try {
+            response = request.get();
+        } catch (RuntimeException e) {
+            sharedStateStore.compareAndDelete(key, claimJson);
+            throw e;
+        }
+        ApiResponse body = response.getBody();
+        StoredResponse result;
+        try {
+            result = new StoredResponse(null, fingerprint, response.getStatusCode().value(),
+                    body != null ? body.getMessage() : null,
+                    body != null ? objectMapper.writeValueAsString(body.getData()) : null);
+        } catch (JsonProcessingException e) {
+            log.warn("Response for {} cannot be kept, a retry executes it again: {}", key, e.getMessage());
+            sharedStateStore.compareAndDelete(key, claimJson);
+            return new Outcome(response, new StoredResponse(null, fingerprint, response.getStatusCode().value(),
+                    body != null ? body.getMessage() : null, null));
+        }
+        if (response.getStatusCode().is5xxServerError() || response.getStatusCode() == HttpStatus.TOO_MANY_REQUESTS) {
+            sharedStateStore.compareAndDelete(key, claimJson);
+        } else {
+            // Replaces the claim, the key is never free in between
+            sharedStateStore.set(key, write(result), Duration.ofHours(ttlHours));
+        }
+        return new Outcome(response, result);
+    }
+
+    private ResponseEntity<ApiResponse> awaitExecution(CompletableFuture<StoredResponse> running, String fingerprint) {
+        try {
+            StoredResponse result = running.get(waitTimeoutMillis, TimeUnit.MILLISECONDS);
+            return result != null ? replay(result, fingerprint) : stillProcessing();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof DataAccessException) {
+                throw new ServiceBusyException("The request cannot be checked for duplicates right now, please retry", 1);
+            }
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new IllegalStateException(e.getCause());
+        } catch (TimeoutException e) {
+            return stillProcessing();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return stillProcessing();
+        }
+    }
+
+    private ResponseEntity<ApiResponse> replay(StoredResponse stored, String fingerprint) {
+        if (!stored.getFingerprint().equals(fingerprint)) {
+            return ResponseEntity.status(HttpStatus.UNPROCESSABLE_ENTITY)
+                    .body(new ApiResponse(HEADER + " was already used for a different request", null));
+        }
+        Object data;
+        try {
+            data = stored.getData() != null ? objectMapper.readTree(stored.getData()) : null;
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Stored response is unreadable", e);
+        }
+        return ResponseEntity.status(stored.getStatus())
+                .header(REPLAYED_HEADER, "true")
+                .body(new ApiResponse(stored.getMessage(), data));
+    }
+
+    private Optional<StoredResponse> read(String key) {
+        Optional<String> json = sharedStateStore.get(key);
+        if (json.isEmpty()) {
+            return Optional.empty();
+        }
+        try {
+            return Optional.of(objectMapper.readValue(json.get(), StoredResponse.class));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Stored response is unreadable", e);
+        }
+    }
+
+    private String write(StoredResponse stored) {
+        try {
+            return objectMapper.writeValueAsString(stored);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Cannot write idempotency record", e);
+        }
+    }
+
+    private static ResponseEntity<ApiResponse> stillProcessing() {
+        return ResponseEntity.status(HttpStatus.CONFLICT)
+                .header(HttpHeaders.RETRY_AFTER, "1")
+                .body(new ApiResponse("A request with this " + HEADER + " is still being processed", null));
+    }
+
+    private static String principal() {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        return authentication != null ? authentication.getName() : "anonymous";
+    }
+}
@@ -0,0 +1,8 @@
+package com.seyman.dreamshops.service.inventory;
+
+/**
+ * Quantity of a product taken from one flash-sale allotment. Releasing it only gives the
+ * quantity back while that allotment is still the product's current one.
+ */
+public record FlashSaleReservation(Long productId, long allotment, int quantity) {
+}
@@ -0,0 +1,155 @@
+package com.seyman.dreamshops.service.inventory;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Append-only file of flash-sale stock changes, one line each: a snapshot of the stock of
+ * every product ("S id stock") followed by the changes since ("D id delta", "X id" for a
+ * closed sale). Compacting atomically replaces the file with a new snapshot.
+ */
+@Slf4j
+public class FlashSaleStockJournal {
+
+    public enum Type {
+        SET('S'), DELTA('D'), REMOVE('X');
+
+        private final char code;
+
+        Type(char code) {
+            this.code = code;
+        }
+    }
+
+    public record Entry(Type type, long productId, int value) {
+    }
+
+    private final Path file;
+    private FileChannel channel;
+
+    public FlashSaleStockJournal(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Replays the file into the stock by product id. A torn last line, from a crash while
+     * appending, is skipped: the changes on it were never acknowledged.
+     */
+    public Map<Long, Integer> recover() throws IOException {
+        Map<Long, Integer> stock = new HashMap<>();
+        if (!Files.exists(file)) {
+            return stock;
+        }
+        String content = Files.readString(file, StandardCharsets.UTF_8);
+        // Only newline-terminated lines are complete
+        String[] lines = content.substring(0, content.lastIndexOf('\n') + 1).split("\n");
+        int skipped = content.endsWith("\n") || content.isEmpty() ? 0 : 1;
+        for (String line : lines) {
+            Entry entry = parse(line);
+            if (entry != null) {
+                apply(stock, entry);
+            } else if (!line.isBlank()) {
+                skipped++;
+            }
+        }
+        if (skipped > 0) {
+            log.warn("Skipped {} unreadable lines of flash-sale journal {}", skipped, file);
+        }
+        return stock;
+    }
+
+    public static void apply(Map<Long, Integer> stock, Entry entry) {
+        switch (entry.type()) {
+            case SET -> stock.put(entry.productId(), entry.value());
+            // A change of a closed sale is dropped
+            case DELTA -> stock.computeIfPresent(entry.productId(), (id, value) -> value + entry.value());
+            case REMOVE -> stock.remove(entry.productId());
+        }
+    }
+
+    /**
+     * Appends the entries and forces them to disk.
+     */
+    public void append(Collection<Entry> entries) throws IOException {
+        StringBuilder lines = new StringBuilder(entries.size() * 16);
+        entries.forEach(entry -> format(lines, entry));
+        write(channel(), lines);
+        channel.force(false);
+    }
+
+    /**
+     * Replaces the file with a snapshot of the stock, written to a temporary file first.
+     */
+    public void compact(Map<Long, Integer> stock) throws IOException {
+        StringBuilder lines = new StringBuilder(stock.size() * 16);
+        stock.forEach((productId, value) -> format(lines, new Entry(Type.SET, productId, value)));
+
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel snapshot = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            write(snapshot, lines);
+            snapshot.force(true);
+        }
+        close();
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    private FileChannel channel() throws IOException {
+        if (channel == null) {
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+        return channel;
+    }
+
+    private static void write(FileChannel target, CharSequence lines) throws IOException {
+        ByteBuffer buffer = StandardCharsets.UTF_8.encode(lines.toString());
+        while (buffer.hasRemaining()) {
+            target.write(buffer);
+        }
+    }
+
+    private static void format(StringBuilder lines, Entry entry) {
+        lines.append(entry.type().code).append(' ').append(entry.productId());
+        if (entry.type() != Type.REMOVE) {
+            lines.append(' ').append(entry.value());
+        }
+        lines.append('\n');
+    }
+
+    private static Entry parse(String line) {
+        String[] fields = line.split(" ");
+        if (fields.length < 2 || fields[0].length() != 1) {
+            return null;
+        }
+        try {
+            long productId = Long.parseLong(fields[1]);
+            return switch (fields[0].charAt(0)) {
+                case 'S' -> fields.length == 3 ? new Entry(Type.SET, productId, Integer.parseInt(fields[2])) : null;
+                case 'D' -> fields.length == 3 ? new Entry(Type.DELTA, productId, Integer.parseInt(fields[2])) : null;
+                case 'X' -> fields.length == 2 ? new Entry(Type.REMOVE, productId, 0) : null;
+                default -> null;
+            };
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,573 @@
+package com.seyman.dreamshops.service.inventory;
+
+import com.seyman.dreamshops.dto.StockShortageDto;
+import com.seyman.dreamshops.exceptions.InsufficientStockException;
+import com.seyman.dreamshops.model.Product;
+import com.seyman.dreamshops.service.cache.SharedStateStore;
+import com.seyman.dreamshops.service.search.IProductIndex;
+import jakarta.annotation.PreDestroy;
+import jakarta.persistence.EntityManager;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.Session;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.PreparedStatement;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remaining flash-sale stock ({@link Product#getFlashSaleStock()}) kept in memory, so flash-sale
+ * checkouts reserve it with a compare-and-set instead of all waiting on the same product row.
+ * Products with a large allotment get a {@link StripedStockCounter} with a stripe per core.
+ * <p>
+ * Every change is queued for a single journal thread, which appends and forces them to
+ * {@link FlashSaleStockJournal} every few milliseconds. An order commits only once its
+ * reservations are on disk, so a crash cannot lose stock that was sold. The journaled stock is
+ * written to the product table in one JDBC batch per flush interval, after which the journal is
+ * compacted to a snapshot. On startup the journal is replayed over the table.
+ * <p>
+ * With Redis enabled several nodes sell the same allotment, so the stock is a Redis counter
+ * instead, taken with a check-and-decrement script and written to the table by one node at a
+ * time under a lock. Redis is then what keeps sold stock across a crash, and should persist.
+ * <p>
+ * Every allotment has its own id ({@link Product#getFlashSaleAllotment()}). A reservation
+ * remembers it, and its release is dropped once the allotment was replaced or closed.
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class FlashSaleStockLedger implements IProductIndex {
+
+    private static final String FLUSH_SQL = "UPDATE product SET flash_sale_stock = ? WHERE id = ? AND is_flash_sale = true";
+    private static final String STOCK_KEY_PREFIX = "flash-sale:stock:";
+    private static final String FLUSH_LOCK_KEY = "flash-sale:flush-lock";
+    // Outlives the slowest flush, the lock of a crashed node frees up after it
+    private static final Duration FLUSH_LOCK_TTL = Duration.ofSeconds(10);
+
+    private final EntityManager entityManager;
+    private final PlatformTransactionManager transactionManager;
+    private final SharedStateStore sharedStateStore;
+
+    @Value("${flash-sale.journal-dir:data/flash-sale}")
+    private String journalDir;
+
+    @Value("${flash-sale.journal-sync-ms:5}")
+    private long journalSyncMs;
+
+    @Value("${flash-sale.flush-interval-ms:1000}")
+    private long flushIntervalMs;
+
+    @Value("${flash-sale.commit-timeout-ms:1000}")
+    private long commitTimeoutMs;
+
+    // Allotments from this size on are striped
+    @Value("${flash-sale.stripe-threshold:64}")
+    private int stripeThreshold;
+
+    private final Map<Long, Tracked> tracked = new ConcurrentHashMap<>();
+    private final LinkedBlockingQueue<Change> changes = new LinkedBlockingQueue<>();
+    // Saved with a possibly stale stock column, to be written again on the next flush
+    private final Set<Long> dirty = ConcurrentHashMap.newKeySet();
+    private final Object journaledMonitor = new Object();
+    // With Redis: the stock last read from the counters
+    private final Map<Long, Integer> seen = new ConcurrentHashMap<>();
+
+    // Owned by the journal thread
+    private final Map<Long, Integer> journaled = new HashMap<>();
+    private final List<Change> unwritten = new ArrayList<>();
+    private FlashSaleStockJournal journal;
+
+    private ScheduledExecutorService journalExecutor;
+    private volatile boolean shared = false;
+    private volatile boolean ready = false;
+
+    // The counter is null with Redis, savedStock starts a counter that went missing there
+    private record Tracked(String productName, long allotment, int savedStock,
+                           LocalDateTime saleStart, LocalDateTime saleEnd, StripedStockCounter stock) {
+
+        static Tracked of(Product product, long allotment, StripedStockCounter stock) {
+            return new Tracked(product.getName(), allotment, product.getFlashSaleStock(),
+                    product.getSaleStartDate(), product.getSaleEndDate(), stock);
+        }
+
+        boolean inSaleWindow(LocalDateTime now) {
+            return (saleStart == null || !now.isBefore(saleStart)) && (saleEnd == null || !now.isAfter(saleEnd));
+        }
+    }
+
+    private static final class Change {
+        private final FlashSaleStockJournal.Entry entry;
+        private volatile boolean journaled;
+
+        private Change(FlashSaleStockJournal.Entry entry) {
+            this.entry = entry;
+        }
+    }
+
+    /**
+     * Takes the quantities of the products on flash sale off their flash-sale stock, all or
+     * nothing; other products are ignored. Inside a transaction the stock is given back on
+     * rollback, and the commit waits until the reservation is journaled.
+     *
+     * @param quantities quantity by product id
+     * @return what was taken, from which allotment
+     * @throws InsufficientStockException with a line per product that does not have enough flash-sale stock
+     * @throws IllegalArgumentException   if a quantity is not positive
+     */
+    public List<FlashSaleReservation> reserve(Map<Long, Integer> quantities) {
+        quantities.forEach((productId, quantity) -> {
+            if (quantity == null || quantity <= 0) {
+                throw new IllegalArgumentException("Quantity of product " + productId + " must be positive: " + quantity);
+            }
+        });
+        if (!ready) {
+            return List.of();
+        }
+        List<FlashSaleReservation> taken = new ArrayList<>();
+        List<StockShortageDto> shortages = new ArrayList<>();
+        try {
+            quantities.forEach((productId, quantity) -> {
+                Tracked product = tracked.get(productId);
+                if (product == null) {
+                    return;
+                }
+                if (tryTake(productId, product, quantity)) {
+                    taken.add(new FlashSaleReservation(productId, product.allotment(), quantity));
+                } else {
+                    shortages.add(new StockShortageDto(productId, product.productName(), quantity, remaining(productId)));
+                }
+            });
+        } catch (RuntimeException e) {
+            putBack(taken, false);
+            throw e;
+        }
+        if (!shortages.isEmpty()) {
+            putBack(taken, false);
+            throw new InsufficientStockException(shortages);
+        }
+        if (taken.isEmpty()) {
+            return taken;
+        }
+
+        List<Change> reservations = new ArrayList<>();
+        if (shared) {
+            taken.forEach(reservation -> dirty.add(reservation.productId()));
+        } else {
+            taken.forEach(reservation -> reservations.add(
+                    record(FlashSaleStockJournal.Type.DELTA, reservation.productId(), -reservation.quantity())));
+        }
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            awaitJournaled(reservations);
+            return taken;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void beforeCommit(boolean readOnly) {
+                awaitJournaled(reservations);
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                if (status != STATUS_COMMITTED) {
+                    putBack(taken, true);
+                }
+            }
+        });
+        return taken;
+    }
+
+    /**
+     * Puts the reservations back on the flash-sale stock they were taken from, after commit
+     * when called inside a transaction. A reservation of an allotment that is no longer the
+     * current one is dropped.
+     */
+    public void release(Collection<FlashSaleReservation> reservations) {
+        if (!ready || reservations.isEmpty()) {
+            return;
+        }
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            putBack(reservations, true);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                putBack(reservations, true);
+            }
+        });
+    }
+
+    /**
+     * @return the live flash-sale stock, or null if the product is not on flash sale; with
+     * Redis, as of the last read
+     */
+    public Integer remaining(Long productId) {
+        Tracked product = tracked.get(productId);
+        if (product == null) {
+            return null;
+        }
+        return shared ? seen.getOrDefault(productId, product.savedStock()) : product.stock().available();
+    }
+
+    /**
+     * @return whether a product on flash sale is within its sale window and still has stock left
+     */
+    public boolean isSaleLive() {
+        LocalDateTime now = LocalDateTime.now();
+        for (Map.Entry<Long, Tracked> product : tracked.entrySet()) {
+            Integer stock = remaining(product.getKey());
+            if (product.getValue().inSaleWindow(now) && stock != null && stock > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void rebuild(List<Product> products) {
+        if (ready) {
+            return;
+        }
+        shared = sharedStateStore.isShared();
+        try {
+            if (shared) {
+                products.stream().filter(FlashSaleStockLedger::isOnFlashSale).forEach(this::open);
+            } else {
+                recover(products);
+            }
+        } catch (IOException | RuntimeException e) {
+            log.warn("Flash-sale stock ledger disabled, could not recover {}: {}",
+                    shared ? "the stock counters" : "journal " + journalDir, e.getMessage());
+            tracked.clear();
+            seen.clear();
+            return;
+        }
+
+        journalExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "flash-sale-journal");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (shared) {
+            journalExecutor.scheduleWithFixedDelay(this::flushShared, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+        } else {
+            journalExecutor.scheduleWithFixedDelay(this::syncJournal, journalSyncMs, journalSyncMs, TimeUnit.MILLISECONDS);
+            journalExecutor.scheduleWithFixedDelay(this::flushToDatabase, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+        }
+        ready = true;
+        log.info("Tracking flash-sale stock of {} products{}", tracked.size(), shared ? " in Redis" : "");
+    }
+
+    @Override
+    public void index(Product product) {
+        if (!ready || product == null || product.getId() == null) {
+            return;
+        }
+        Tracked current = tracked.get(product.getId());
+        if (!isOnFlashSale(product)) {
+            if (current != null) {
+                remove(product.getId());
+            }
+        } else if (current == null || current.allotment() != allotmentOf(product)) {
+            open(product);
+        } else {
+            tracked.computeIfPresent(product.getId(), (id, previous) ->
+                    Tracked.of(product, previous.allotment(), previous.stock()));
+            dirty.add(product.getId());
+        }
+    }
+
+    @Override
+    public void remove(Long productId) {
+        Tracked removed = ready ? tracked.remove(productId) : null;
+        if (removed == null) {
+            return;
+        }
+        if (shared) {
+            seen.remove(productId);
+            sharedStateStore.delete(stockKey(productId, removed.allotment()));
+        } else {
+            record(FlashSaleStockJournal.Type.REMOVE, productId, 0);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (journalExecutor == null) {
+            return;
+        }
+        journalExecutor.shutdown();
+        try {
+            journalExecutor.awaitTermination(5, TimeUnit.SECONDS);
+            if (shared) {
+                flushShared();
+                return;
+            }
+            syncJournal();
+            flushToDatabase();
+            journal.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            log.warn("Failed to close flash-sale journal: {}", e.getMessage());
+        }
+    }
+
+    private void recover(List<Product> products) throws IOException {
+        journal = new FlashSaleStockJournal(Path.of(journalDir, "stock.journal"));
+        Map<Long, Integer> recovered = journal.recover();
+        for (Product product : products) {
+            if (isOnFlashSale(product)) {
+                // The journal is ahead of the table by up to one flush interval
+                int stock = recovered.getOrDefault(product.getId(), product.getFlashSaleStock());
+                journaled.put(product.getId(), stock);
+                tracked.put(product.getId(), Tracked.of(product, allotmentOf(product), newCounter(stock)));
+                if (stock != product.getFlashSaleStock()) {
+                    dirty.add(product.getId());
+                }
+            }
+        }
+        flushToDatabase();
+        journal.compact(journaled);
+    }
+
+    // Starts counting the product's current allotment from its saved stock; with Redis, a node
+    // that finds the counter started already joins it
+    private void open(Product product) {
+        long allotment = allotmentOf(product);
+        int stock = product.getFlashSaleStock();
+        if (!shared) {
+            tracked.put(product.getId(), Tracked.of(product, allotment, newCounter(stock)));
+            record(FlashSaleStockJournal.Type.SET, product.getId(), stock);
+            return;
+        }
+        String key = stockKey(product.getId(), allotment);
+        sharedStateStore.setIfAbsent(key, Integer.toString(stock));
+        seen.put(product.getId(), sharedStateStore.get(key).map(Integer::valueOf).orElse(stock));
+        Tracked previous = tracked.put(product.getId(), Tracked.of(product, allotment, null));
+        if (previous != null && previous.allotment() != allotment) {
+            sharedStateStore.delete(stockKey(product.getId(), previous.allotment()));
+        }
+    }
+
+    private boolean tryTake(Long productId, Tracked product, int quantity) {
+        if (!shared) {
+            return product.stock().tryTake(quantity);
+        }
+        String key = stockKey(productId, product.allotment());
+        Long left = sharedStateStore.take(key, quantity);
+        if (left == null) {
+            // Lost with Redis: starts over from the saved stock, which is behind by up to one flush
+            sharedStateStore.setIfAbsent(key, Integer.toString(product.savedStock()));
+            left = sharedStateStore.take(key, quantity);
+        }
+        if (left == null || left < 0) {
+            sharedStateStore.get(key).map(Integer::valueOf).ifPresent(stock -> seen.put(productId, stock));
+            return false;
+        }
+        seen.put(productId, left.intValue());
+        return true;
+    }
+
+    // Gives reservations back to their allotment while it is current; journaled ones are
+    // journaled back
+    private void putBack(Collection<FlashSaleReservation> reservations, boolean journaled) {
+        for (FlashSaleReservation reservation : reservations) {
+            Long productId = reservation.productId();
+            Tracked product = tracked.get(productId);
+            if (product == null || product.allotment() != reservation.allotment()) {
+                continue;
+            }
+            if (shared) {
+                long stock = sharedStateStore.increment(stockKey(productId, reservation.allotment()), reservation.quantity());
+                seen.put(productId, (int) stock);
+                dirty.add(productId);
+            } else {
+                product.stock().put(reservation.quantity());
+                if (journaled) {
+                    record(FlashSaleStockJournal.Type.DELTA, productId, reservation.quantity());
+                }
+            }
+        }
+    }
+
+    private Change record(FlashSaleStockJournal.Type type, Long productId, int value) {
+        Change change = new Change(new FlashSaleStockJournal.Entry(type, productId, value));
+        changes.add(change);
+        return change;
+    }
+
+    private void awaitJournaled(List<Change> reservations) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(commitTimeoutMs);
+        synchronized (journaledMonitor) {
+            for (Change reservation : reservations) {
+                while (!reservation.journaled) {
+                    long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                    if (remaining <= 0) {
+                        throw new IllegalStateException("Flash-sale stock could not be journaled, try again later");
+                    }
+                    try {
+                        journaledMonitor.wait(remaining);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IllegalStateException("Interrupted while journaling flash-sale stock", e);
+                    }
+                }
+            }
+        }
+    }
+
+    // Group commit: one append and fsync for everything queued since the last run
+    private void syncJournal() {
+        List<Change> batch = new ArrayList<>(unwritten);
+        changes.drainTo(batch);
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            if (unwritten.isEmpty()) {
+                journal.append(batch.stream().map(change -> change.entry).toList());
+                batch.forEach(change -> FlashSaleStockJournal.apply(journaled, change.entry));
+            } else {
+                // A failed append may have left part of the batch behind, a snapshot replaces it
+                Map<Long, Integer> snapshot = new HashMap<>(journaled);
+                batch.forEach(change -> FlashSaleStockJournal.apply(snapshot, change.entry));
+                journal.compact(snapshot);
+                journaled.clear();
+                journaled.putAll(snapshot);
+            }
+            unwritten.clear();
+        } catch (IOException | RuntimeException e) {
+            log.error("Failed to write {} flash-sale stock changes to the journal: {}", batch.size(), e.getMessage());
+            unwritten.clear();
+            unwritten.addAll(batch);
+            return;
+        }
+        batch.forEach(change -> dirty.add(change.entry.productId()));
+        synchronized (journaledMonitor) {
+            batch.forEach(change -> change.journaled = true);
+            journaledMonitor.notifyAll();
+        }
+    }
+
+    private void flushToDatabase() {
+        if (dirty.isEmpty() || !unwritten.isEmpty()) {
+            return;
+        }
+        Map<Long, Integer> stock = drainDirty(journaled);
+        if (stock.isEmpty()) {
+            return;
+        }
+        try {
+            writeStock(stock);
+            // The table now holds everything journaled so far
+            journal.compact(journaled);
+            log.debug("Flushed flash-sale stock of {} products", stock.size());
+        } catch (IOException | RuntimeException e) {
+            log.warn("Failed to flush flash-sale stock of {} products: {}", stock.size(), e.getMessage());
+            dirty.addAll(stock.keySet());
+        }
+    }
+
+    // Refreshes the stock seen in Redis; the changed products are written by whichever node
+    // holds the lock, with the counters read under it, so a later flush never writes older stock
+    private void flushShared() {
+        String lock = UUID.randomUUID().toString();
+        boolean locked = false;
+        try {
+            locked = !dirty.isEmpty() && sharedStateStore.setIfAbsent(FLUSH_LOCK_KEY, lock, FLUSH_LOCK_TTL);
+            Map<Long, Integer> current = new HashMap<>();
+            tracked.forEach((productId, product) -> sharedStateStore.get(stockKey(productId, product.allotment()))
+                    .map(Integer::valueOf)
+                    .ifPresent(stock -> current.put(productId, stock)));
+            seen.putAll(current);
+            if (!locked) {
+                return;
+            }
+            Map<Long, Integer> stock = drainDirty(current);
+            try {
+                writeStock(stock);
+                log.debug("Flushed flash-sale stock of {} products", stock.size());
+            } catch (RuntimeException e) {
+                dirty.addAll(stock.keySet());
+                throw e;
+            }
+        } catch (RuntimeException e) {
+            log.warn("Failed to flush flash-sale stock: {}", e.getMessage());
+        } finally {
+            if (locked) {
+                try {
+                    sharedStateStore.compareAndDelete(FLUSH_LOCK_KEY, lock);
+                } catch (RuntimeException e) {
+                    log.debug("Flash-sale flush lock is left to expire: {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    private Map<Long, Integer> drainDirty(Map<Long, Integer> current) {
+        Map<Long, Integer> stock = new HashMap<>();
+        for (Long productId : List.copyOf(dirty)) {
+            dirty.remove(productId);
+            Integer value = current.get(productId);
+            if (value != null) {
+                stock.put(productId, value);
+            }
+        }
+        return stock;
+    }
+
+    private void writeStock(Map<Long, Integer> stock) {
+        if (stock.isEmpty()) {
+            return;
+        }
+        new TransactionTemplate(transactionManager).executeWithoutResult(status ->
+                entityManager.unwrap(Session.class).doWork(connection -> {
+                    try (PreparedStatement statement = connection.prepareStatement(FLUSH_SQL)) {
+                        for (Map.Entry<Long, Integer> product : stock.entrySet()) {
+                            statement.setInt(1, product.getValue());
+                            statement.setLong(2, product.getKey());
+                            statement.addBatch();
+                        }
+                        statement.executeBatch();
+                    }
+                }));
+    }
+
+    private StripedStockCounter newCounter(int stock) {
+        int stripes = stock < stripeThreshold ? 1 : Integer.highestOneBit(Math.min(64, Runtime.getRuntime().availableProcessors()) * 2 - 1);
+        return new StripedStockCounter(stock, stripes);
+    }
+
+    private static String stockKey(Long productId, long allotment) {
+        return STOCK_KEY_PREFIX + productId + ":" + allotment;
+    }
+
+    private static long allotmentOf(Product product) {
+        return product.getFlashSaleAllotment() != null ? product.getFlashSaleAllotment() : 0;
+    }
+
+    private static boolean isOnFlashSale(Product product) {
+        return Boolean.TRUE.equals(product.getIsFlashSale()) && product.getFlashSaleStock() != null;
+    }
+}
@@ -0,0 +1,223 @@
+package com.seyman.dreamshops.service.inventory;
+
+import com.seyman.dreamshops.dto.StockShortageDto;
+import com.seyman.dreamshops.exceptions.InsufficientStockException;
+import com.seyman.dreamshops.model.Product;
+import com.seyman.dreamshops.repository.ProductRepository;
+import com.seyman.dreamshops.service.search.ProductIndexListener;
+import jakarta.persistence.EntityManager;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.Session;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Moves product inventory with conditional UPDATEs instead of read-modify-write on the
+ * entities, so concurrent checkouts of the same product can neither lose an update nor oversell.
+ * All lines of a reservation, or of several orders, are sent as one JDBC batch of a single
+ * statement, whose per-line update counts tell exactly which lines were short. The batch is a
+ * single round trip with MySQL only when the URL sets rewriteBatchedStatements=true (as the
+ * default one does); PostgreSQL pipelines it without an option.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class InventoryReservationService {
+
+    private final EntityManager entityManager;
+    private final ProductRepository productRepository;
+    private final ProductIndexListener productIndexListener;
+    private final PlatformTransactionManager transactionManager;
+
+    private static final String RESERVE_SQL = "UPDATE product SET inventory = inventory - ? WHERE id = ? AND inventory >= ?";
+    private static final String RELEASE_SQL = "UPDATE product SET inventory = inventory + ? WHERE id = ?";
+
+    private record Line(int order, Long productId, int quantity) {
+    }
+
+    /**
+     * Takes the quantities off the inventory of their products, all or nothing.
+     *
+     * @param quantities quantity by product id
+     * @throws InsufficientStockException with a line per product that does not have enough stock;
+     *                                    the inventory is then left unchanged
+     */
+    @Transactional
+    public void reserve(Map<Long, Integer> quantities) {
+        if (quantities.isEmpty()) {
+            return;
+        }
+        List<StockShortageDto> shortages = reserveAll(List.of(quantities)).get(0);
+        if (!shortages.isEmpty()) {
+            log.info("Rejected reservation of {} products, short on {}", quantities.size(), shortages);
+            throw new InsufficientStockException(shortages);
+        }
+    }
+
+    /**
+     * Reserves the quantities of several orders in one batch. An order that is short on any
+     * product gets none of its lines, the others are reserved; earlier orders win a product
+     * that cannot serve all of them.
+     * <p>
+     * When a batch comes back with short lines, the first order with one is short for sure:
+     * every order before it got its lines. Its lines are released and the other orders with
+     * short lines are sent again in a new batch, since the stock they missed may just have
+     * been freed. Without contention that is a single batch.
+     *
+     * @param orders quantity by product id, per order
+     * @return the shortages of each order, empty for the reserved ones
+     */
+    @Transactional
+    public List<List<StockShortageDto>> reserveAll(List<Map<Long, Integer>> orders) {
+        List<Line> lines = new ArrayList<>();
+        for (int order = 0; order < orders.size(); order++) {
+            int index = order;
+            orders.get(order).forEach((productId, quantity) -> lines.add(new Line(index, productId, quantity)));
+        }
+        List<List<StockShortageDto>> shortages = new ArrayList<>();
+        orders.forEach(order -> shortages.add(List.of()));
+        if (lines.isEmpty()) {
+            return shortages;
+        }
+        // Ordered by product id, so concurrent reservations lock shared rows in the same order
+        lines.sort(Comparator.comparing(Line::productId).thenComparingInt(Line::order));
+
+        Set<Integer> shortOrders = new HashSet<>();
+        List<Line> shortLines = new ArrayList<>();
+        List<Line> pending = lines;
+        while (!pending.isEmpty()) {
+            boolean[] updated = adjustInventory(RESERVE_SQL, pending, true);
+            TreeMap<Integer, List<Line>> failedByOrder = new TreeMap<>();
+            for (int i = 0; i < pending.size(); i++) {
+                if (!updated[i]) {
+                    failedByOrder.computeIfAbsent(pending.get(i).order(), order -> new ArrayList<>()).add(pending.get(i));
+                }
+            }
+            if (failedByOrder.isEmpty()) {
+                break;
+            }
+            int firstShort = failedByOrder.firstKey();
+            shortOrders.add(firstShort);
+            shortLines.addAll(failedByOrder.get(firstShort));
+
+            // Lines taken by orders with a short line go back within this transaction
+            List<Line> taken = new ArrayList<>();
+            List<Line> retry = new ArrayList<>();
+            for (int i = 0; i < pending.size(); i++) {
+                Line line = pending.get(i);
+                if (failedByOrder.containsKey(line.order())) {
+                    if (updated[i]) {
+                        taken.add(line);
+                    }
+                    if (line.order() != firstShort) {
+                        retry.add(line);
+                    }
+                }
+            }
+            if (!taken.isEmpty()) {
+                adjustInventory(RELEASE_SQL, taken, false);
+            }
+            pending = retry;
+        }
+        if (!shortLines.isEmpty()) {
+            findShortages(shortLines).forEach((order, orderShortages) -> shortages.set(order, orderShortages));
+        }
+
+        List<Long> reservedProductIds = lines.stream()
+                .filter(line -> !shortOrders.contains(line.order()))
+                .map(Line::productId)
+                .distinct()
+                .toList();
+        if (!reservedProductIds.isEmpty()) {
+            reindexAfterCommit(reservedProductIds);
+        }
+        return shortages;
+    }
+
+    /**
+     * Puts the quantities back on the inventory of their products, e.g. for a cancelled order.
+     */
+    @Transactional
+    public void release(Map<Long, Integer> quantities) {
+        if (quantities.isEmpty()) {
+            return;
+        }
+        Map<Long, Integer> ordered = new TreeMap<>(quantities);
+        adjustInventory(RELEASE_SQL, ordered.entrySet().stream()
+                .map(line -> new Line(0, line.getKey(), line.getValue()))
+                .toList(), false);
+        reindexAfterCommit(List.copyOf(ordered.keySet()));
+    }
+
+    /**
+     * Runs the statement once per line in a single batch, on the connection of the current transaction.
+     *
+     * @param conditional whether the statement binds the quantity again for its stock check
+     * @return per line, whether its row was updated
+     */
+    private boolean[] adjustInventory(String sql, List<Line> lines, boolean conditional) {
+        boolean[] updated = new boolean[lines.size()];
+        entityManager.unwrap(Session.class).doWork(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(sql)) {
+                for (Line line : lines) {
+                    statement.setInt(1, line.quantity());
+                    statement.setLong(2, line.productId());
+                    if (conditional) {
+                        statement.setInt(3, line.quantity());
+                    }
+                    statement.addBatch();
+                }
+                int[] counts = statement.executeBatch();
+                for (int i = 0; i < counts.length; i++) {
+                    // A driver that cannot tell the count reports SUCCESS_NO_INFO, the statement did run
+                    updated[i] = counts[i] != 0;
+                }
+            }
+        });
+        return updated;
+    }
+
+    // The short rows were not touched by their order, their stock is current
+    private Map<Integer, List<StockShortageDto>> findShortages(List<Line> shortLines) {
+        Map<Long, Object[]> stock = new HashMap<>();
+        entityManager.createQuery("SELECT p.id, p.name, p.inventory FROM Product p WHERE p.id IN :ids", Object[].class)
+                .setParameter("ids", shortLines.stream().map(Line::productId).distinct().toList())
+                .getResultList()
+                .forEach(row -> stock.put((Long) row[0], row));
+        Map<Integer, List<StockShortageDto>> shortages = new HashMap<>();
+        for (Line line : shortLines) {
+            Object[] row = stock.get(line.productId());
+            // A missing row is a product deleted since it was put in the cart
+            shortages.computeIfAbsent(line.order(), order -> new ArrayList<>()).add(row != null
+                    ? new StockShortageDto(line.productId(), (String) row[1], line.quantity(), (Integer) row[2])
+                    : new StockShortageDto(line.productId(), null, line.quantity(), 0));
+        }
+        return shortages;
+    }
+
+    // Bulk updates bypass the entity callbacks. The products are re-read in a new transaction,
+    // since this persistence context still holds them with their old inventory.
+    private void reindexAfterCommit(List<Long> productIds) {
+        TransactionTemplate readTransaction = new TransactionTemplate(transactionManager);
+        readTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        readTransaction.setReadOnly(true);
+        productIndexListener.onBulkUpdate(() -> {
+            List<Product> products = readTransaction.execute(status -> productRepository.findByIdsWithImagesAndCategory(productIds));
+            return products != null ? products : List.of();
+        });
+    }
+}
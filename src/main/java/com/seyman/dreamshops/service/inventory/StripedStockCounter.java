@@ -0,0 +1,98 @@
+package com.seyman.dreamshops.service.inventory;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Remaining stock split over stripes, each taken with a compare-and-set. A thread starts at
+ * its own stripe and only moves on when that one runs short, so concurrent reservations of a
+ * hot product rarely touch the same cell. The total can never go below zero.
+ */
+public class StripedStockCounter {
+
+    // Cells are a cache line apart, so stripes do not share one
+    private static final int PADDING = 16;
+
+    private final AtomicIntegerArray cells;
+    private final int mask;
+
+    /**
+     * @param stripes a power of two; one stripe is a plain atomic counter
+     */
+    public StripedStockCounter(int stock, int stripes) {
+        if (Integer.bitCount(stripes) != 1) {
+            throw new IllegalArgumentException("Stripes must be a power of two: " + stripes);
+        }
+        this.mask = stripes - 1;
+        this.cells = new AtomicIntegerArray(stripes * PADDING);
+        for (int i = 0; i < stripes; i++) {
+            cells.set(i * PADDING, stock / stripes + (i < stock % stripes ? 1 : 0));
+        }
+    }
+
+    /**
+     * @return whether the whole quantity was taken; nothing is taken otherwise
+     */
+    public boolean tryTake(int quantity) {
+        int home = home();
+        for (int i = 0; i <= mask; i++) {
+            int cell = cell(home + i);
+            int available;
+            while ((available = cells.get(cell)) >= quantity) {
+                if (cells.compareAndSet(cell, available, available - quantity)) {
+                    return true;
+                }
+            }
+        }
+        if (mask == 0) {
+            return false;
+        }
+
+        // No stripe holds it alone: gather it from several, and give it back if they fall short
+        int taken = 0;
+        for (int i = 0; i <= mask && taken < quantity; i++) {
+            int cell = cell(home + i);
+            int available;
+            while ((available = cells.get(cell)) > 0) {
+                int part = Math.min(available, quantity - taken);
+                if (cells.compareAndSet(cell, available, available - part)) {
+                    taken += part;
+                    break;
+                }
+            }
+        }
+        if (taken == quantity) {
+            return true;
+        }
+        if (taken > 0) {
+            cells.addAndGet(cell(home), taken);
+        }
+        return false;
+    }
+
+    public void put(int quantity) {
+        cells.addAndGet(cell(home()), quantity);
+    }
+
+    // Not atomic across stripes, exact only when no reservation is in flight
+    public int available() {
+        int sum = 0;
+        for (int i = 0; i <= mask; i++) {
+            sum += cells.get(i * PADDING);
+        }
+        return sum;
+    }
+
+    public int stripes() {
+        return mask + 1;
+    }
+
+    private int cell(int stripe) {
+        return (stripe & mask) * PADDING;
+    }
+
+    private int home() {
+        long id = Thread.currentThread().getId();
+        int hash = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+        return hash >>> 16;
+    }
+}
@@ -8,6 +8,8 @@ import java.util.List;
 public interface IOrderService {
     OrderDto placeOrder(Long userId);
     OrderDto placeOrder(Long userId, String couponCode);
+    OrderDraft draftOrder(Long userId, String couponCode);
+    List<OrderOutcome> placeOrders(List<OrderDraft> drafts);
     OrderDto getOrder(Long orderId);
     List<OrderDto> getUserOrders(Long userId);
     OrderDto cancelOrder(Long orderId);
@@ -0,0 +1,42 @@
+package com.seyman.dreamshops.service.order;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Snapshot of a cart taken when an order is submitted, so the order can be placed later
+ * without reading the cart again.
+ */
+@Getter
+@AllArgsConstructor
+public class OrderDraft {
+
+    private final Long userId;
+    private final String couponCode;
+    private final List<Line> lines;
+
+    @Getter
+    @AllArgsConstructor
+    public static class Line {
+        private final Long cartItemId;
+        private final Long productId;
+        private final String productName;
+        private final int quantity;
+        private final BigDecimal unitPrice;
+    }
+
+    public Map<Long, Integer> quantities() {
+        return lines.stream().collect(Collectors.toMap(Line::getProductId, Line::getQuantity, Integer::sum));
+    }
+
+    public BigDecimal totalAmount() {
+        return lines.stream()
+                .map(line -> line.getUnitPrice().multiply(BigDecimal.valueOf(line.getQuantity())))
+                .reduce(BigDecimal.ZERO, BigDecimal::add);
+    }
+}
@@ -0,0 +1,348 @@
+package com.seyman.dreamshops.service.order;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.seyman.dreamshops.dto.OrderIntakeDto;
+import com.seyman.dreamshops.dto.StockShortageDto;
+import com.seyman.dreamshops.enums.OrderStatus;
+import com.seyman.dreamshops.exceptions.InsufficientStockException;
+import com.seyman.dreamshops.exceptions.ResourceNotFoundException;
+import com.seyman.dreamshops.exceptions.ServiceBusyException;
+import com.seyman.dreamshops.service.cache.SharedStateStore;
+import com.seyman.dreamshops.service.inventory.FlashSaleStockLedger;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Accepts orders without placing them on the request thread. A submission snapshots and
+ * validates the cart, joins a bounded queue and gets a reference with status
+ * PENDING_PROCESSING. Workers drain the queue in micro-batches and place each batch with
+ * {@link IOrderService#placeOrders}, so the orders of a batch share one transaction and one
+ * connection. Clients poll the reference, or wait on it, for the result.
+ * <p>
+ * The queue lives in memory: a submission that was not processed before a restart is gone.
+ * Every status is also written to {@link SharedStateStore}, so any node can answer for a
+ * reference, while the node that took it answers from memory and completes waits right away.
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class OrderIntakeService {
+
+    private final IOrderService orderService;
+    private final FlashSaleStockLedger flashSaleStockLedger;
+    private final SharedStateStore sharedStateStore;
+    private final ObjectMapper objectMapper;
+    private final PlatformTransactionManager transactionManager;
+
+    @Value("${orders.intake.queue-capacity:500}")
+    private int queueCapacity;
+
+    @Value("${orders.intake.workers:2}")
+    private int workers;
+
+    @Value("${orders.intake.batch-size:20}")
+    private int batchSize;
+
+    // How long a processed result can still be polled
+    @Value("${orders.intake.result-ttl-ms:600000}")
+    private long resultTtlMs;
+
+    // Weight of the latest batch in the average time per order
+    private static final double SMOOTHING = 0.2;
+    private static final String SHARED_KEY_PREFIX = "orders:intake:";
+    private static final long POLL_MILLIS = 250;
+
+    private final Map<String, Ticket> tickets = new ConcurrentHashMap<>();
+    private BlockingQueue<Ticket> queue;
+    private ExecutorService workerPool;
+    // Polls the shared store for references taken by other nodes
+    private ScheduledExecutorService poller;
+    private TransactionTemplate transactionTemplate;
+    private volatile boolean running;
+    // Moving average of the nanoseconds a worker spends per placed order, as double bits
+    private final AtomicLong nanosPerOrder = new AtomicLong();
+
+    private static final class Ticket {
+        private final String reference = UUID.randomUUID().toString();
+        private final OrderDraft draft;
+        private final LocalDateTime submittedAt = LocalDateTime.now();
+        private final CompletableFuture<OrderIntakeDto> result = new CompletableFuture<>();
+        private volatile long completedAtMillis;
+
+        private Ticket(OrderDraft draft) {
+            this.draft = draft;
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        queue = new ArrayBlockingQueue<>(queueCapacity);
+        AtomicInteger threadCount = new AtomicInteger();
+        workerPool = Executors.newFixedThreadPool(workers, runnable -> {
+            Thread thread = new Thread(runnable, "order-intake-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        poller = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "order-intake-poll");
+            thread.setDaemon(true);
+            return thread;
+        });
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        running = true;
+        for (int i = 0; i < workers; i++) {
+            workerPool.execute(this::drain);
+        }
+    }
+
+    /**
+     * Validates the cart of the user and queues it to be placed as an order.
+     *
+     * @throws InsufficientStockException if a flash-sale line is already sold out
+     * @throws ServiceBusyException       if the queue is full
+     */
+    public OrderIntakeDto submit(Long userId, String couponCode) {
+        OrderDraft draft = orderService.draftOrder(userId, couponCode);
+        rejectSoldOut(draft);
+
+        Ticket ticket = new Ticket(draft);
+        tickets.put(ticket.reference, ticket);
+        if (!running || !queue.offer(ticket)) {
+            tickets.remove(ticket.reference);
+            throw new ServiceBusyException("Too many orders are being processed, please try again shortly", 1);
+        }
+        OrderIntakeDto intake = pending(ticket);
+        share(intake);
+        return intake;
+    }
+
+    /**
+     * @throws ResourceNotFoundException if the reference is unknown or its result has expired
+     */
+    public OrderIntakeDto getIntake(String reference) {
+        Ticket ticket = tickets.get(reference);
+        if (ticket != null) {
+            return ticket.result.isDone() ? ticket.result.join() : pending(ticket);
+        }
+        return shared(reference)
+                .orElseThrow(() -> new ResourceNotFoundException("Order reference not found: " + reference));
+    }
+
+    /**
+     * Completes with the result once the order is processed. A reference taken by another
+     * node is polled for in the shared store for at most the given wait.
+     */
+    public CompletableFuture<OrderIntakeDto> awaitIntake(String reference, Duration wait) {
+        Ticket ticket = tickets.get(reference);
+        if (ticket != null) {
+            return ticket.result;
+        }
+        CompletableFuture<OrderIntakeDto> result = new CompletableFuture<>();
+        pollShared(reference, result, System.nanoTime() + wait.toNanos());
+        return result;
+    }
+
+    /**
+     * @return orders per second the workers together have been placing, 0 before the first batch
+     */
+    public double measuredCapacity() {
+        double perOrder = Double.longBitsToDouble(nanosPerOrder.get());
+        return perOrder > 0 ? workers * (double) TimeUnit.SECONDS.toNanos(1) / perOrder : 0;
+    }
+
+    @Scheduled(fixedDelayString = "${orders.intake.cleanup-interval-ms:60000}")
+    public void evictExpiredResults() {
+        long expiredBefore = System.currentTimeMillis() - resultTtlMs;
+        tickets.values().removeIf(ticket -> ticket.result.isDone() && ticket.completedAtMillis < expiredBefore);
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        running = false;
+        poller.shutdownNow();
+        workerPool.shutdown();
+        if (!workerPool.awaitTermination(10, TimeUnit.SECONDS)) {
+            log.warn("Order intake stopped with {} orders still queued", queue.size());
+        }
+    }
+
+    // Saves a sold out flash sale a trip through the queue; the worker still reserves the stock
+    private void rejectSoldOut(OrderDraft draft) {
+        List<StockShortageDto> shortages = new ArrayList<>();
+        for (OrderDraft.Line line : draft.getLines()) {
+            Integer remaining = flashSaleStockLedger.remaining(line.getProductId());
+            if (remaining != null && remaining < line.getQuantity()) {
+                shortages.add(new StockShortageDto(line.getProductId(), line.getProductName(), line.getQuantity(), remaining));
+            }
+        }
+        if (!shortages.isEmpty()) {
+            throw new InsufficientStockException(shortages);
+        }
+    }
+
+    private void drain() {
+        while (running || !queue.isEmpty()) {
+            try {
+                Ticket first = queue.poll(500, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                List<Ticket> batch = new ArrayList<>(batchSize);
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                process(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                log.error("Order intake worker failed: {}", e.getMessage(), e);
+            }
+        }
+    }
+
+    private void process(List<Ticket> batch) {
+        AtomicReference<List<OrderOutcome>> placed = new AtomicReference<>();
+        AtomicBoolean committed = new AtomicBoolean();
+        long started = System.nanoTime();
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                    @Override
+                    public void afterCompletion(int completion) {
+                        committed.set(completion == STATUS_COMMITTED);
+                    }
+                });
+                placed.set(orderService.placeOrders(batch.stream().map(ticket -> ticket.draft).toList()));
+            });
+            recordBatch(batch.size(), System.nanoTime() - started);
+        } catch (RuntimeException e) {
+            if (committed.get()) {
+                // Only a step after the commit failed, the orders are placed
+                log.error("Placed a batch of {} orders, but a step after the commit failed: {}", batch.size(), e.getMessage(), e);
+            } else if (batch.size() == 1) {
+                log.warn("Failed to place order {}: {}", batch.get(0).reference, e.getMessage());
+                complete(batch.get(0), OrderOutcome.rejected("Order could not be placed: " + e.getMessage()));
+                return;
+            } else {
+                // Rolled back: retried one by one, so a single bad order does not fail the others
+                log.warn("Failed to place a batch of {} orders, placing them one by one: {}", batch.size(), e.getMessage());
+                batch.forEach(ticket -> process(List.of(ticket)));
+                return;
+            }
+        }
+        List<OrderOutcome> outcomes = placed.get();
+        for (int i = 0; i < batch.size(); i++) {
+            complete(batch.get(i), outcomes.get(i));
+        }
+        log.debug("Processed {} queued orders", batch.size());
+    }
+
+    private void recordBatch(int orders, long elapsedNanos) {
+        double sample = (double) elapsedNanos / orders;
+        nanosPerOrder.updateAndGet(bits -> {
+            double average = Double.longBitsToDouble(bits);
+            return Double.doubleToLongBits(average > 0 ? average + SMOOTHING * (sample - average) : sample);
+        });
+    }
+
+    private void complete(Ticket ticket, OrderOutcome outcome) {
+        OrderIntakeDto result = pending(ticket);
+        result.setCompletedAt(LocalDateTime.now());
+        if (outcome.isPlaced()) {
+            result.setStatus(outcome.getOrder().getStatus());
+            result.setOrderId(outcome.getOrder().getId());
+            result.setOrder(outcome.getOrder());
+        } else {
+            result.setStatus("FAILED");
+            result.setMessage(outcome.getMessage());
+            result.setShortages(outcome.getShortages());
+        }
+        ticket.completedAtMillis = System.currentTimeMillis();
+        share(result);
+        ticket.result.complete(result);
+    }
+
+    // Other nodes answer for the reference from the shared store; without one this node is the only one
+    private void share(OrderIntakeDto intake) {
+        if (!sharedStateStore.isShared()) {
+            return;
+        }
+        try {
+            sharedStateStore.set(SHARED_KEY_PREFIX + intake.getReference(), objectMapper.writeValueAsString(intake),
+                    Duration.ofMillis(resultTtlMs));
+        } catch (JsonProcessingException | RuntimeException e) {
+            log.warn("Failed to share the status of order {}, only this node knows it: {}", intake.getReference(), e.getMessage());
+        }
+    }
+
+    private Optional<OrderIntakeDto> shared(String reference) {
+        if (!sharedStateStore.isShared()) {
+            return Optional.empty();
+        }
+        Optional<String> json = sharedStateStore.get(SHARED_KEY_PREFIX + reference);
+        if (json.isEmpty()) {
+            return Optional.empty();
+        }
+        try {
+            return Optional.of(objectMapper.readValue(json.get(), OrderIntakeDto.class));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Stored order status is unreadable", e);
+        }
+    }
+
+    private void pollShared(String reference, CompletableFuture<OrderIntakeDto> result, long deadline) {
+        poller.schedule(() -> {
+            try {
+                Optional<OrderIntakeDto> intake = shared(reference);
+                if (intake.isPresent() && !OrderStatus.PENDING_PROCESSING.name().equals(intake.get().getStatus())) {
+                    result.complete(intake.get());
+                    return;
+                }
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+                return;
+            }
+            if (System.nanoTime() < deadline) {
+                pollShared(reference, result, deadline);
+            }
+        }, POLL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private static OrderIntakeDto pending(Ticket ticket) {
+        OrderIntakeDto intake = new OrderIntakeDto();
+        intake.setReference(ticket.reference);
+        intake.setStatus(OrderStatus.PENDING_PROCESSING.name());
+        intake.setSubmittedAt(ticket.submittedAt);
+        return intake;
+    }
+}
@@ -0,0 +1,38 @@
+package com.seyman.dreamshops.service.order;
+
+import com.seyman.dreamshops.dto.OrderDto;
+import com.seyman.dreamshops.dto.StockShortageDto;
+import com.seyman.dreamshops.exceptions.InsufficientStockException;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * Result of placing one {@link OrderDraft}: the order, or why it was not placed.
+ */
+@Getter
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+public class OrderOutcome {
+
+    private final OrderDto order;
+    private final String message;
+    private final List<StockShortageDto> shortages;
+
+    public static OrderOutcome placed(OrderDto order) {
+        return new OrderOutcome(order, null, null);
+    }
+
+    public static OrderOutcome rejected(String message) {
+        return new OrderOutcome(null, message, null);
+    }
+
+    public static OrderOutcome outOfStock(List<StockShortageDto> shortages) {
+        return new OrderOutcome(null, InsufficientStockException.message(shortages), shortages);
+    }
+
+    public boolean isPlaced() {
+        return order != null;
+    }
+}
@@ -2,16 +2,25 @@ package com.seyman.dreamshops.service.order;
 
 import com.seyman.dreamshops.dto.OrderDto;
 import com.seyman.dreamshops.dto.OrderItemDto;
+import com.seyman.dreamshops.dto.StockShortageDto;
 import com.seyman.dreamshops.enums.OrderStatus;
+import com.seyman.dreamshops.exceptions.InsufficientStockException;
 import com.seyman.dreamshops.exceptions.ResourceNotFoundException;
 import com.seyman.dreamshops.model.Cart;
+import com.seyman.dreamshops.model.CartItem;
+import com.seyman.dreamshops.model.Coupon;
 import com.seyman.dreamshops.model.Order;
 import com.seyman.dreamshops.model.OrderItem;
 import com.seyman.dreamshops.model.Product;
+import com.seyman.dreamshops.repository.CartItemRepository;
 import com.seyman.dreamshops.repository.OrderRepository;
 import com.seyman.dreamshops.repository.ProductRepository;
+import com.seyman.dreamshops.repository.UserRepository;
 import com.seyman.dreamshops.service.cart.ICartService;
 import com.seyman.dreamshops.service.coupon.ICouponService;
+import com.seyman.dreamshops.service.inventory.FlashSaleReservation;
+import com.seyman.dreamshops.service.inventory.FlashSaleStockLedger;
+import com.seyman.dreamshops.service.inventory.InventoryReservationService;
 import lombok.RequiredArgsConstructor;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
@@ -20,8 +29,17 @@ import org.springframework.transaction.annotation.Transactional;
 import java.math.BigDecimal;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 @Service
@@ -30,8 +48,12 @@ public class OrderService implements IOrderService {
 
     private final OrderRepository orderRepository;
     private final ProductRepository productRepository;
+    private final CartItemRepository cartItemRepository;
+    private final UserRepository userRepository;
     private final ICartService cartService;
     private final ICouponService couponService;
+    private final InventoryReservationService inventoryReservationService;
+    private final FlashSaleStockLedger flashSaleStockLedger;
 
     @Value("${api.prefix:/api/v1}")
     private String apiPrefix;
@@ -51,80 +73,201 @@ public class OrderService implements IOrderService {
     @Override
     @Transactional
     public OrderDto placeOrder(Long userId, String couponCode) {
+        OrderOutcome outcome = placeOrders(List.of(draftOrder(userId, couponCode))).get(0);
+        if (outcome.getShortages() != null) {
+            throw new InsufficientStockException(outcome.getShortages());
+        }
+        if (!outcome.isPlaced()) {
+            throw new IllegalStateException(outcome.getMessage());
+        }
+        return outcome.getOrder();
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public OrderDraft draftOrder(Long userId, String couponCode) {
         Cart cart = cartService.getCartByUserId(userId);
-        
         if (cart == null || cart.getItems().isEmpty()) {
             throw new IllegalStateException("Cart is empty or not found");
         }
-        
-        Order order = createOrder(cart, couponCode);
-        order = orderRepository.save(order);
-        
-        // Clear the cart after successful order creation
-        cartService.clearCart(cart.getId());
-        
-        return convertToDto(order);
+        List<OrderDraft.Line> lines = cart.getItems().stream()
+                .map(cartItem -> new OrderDraft.Line(cartItem.getId(), cartItem.getProduct().getId(),
+                        cartItem.getProduct().getName(), cartItem.getQuantity(), cartItem.getUnitPrice()))
+                .toList();
+        OrderDraft draft = new OrderDraft(userId, hasText(couponCode) ? couponCode.trim() : null, lines);
+        if (draft.getCouponCode() != null && !couponService.validateCoupon(draft.getCouponCode(), draft.totalAmount())) {
+            throw new IllegalArgumentException("Invalid coupon code: " + couponCode);
+        }
+        return draft;
     }
 
-    private Order createOrder(Cart cart, String couponCode) {
+    /**
+     * Places the drafts in one transaction: one query for their cart items and one for their
+     * products, one coupon lookup per code, one batch for the inventory of all of them and one
+     * delete for their cart items. A draft
+     * that cannot be placed is left out and does not affect the others.
+     */
+    @Override
+    @Transactional
+    public List<OrderOutcome> placeOrders(List<OrderDraft> drafts) {
+        OrderOutcome[] outcomes = new OrderOutcome[drafts.size()];
+        // A cart is ordered once: a draft whose items were ordered or removed since is refused.
+        // The items stay locked until commit, so a concurrent batch sees them gone.
+        Set<Long> cartItemIds = cartItemRepository.findAllByIdForUpdate(drafts.stream()
+                        .flatMap(draft -> draft.getLines().stream())
+                        .map(OrderDraft.Line::getCartItemId)
+                        .toList())
+                .stream()
+                .map(CartItem::getId)
+                .collect(Collectors.toSet());
+        for (int i = 0; i < drafts.size(); i++) {
+            List<Long> lineItemIds = drafts.get(i).getLines().stream().map(OrderDraft.Line::getCartItemId).toList();
+            if (!cartItemIds.containsAll(lineItemIds)) {
+                outcomes[i] = OrderOutcome.rejected("Cart has changed or was already ordered");
+            } else {
+                lineItemIds.forEach(cartItemIds::remove);
+            }
+        }
+
+        Map<String, Optional<Coupon>> coupons = new HashMap<>();
+        BigDecimal[] discounts = new BigDecimal[drafts.size()];
+        for (int i = 0; i < drafts.size(); i++) {
+            OrderDraft draft = drafts.get(i);
+            discounts[i] = BigDecimal.ZERO;
+            if (outcomes[i] != null || draft.getCouponCode() == null) {
+                continue;
+            }
+            Coupon coupon = coupons.computeIfAbsent(draft.getCouponCode(), this::findCoupon).orElse(null);
+            BigDecimal totalAmount = draft.totalAmount();
+            // Usage counts up per order, so a limit holds within the batch as well
+            if (coupon == null || !coupon.isValid() || totalAmount.compareTo(coupon.getMinOrderAmount()) < 0) {
+                outcomes[i] = OrderOutcome.rejected("Error applying coupon: Invalid coupon code: " + draft.getCouponCode());
+                continue;
+            }
+            discounts[i] = coupon.calculateDiscount(totalAmount).min(totalAmount);
+            coupon.setUsedCount(coupon.getUsedCount() + 1);
+        }
+
+        // Sold out flash-sale lines fail in memory before any row is locked; a rollback gives the stock back
+        List<List<FlashSaleReservation>> flashSaleReservations = new ArrayList<>(Collections.nCopies(drafts.size(), List.of()));
+        for (int i = 0; i < drafts.size(); i++) {
+            if (outcomes[i] == null) {
+                try {
+                    flashSaleReservations.set(i, flashSaleStockLedger.reserve(drafts.get(i).quantities()));
+                } catch (InsufficientStockException e) {
+                    outcomes[i] = outOfStock(drafts.get(i), coupons, e.getShortages());
+                }
+            }
+        }
+
+        // The inventory of all remaining drafts is reserved in one batch of conditional updates
+        List<Integer> reserving = new ArrayList<>();
+        for (int i = 0; i < drafts.size(); i++) {
+            if (outcomes[i] == null) {
+                reserving.add(i);
+            }
+        }
+        List<List<StockShortageDto>> shortages = inventoryReservationService.reserveAll(reserving.stream()
+                .map(i -> drafts.get(i).quantities())
+                .toList());
+        for (int r = 0; r < reserving.size(); r++) {
+            if (!shortages.get(r).isEmpty()) {
+                int i = reserving.get(r);
+                flashSaleStockLedger.release(flashSaleReservations.get(i));
+                outcomes[i] = outOfStock(drafts.get(i), coupons, shortages.get(r));
+            }
+        }
+
+        List<Integer> placing = new ArrayList<>();
+        for (int i = 0; i < drafts.size(); i++) {
+            if (outcomes[i] == null) {
+                placing.add(i);
+            }
+        }
+        if (!placing.isEmpty()) {
+            Map<Long, Product> products = productRepository.findByIdsWithImagesAndCategory(placing.stream()
+                            .flatMap(i -> drafts.get(i).getLines().stream())
+                            .map(OrderDraft.Line::getProductId)
+                            .distinct()
+                            .toList())
+                    .stream()
+                    .collect(Collectors.toMap(Product::getId, Function.identity()));
+            List<Order> orders = placing.stream()
+                    .map(i -> createOrder(drafts.get(i), discounts[i], products, flashSaleReservations.get(i)))
+                    .toList();
+            orders = orderRepository.saveAll(orders);
+            cartItemRepository.deleteAllByIdInBatch(placing.stream()
+                    .flatMap(i -> drafts.get(i).getLines().stream())
+                    .map(OrderDraft.Line::getCartItemId)
+                    .toList());
+            for (int p = 0; p < placing.size(); p++) {
+                outcomes[placing.get(p)] = OrderOutcome.placed(convertToDto(orders.get(p)));
+            }
+        }
+        return Arrays.asList(outcomes);
+    }
+
+    private Optional<Coupon> findCoupon(String code) {
+        try {
+            return Optional.of(couponService.getCouponByCode(code));
+        } catch (ResourceNotFoundException e) {
+            return Optional.empty();
+        }
+    }
+
+    // The draft keeps no stock; it gives back the coupon use it was counted for
+    private static OrderOutcome outOfStock(OrderDraft draft, Map<String, Optional<Coupon>> coupons, List<StockShortageDto> shortages) {
+        if (draft.getCouponCode() != null) {
+            coupons.get(draft.getCouponCode()).ifPresent(coupon -> coupon.setUsedCount(coupon.getUsedCount() - 1));
+        }
+        return OrderOutcome.outOfStock(shortages);
+    }
+
+    private Order createOrder(OrderDraft draft, BigDecimal discountAmount, Map<Long, Product> products,
+                              List<FlashSaleReservation> flashSaleReservations) {
         Order order = new Order();
-        order.setUser(cart.getUser());
+        order.setUser(userRepository.getReferenceById(draft.getUserId()));
         order.setOrderStatus(OrderStatus.PENDING);
         order.setOrderDate(LocalDateTime.now());
-        
-        // Create order items from cart items
-        List<OrderItem> orderItems = createOrderItems(order, cart);
+
+        List<OrderItem> orderItems = draft.getLines().stream()
+                .map(line -> new OrderItem(order, products.get(line.getProductId()), line.getQuantity(), line.getUnitPrice()))
+                .toList();
+        // A cancellation gives the quantity back to the allotment it was taken from
+        flashSaleReservations.forEach(reservation -> orderItems.stream()
+                .filter(orderItem -> orderItem.getProduct().getId().equals(reservation.productId()))
+                .forEach(orderItem -> orderItem.setFlashSaleAllotment(reservation.allotment())));
         order.setOrderItems(new HashSet<>(orderItems));
-        
-        // Calculate amounts
-        BigDecimal totalAmount = calculateTotalAmount(orderItems);
-        BigDecimal originalAmount = totalAmount;
-        BigDecimal discountAmount = BigDecimal.ZERO;
-        
-        // Apply coupon if provided
-        if (couponCode != null && !couponCode.trim().isEmpty()) {
-            try {
-                // Validate coupon first
-                boolean isValid = couponService.validateCoupon(couponCode, totalAmount);
-                if (!isValid) {
-                    throw new RuntimeException("Invalid coupon code: " + couponCode);
-                }
-                
-                // Apply coupon discount
-                discountAmount = couponService.applyCoupon(couponCode, totalAmount);
-                totalAmount = totalAmount.subtract(discountAmount);
-                
-                // Ensure total doesn't go negative
-                if (totalAmount.compareTo(BigDecimal.ZERO) < 0) {
-                    totalAmount = BigDecimal.ZERO;
-                }
-                
-                // Store coupon code in order
-                order.setCouponCode(couponCode);
-                
-                // Mark coupon as used (increment usage count)
-                couponService.useCoupon(couponCode);
-                
-            } catch (Exception e) {
-                throw new RuntimeException("Error applying coupon: " + e.getMessage());
-            }
-        }
-        
+
+        BigDecimal originalAmount = calculateTotalAmount(orderItems);
         order.setOriginalAmount(originalAmount);
         order.setDiscountAmount(discountAmount);
-        order.setTotalAmount(totalAmount);
-        
+        order.setTotalAmount(originalAmount.subtract(discountAmount).max(BigDecimal.ZERO));
+        order.setCouponCode(draft.getCouponCode());
         return order;
     }
 
-    private List<OrderItem> createOrderItems(Order order, Cart cart) {
-        return cart.getItems().stream().map(cartItem -> {
-            Product product = cartItem.getProduct();
-            product.setInventory(product.getInventory() - cartItem.getQuantity());
-            productRepository.save(product);
+    private static boolean hasText(String value) {
+        return value != null && !value.trim().isEmpty();
+    }
+
+    // Cancels the order once even under concurrent requests, then puts its quantities back
+    private void cancelAndRelease(Order order, Collection<OrderStatus> expected) {
+        if (orderRepository.updateStatusIfIn(order.getOrderId(), expected, OrderStatus.CANCELLED) == 0) {
+            throw new IllegalStateException("Order status has changed, it can no longer be cancelled");
+        }
+        order.setOrderStatus(OrderStatus.CANCELLED);
+        inventoryReservationService.release(quantitiesOf(order));
+        flashSaleStockLedger.release(order.getOrderItems().stream()
+                .filter(orderItem -> orderItem.getFlashSaleAllotment() != null)
+                .map(orderItem -> new FlashSaleReservation(orderItem.getProduct().getId(),
+                        orderItem.getFlashSaleAllotment(), orderItem.getQuantity()))
+                .toList());
+    }
 
-            return new OrderItem(order, product, cartItem.getQuantity(), cartItem.getUnitPrice());
-        }).toList();
+    private static Map<Long, Integer> quantitiesOf(Order order) {
+        return order.getOrderItems().stream()
+                .collect(Collectors.toMap(orderItem -> orderItem.getProduct().getId(), OrderItem::getQuantity, Integer::sum));
     }
 
     private BigDecimal calculateTotalAmount(List<OrderItem> orderItemList) {
@@ -174,15 +317,8 @@ public class OrderService implements IOrderService {
             throw new IllegalStateException("Order cannot be cancelled. Current status: " + order.getOrderStatus());
         }
         
-        // Set order status to CANCELLED
-        order.setOrderStatus(OrderStatus.CANCELLED);
-        
-        // Restore product inventory
-        for (OrderItem orderItem : order.getOrderItems()) {
-            Product product = orderItem.getProduct();
-            product.setInventory(product.getInventory() + orderItem.getQuantity());
-            productRepository.save(product);
-        }
+        // Set order status to CANCELLED and restore product inventory
+        cancelAndRelease(order, List.of(OrderStatus.PENDING, OrderStatus.CONFIRMED));
         
         Order savedOrder = orderRepository.save(order);
         return this.convertToDto(savedOrder);
@@ -227,14 +363,10 @@ public class OrderService implements IOrderService {
             throw new IllegalStateException("Only pending orders can be approved");
         }
         
-        // Check stock availability before approving
-        for (OrderItem orderItem : order.getOrderItems()) {
-            Product product = orderItem.getProduct();
-            if (product.getInventory() < 0) {
-                throw new IllegalStateException("Insufficient stock for product: " + product.getName());
-            }
+        // Stock was reserved when the order was placed; the conditional update loses to a concurrent cancel
+        if (orderRepository.updateStatusIfIn(orderId, List.of(OrderStatus.PENDING), OrderStatus.CONFIRMED) == 0) {
+            throw new IllegalStateException("Only pending orders can be approved");
         }
-        
         order.setOrderStatus(OrderStatus.CONFIRMED);
         Order savedOrder = orderRepository.save(order);
         return this.convertToDto(savedOrder);
@@ -253,13 +385,8 @@ public class OrderService implements IOrderService {
         }
         
         // Restore product inventory
-        for (OrderItem orderItem : order.getOrderItems()) {
-            Product product = orderItem.getProduct();
-            product.setInventory(product.getInventory() + orderItem.getQuantity());
-            productRepository.save(product);
-        }
+        cancelAndRelease(order, List.of(OrderStatus.PENDING));
         
-        order.setOrderStatus(OrderStatus.CANCELLED);
         Order savedOrder = orderRepository.save(order);
         return this.convertToDto(savedOrder);
     }
@@ -6,6 +6,8 @@ import com.seyman.dreamshops.requests.AddProductRequest;
 import com.seyman.dreamshops.requests.ProductUpdateRequest;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
 
 import java.util.List;
 
@@ -27,6 +29,11 @@ public interface IProductService {
 
     Long countProductsByBrandAndName(String brand, String name);
 
+    Long countProducts();
+
+    // Incremented on every catalog change, usable as a validator for cached responses
+    long getCatalogVersion();
+
     List<ProductDto> getConvertedProducts(List<Product> products);
 
     ProductDto convertToDto(Product product);
@@ -43,4 +50,11 @@ public interface IProductService {
     Page<Product> getProductsByCategory(String category, Pageable pageable);
     Page<Product> getProductsByNameContaining(String search, Pageable pageable);
     Page<Product> getProductsByCategoryAndNameContaining(String category, String search, Pageable pageable);
+    Page<Product> getProductsByIds(List<Long> pageIds, Pageable pageable, long total);
+
+    // Keyset (cursor) paginated methods, the cursor comes from ProductCursor.encode() for the same order
+    Slice<Product> getAllProducts(String cursor, Sort.Order order, int size);
+    Slice<Product> getProductsByCategory(String category, String cursor, Sort.Order order, int size);
+    Slice<Product> getProductsByNameContaining(String search, String cursor, Sort.Order order, int size);
+    Slice<Product> getProductsByCategoryAndNameContaining(String category, String search, String cursor, Sort.Order order, int size);
 }
@@ -0,0 +1,274 @@
+package com.seyman.dreamshops.service.product;
+
+import com.seyman.dreamshops.model.Product;
+import com.seyman.dreamshops.service.cache.CacheService;
+import com.seyman.dreamshops.service.cache.RedisChannelListener;
+import com.seyman.dreamshops.service.search.IProductIndex;
+import com.seyman.dreamshops.service.search.ProductSearchIndex;
+import com.seyman.dreamshops.service.search.ProductSortIndex;
+import lombok.RequiredArgsConstructor;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.stereotype.Service;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Evicts exactly the cached product queries a product write affects. Query keys are recorded
+ * under the scopes they were built from ("catalog", "category:<name>", "search:<term>"),
+ * and paged keys also under "<scope>#sort:<field>". On a write the previous and the new
+ * state of the product are compared: a changed membership evicts the scopes it enters or
+ * leaves, a changed sort value only the pages of its scopes sorted by that field. Price or
+ * sale changes alone leave the id lists valid, the product entry itself is evicted by
+ * {@link ProductEntityCache}.
+ * <p>
+ * The search terms with cached results are kept here rather than read back from the cache's
+ * dependency registry on every write. A term is added when its scope is built for a query, and
+ * announced on a Redis channel the first time, so the writes of other nodes match it too.
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class ProductCacheInvalidator implements IProductIndex, RedisChannelListener {
+
+    public static final String CATALOG = "catalog";
+    private static final String CATEGORY_PREFIX = "category:";
+    private static final String SEARCH_PREFIX = "search:";
+    private static final String SORT_SEPARATOR = "#sort:";
+    // Outlives the cached results of a term, each query with it extends it again
+    private static final Duration SEARCH_TERM_TTL = Duration.ofHours(1);
+
+    private final CacheService cacheService;
+
+    @Autowired(required = false)
+    private RedisTemplate<String, String> redisTemplate;
+
+    @Value("${spring.data.redis.repositories.enabled:false}")
+    private boolean redisEnabled;
+
+    @Value("${cache.search-terms-channel:cache:search-terms}")
+    private String searchTermsChannel;
+
+    // Last known state of every product, to tell what a write changed
+    private final Map<Long, Document> documents = new ConcurrentHashMap<>();
+    // Search terms that may have cached results, with the time they expire
+    private final Map<String, Long> searchTerms = new ConcurrentHashMap<>();
+    private volatile boolean ready = false;
+
+    @PostConstruct
+    void init() {
+        if (!redisEnabled) {
+            redisTemplate = null;
+        }
+    }
+
+    public static String category(String category) {
+        return CATEGORY_PREFIX + ProductSearchIndex.normalize(category);
+    }
+
+    /**
+     * Scope of the cached results of a search; the term is tracked until they have expired.
+     */
+    public String search(String term) {
+        String normalized = ProductSearchIndex.normalize(term);
+        long now = System.currentTimeMillis();
+        Long expiresAt = searchTerms.get(normalized);
+        // Announced again once half its time is gone, so other nodes never let it lapse first
+        if (expiresAt == null || expiresAt - now < SEARCH_TERM_TTL.toMillis() / 2) {
+            searchTerms.put(normalized, now + SEARCH_TERM_TTL.toMillis());
+            publish(normalized);
+        }
+        return SEARCH_PREFIX + normalized;
+    }
+
+    public static String sorted(String scope, ProductSortIndex.SortField field) {
+        return scope + SORT_SEPARATOR + field.name().toLowerCase(Locale.ROOT);
+    }
+
+    @Override
+    public void rebuild(List<Product> products) {
+        documents.clear();
+        products.forEach(product -> documents.put(product.getId(), new Document(product)));
+        loadSearchTerms();
+        ready = true;
+    }
+
+    @Override
+    public void index(Product product) {
+        if (product == null || product.getId() == null) {
+            return;
+        }
+        Document current = new Document(product);
+        Document previous = documents.put(product.getId(), current);
+        if (previous == null && !ready) {
+            invalidateAll();
+            return;
+        }
+
+        Set<String> dependencies = new LinkedHashSet<>();
+        List<String> terms = searchTerms();
+        if (previous == null) {
+            // A new product joins the lists of its scopes, and shifts their pages
+            dependencies.addAll(current.scopes(terms));
+        } else {
+            if (!Objects.equals(previous.category, current.category)) {
+                dependencies.addAll(previous.categoryScope());
+                dependencies.addAll(current.categoryScope());
+            }
+            if (!previous.text.equals(current.text)) {
+                dependencies.addAll(previous.searchScopes(terms));
+                dependencies.addAll(current.searchScopes(terms));
+            }
+            Set<String> scopes = new LinkedHashSet<>(previous.scopes(terms));
+            scopes.addAll(current.scopes(terms));
+            for (ProductSortIndex.SortField field : ProductSortIndex.SortField.values()) {
+                Function<Document, Object> value = Document.sortValue(field);
+                if (!Objects.equals(value.apply(previous), value.apply(current))) {
+                    scopes.forEach(scope -> dependencies.add(sorted(scope, field)));
+                }
+            }
+        }
+        invalidate(product.getId(), dependencies);
+    }
+
+    @Override
+    public void remove(Long productId) {
+        Document previous = documents.remove(productId);
+        if (previous == null) {
+            if (!ready) {
+                // Its scopes are unknown, every recorded query may have contained it
+                invalidateAll();
+            }
+            // Otherwise it was never indexed here, so no query this node cached holds it
+            return;
+        }
+        invalidate(productId, new LinkedHashSet<>(previous.scopes(searchTerms())));
+    }
+
+    // The writing node evicted the queries, only the known states have to follow
+    @Override
+    public void applyRemote(List<Product> products, Collection<Long> removedIds) {
+        products.forEach(product -> documents.put(product.getId(), new Document(product)));
+        removedIds.forEach(documents::remove);
+    }
+
+    @Override
+    public String channel() {
+        return searchTermsChannel;
+    }
+
+    // A term another node cached results for
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String term = new String(message.getBody(), StandardCharsets.UTF_8);
+        searchTerms.merge(term, System.currentTimeMillis() + SEARCH_TERM_TTL.toMillis(), Math::max);
+    }
+
+    @Override
+    public void onResubscribed() {
+        loadSearchTerms();
+    }
+
+    private void publish(String term) {
+        if (redisTemplate == null) {
+            return;
+        }
+        try {
+            redisTemplate.convertAndSend(searchTermsChannel, term);
+        } catch (Exception e) {
+            log.warn("Failed to announce search term, writes on other nodes may miss its cached results: {}", e.getMessage());
+        }
+    }
+
+    // Catches up with the terms other nodes cached while this one was not listening
+    private void loadSearchTerms() {
+        long expiresAt = System.currentTimeMillis() + SEARCH_TERM_TTL.toMillis();
+        for (String dependency : cacheService.dependencies(SEARCH_PREFIX)) {
+            if (!dependency.contains(SORT_SEPARATOR)) {
+                searchTerms.merge(dependency.substring(SEARCH_PREFIX.length()), expiresAt, Math::max);
+            }
+        }
+    }
+
+    private void invalidate(Long productId, Set<String> dependencies) {
+        if (dependencies.isEmpty()) {
+            return;
+        }
+        int evicted = cacheService.invalidateDependencies(dependencies);
+        log.debug("Product {} changed, evicted {} cached queries of {}", productId, evicted, dependencies);
+    }
+
+    private void invalidateAll() {
+        cacheService.invalidateDependencies(cacheService.dependencies(""));
+    }
+
+    // Search terms that may currently have cached results
+    private List<String> searchTerms() {
+        long now = System.currentTimeMillis();
+        searchTerms.values().removeIf(expiresAt -> expiresAt <= now);
+        return new ArrayList<>(searchTerms.keySet());
+    }
+
+    private static class Document {
+        private final String category;
+        private final String text;
+        private final String name;
+        private final BigDecimal price;
+        private final BigDecimal effectivePrice;
+        private final Integer inventory;
+
+        Document(Product product) {
+            this.category = product.getCategory() != null ? ProductSearchIndex.normalize(product.getCategory().getName()) : null;
+            this.text = ProductSearchIndex.searchableText(product);
+            this.name = ProductSearchIndex.normalize(product.getName());
+            this.price = product.getPrice();
+            this.effectivePrice = product.getEffectivePrice();
+            this.inventory = product.getInventory();
+        }
+
+        static Function<Document, Object> sortValue(ProductSortIndex.SortField field) {
+            return switch (field) {
+                case NAME -> doc -> doc.name;
+                case PRICE -> doc -> doc.price;
+                case EFFECTIVE_PRICE -> doc -> doc.effectivePrice;
+                case INVENTORY -> doc -> doc.inventory;
+                case ID -> doc -> null;
+            };
+        }
+
+        List<String> categoryScope() {
+            return category != null ? List.of(CATEGORY_PREFIX + category) : List.of();
+        }
+
+        List<String> searchScopes(List<String> terms) {
+            return terms.stream()
+                    .filter(term -> ProductSearchIndex.matches(text, term))
+                    .map(term -> SEARCH_PREFIX + term)
+                    .toList();
+        }
+
+        List<String> scopes(List<String> terms) {
+            List<String> scopes = new ArrayList<>();
+            scopes.add(CATALOG);
+            scopes.addAll(categoryScope());
+            scopes.addAll(searchScopes(terms));
+            return scopes;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.seyman.dreamshops.service.product;
+
+import com.seyman.dreamshops.model.Product;
+import com.seyman.dreamshops.service.search.ProductSortIndex;
+import com.seyman.dreamshops.service.search.ProductSortIndex.SortField;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.springframework.data.domain.Sort;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Opaque keyset pagination cursor: the order it was issued for, and the sort key and id of the
+ * last product of the previous page. It is only valid for a request in the same order.
+ */
+@Getter
+@AllArgsConstructor
+public class ProductCursor {
+
+    private static final String SEPARATOR = "\n";
+
+    // Sort field and direction, e.g. "PRICE,desc"
+    private final String sort;
+    private final String sortKey;
+    private final Long id;
+
+    public static ProductCursor after(Product product, Sort.Order order) {
+        return new ProductCursor(sortOf(order), SortField.of(order.getProperty()).keyOf(product), product.getId());
+    }
+
+    public String encode() {
+        String raw = sort + SEPARATOR + sortKey + SEPARATOR + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Returns null for a missing or empty cursor, which means "first page".
+     *
+     * @throws IllegalArgumentException if the cursor is malformed or was issued for another order
+     */
+    public static ProductCursor decode(String cursor, Sort.Order order) {
+        if (cursor == null || cursor.isBlank()) {
+            return null;
+        }
+        ProductCursor decoded;
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int first = raw.indexOf(SEPARATOR);
+            int last = raw.lastIndexOf(SEPARATOR);
+            if (first < 0 || first == last) {
+                throw new IllegalArgumentException();
+            }
+            decoded = new ProductCursor(raw.substring(0, first), raw.substring(first + 1, last),
+                    Long.valueOf(raw.substring(last + 1)));
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor);
+        }
+        String expected = sortOf(order);
+        if (!expected.equals(decoded.sort)) {
+            throw new IllegalArgumentException("Cursor was issued for sort " + decoded.sort + ", not " + expected);
+        }
+        return decoded;
+    }
+
+    private static String sortOf(Sort.Order order) {
+        return SortField.of(order.getProperty()) + "," + (ProductSortIndex.isDescending(order) ? "desc" : "asc");
+    }
+}
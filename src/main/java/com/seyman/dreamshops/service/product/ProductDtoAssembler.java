@@ -0,0 +1,124 @@
+package com.seyman.dreamshops.service.product;
+
+import com.seyman.dreamshops.dto.ImageDto;
+import com.seyman.dreamshops.dto.ProductDto;
+import com.seyman.dreamshops.model.Image;
+import com.seyman.dreamshops.model.Product;
+import com.seyman.dreamshops.repository.ImageRepository;
+import com.seyman.dreamshops.service.catalog.CatalogSnapshot;
+import com.seyman.dreamshops.service.catalog.ProductCatalog;
+import com.seyman.dreamshops.service.inventory.FlashSaleStockLedger;
+import lombok.RequiredArgsConstructor;
+import org.hibernate.collection.spi.PersistentCollection;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Builds ProductDtos for a whole list at once. Image metadata comes from the catalog
+ * snapshot or from images already fetched with the product (JOIN FETCH), the images of
+ * all remaining products are loaded with a single IN query instead of one query per product.
+ */
+@Component
+@RequiredArgsConstructor
+public class ProductDtoAssembler {
+
+    private final ImageRepository imageRepository;
+    private final ProductCatalog productCatalog;
+    private final FlashSaleStockLedger flashSaleStockLedger;
+
+    public ProductDto toDto(Product product) {
+        return toDtos(List.of(product)).get(0);
+    }
+
+    public List<ProductDto> toDtos(List<Product> products) {
+        if (products.isEmpty()) {
+            return List.of();
+        }
+
+        CatalogSnapshot catalog = productCatalog.snapshot();
+        Map<Long, List<ImageDto>> imagesByProduct = new HashMap<>();
+        Set<Long> missingImages = new LinkedHashSet<>();
+        for (Product product : products) {
+            List<CatalogSnapshot.ImageInfo> cached = catalog != null ? catalog.getImages(product.getId()) : null;
+            if (cached != null) {
+                imagesByProduct.put(product.getId(), cached.stream()
+                        .map(image -> imageDto(image.getId(), image.getFileName(), image.getDownloadUrl()))
+                        .toList());
+            } else if (!hasLoadedImages(product)) {
+                missingImages.add(product.getId());
+            }
+        }
+
+        if (!missingImages.isEmpty()) {
+            for (Object[] row : imageRepository.findImageInfoByProductIds(missingImages)) {
+                imagesByProduct.computeIfAbsent((Long) row[0], id -> new ArrayList<>())
+                        .add(imageDto((Long) row[1], (String) row[2], (String) row[3]));
+            }
+        }
+
+        List<ProductDto> productDtos = new ArrayList<>(products.size());
+        for (Product product : products) {
+            List<ImageDto> imageDtos = imagesByProduct.containsKey(product.getId()) || missingImages.contains(product.getId())
+                    ? imagesByProduct.getOrDefault(product.getId(), List.of())
+                    : product.getImages().stream().map(ProductDtoAssembler::imageDto).toList();
+            productDtos.add(productDto(product, imageDtos));
+        }
+        return productDtos;
+    }
+
+    // Products deserialized from the cache carry a plain list that may be outdated, so only
+    // an initialized Hibernate collection is trusted
+    private static boolean hasLoadedImages(Product product) {
+        return product.getImages() instanceof PersistentCollection<?> images && images.wasInitialized();
+    }
+
+    private ProductDto productDto(Product product, List<ImageDto> imageDtos) {
+        // Manual mapping instead of ModelMapper to avoid collection conversion issues
+        ProductDto productDto = new ProductDto();
+        productDto.setId(product.getId());
+        productDto.setName(product.getName());
+        productDto.setBrand(product.getBrand());
+        productDto.setPrice(product.getPrice());
+        productDto.setInventory(product.getInventory());
+        productDto.setDescription(product.getDescription());
+        productDto.setCategory(product.getCategory());
+
+        // Discount fields
+        productDto.setDiscountPrice(product.getDiscountPrice());
+        productDto.setDiscountPercentage(product.getDiscountPercentage());
+        productDto.setIsOnSale(product.getIsOnSale());
+        productDto.setIsFlashSale(product.getIsFlashSale());
+        productDto.setSaleStartDate(product.getSaleStartDate());
+        productDto.setSaleEndDate(product.getSaleEndDate());
+        // The ledger is ahead of the stored column by up to one flush
+        Integer liveFlashSaleStock = flashSaleStockLedger.remaining(product.getId());
+        productDto.setFlashSaleStock(liveFlashSaleStock != null ? liveFlashSaleStock : product.getFlashSaleStock());
+
+        productDto.setImages(imageDtos);
+
+        // Set calculated fields for discounts
+        productDto.setEffectivePrice(product.getEffectivePrice());
+        productDto.setSavings(product.getSavings());
+        productDto.setCurrentlyOnSale(product.isCurrentlyOnSale());
+
+        return productDto;
+    }
+
+    private static ImageDto imageDto(Image image) {
+        return imageDto(image.getId(), image.getFileName(), image.getDownloadUrl());
+    }
+
+    private static ImageDto imageDto(Long id, String fileName, String downloadUrl) {
+        ImageDto imageDto = new ImageDto();
+        imageDto.setId(id);
+        imageDto.setFileName(fileName);
+        imageDto.setDownloadUrl(downloadUrl);
+        return imageDto;
+    }
+}
@@ -0,0 +1,100 @@
+package com.seyman.dreamshops.service.product;
+
+import com.seyman.dreamshops.model.Product;
+import com.seyman.dreamshops.repository.ProductRepository;
+import com.seyman.dreamshops.service.cache.CacheService;
+import com.seyman.dreamshops.service.search.IProductIndex;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Caches every product once, by id ("product:<id>", with images and category). Query caches
+ * only hold id lists and assemble their products here with one MGET, so a product write
+ * evicts a single entry instead of every list and page it appears in.
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class ProductEntityCache implements IProductIndex {
+
+    // Own namespace, so clearing the "products" query caches keeps the entities
+    private static final String KEY_PREFIX = "product:";
+    private static final Duration TTL = Duration.ofMinutes(30);
+
+    private final CacheService cacheService;
+    private final ProductRepository productRepository;
+
+    /**
+     * Returns the products in the order of the ids. Cached products come from a single
+     * multi-get, the missing ones from a single query, after which they are cached in one
+     * pipeline in the background.
+     */
+    public List<Product> getProducts(List<Long> ids) {
+        if (ids.isEmpty()) {
+            return List.of();
+        }
+        Map<Long, Product> productsById = new LinkedHashMap<>();
+        cacheService.getAll(ids.stream().map(ProductEntityCache::key).distinct().toList(), Product.class)
+                .values()
+                .forEach(product -> productsById.put(product.getId(), product));
+
+        List<Long> missing = ids.stream().filter(id -> !productsById.containsKey(id)).distinct().toList();
+        if (!missing.isEmpty()) {
+            List<Product> loaded = productRepository.findByIdsWithImagesAndCategory(missing);
+            putAll(loaded);
+            loaded.forEach(product -> productsById.put(product.getId(), product));
+            log.debug("Loaded {} of {} products from the database", missing.size(), ids.size());
+        }
+        return ids.stream()
+                .map(productsById::get)
+                .filter(Objects::nonNull)
+                .toList();
+    }
+
+    // Written behind, the caller already has the products
+    public void putAll(Collection<Product> products) {
+        cacheService.putAllAsync(products.stream()
+                .collect(Collectors.toMap(product -> key(product.getId()), Function.identity(), (first, second) -> second)), TTL);
+    }
+
+    public void evict(Long productId) {
+        cacheService.delete(key(productId));
+    }
+
+    // Entries are filled on demand and outlive restarts, there is nothing to build
+    @Override
+    public void rebuild(List<Product> products) {
+    }
+
+    // The saved entity may not have its images loaded, the next read caches it again
+    @Override
+    public void index(Product product) {
+        if (product != null && product.getId() != null) {
+            evict(product.getId());
+        }
+    }
+
+    @Override
+    public void remove(Long productId) {
+        evict(productId);
+    }
+
+    // The entries are in the shared cache, the writing node evicted them
+    @Override
+    public void applyRemote(List<Product> products, Collection<Long> removedIds) {
+    }
+
+    private static String key(Long productId) {
+        return KEY_PREFIX + productId;
+    }
+}
@@ -0,0 +1,82 @@
+package com.seyman.dreamshops.service.product;
+
+import com.seyman.dreamshops.dto.ProductDto;
+import com.seyman.dreamshops.model.Product;
+import com.seyman.dreamshops.repository.ProductRepository;
+import com.seyman.dreamshops.service.catalog.CatalogSnapshot;
+import com.seyman.dreamshops.service.catalog.ProductCatalog;
+import jakarta.persistence.EntityManager;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Walks the whole catalog in fixed size chunks, each turned into DTOs and handed to the
+ * consumer, so memory use does not grow with the catalog size. The catalog snapshot is
+ * walked when it is built, which holds no database connection however slowly the client
+ * reads. Before that a database cursor is read, one image query per chunk, and each chunk
+ * is detached from the persistence context.
+ */
+@Service
+@RequiredArgsConstructor
+public class ProductExportService {
+
+    static final int CHUNK_SIZE = ProductRepository.STREAM_FETCH_SIZE;
+
+    private final ProductRepository productRepository;
+    private final ProductDtoAssembler productDtoAssembler;
+    private final ProductCatalog productCatalog;
+    private final EntityManager entityManager;
+    private final PlatformTransactionManager transactionManager;
+
+    @FunctionalInterface
+    public interface ProductDtoWriter {
+        void write(ProductDto productDto) throws IOException;
+    }
+
+    public void forEachProduct(ProductDtoWriter writer) {
+        try {
+            CatalogSnapshot snapshot = productCatalog.snapshot();
+            if (snapshot != null) {
+                // Already in name order, the images come from the snapshot too
+                writeChunks(snapshot.getAllProducts().iterator(), writer, false);
+                return;
+            }
+            TransactionTemplate readTransaction = new TransactionTemplate(transactionManager);
+            readTransaction.setReadOnly(true);
+            readTransaction.executeWithoutResult(status -> {
+                try (Stream<Product> products = productRepository.streamAllWithCategory()) {
+                    writeChunks(products.iterator(), writer, true);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void writeChunks(Iterator<Product> iterator, ProductDtoWriter writer, boolean detach) throws IOException {
+        List<Product> chunk = new ArrayList<>(CHUNK_SIZE);
+        while (iterator.hasNext()) {
+            chunk.add(iterator.next());
+            if (chunk.size() == CHUNK_SIZE || !iterator.hasNext()) {
+                for (ProductDto productDto : productDtoAssembler.toDtos(chunk)) {
+                    writer.write(productDto);
+                }
+                chunk.clear();
+                if (detach) {
+                    entityManager.clear();
+                }
+            }
+        }
+    }
+}
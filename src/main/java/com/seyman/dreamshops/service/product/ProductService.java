@@ -1,48 +1,63 @@
 package com.seyman.dreamshops.service.product;
 
-import com.seyman.dreamshops.dto.ImageDto;
 import com.seyman.dreamshops.dto.ProductDto;
 import com.seyman.dreamshops.exceptions.AlreadyExistsException;
 import com.seyman.dreamshops.exceptions.ProductNotFoundException;
+import com.seyman.dreamshops.exceptions.ServiceBusyException;
 import com.seyman.dreamshops.model.Category;
-import com.seyman.dreamshops.model.Image;
 import com.seyman.dreamshops.model.Product;
 import com.seyman.dreamshops.repository.CategoryRepository;
-import com.seyman.dreamshops.repository.ImageRepository;
 import com.seyman.dreamshops.repository.ProductRepository;
 import com.seyman.dreamshops.repository.CartItemRepository;
 import com.seyman.dreamshops.repository.OrderItemRepository;
 import com.seyman.dreamshops.requests.AddProductRequest;
 import com.seyman.dreamshops.requests.ProductUpdateRequest;
 import com.seyman.dreamshops.service.cache.CacheService;
+import com.seyman.dreamshops.service.catalog.CatalogSnapshot;
+import com.seyman.dreamshops.service.catalog.ProductCatalog;
+import com.seyman.dreamshops.service.search.ProductCountRegistry;
+import com.seyman.dreamshops.service.search.ProductSearchIndex;
+import com.seyman.dreamshops.service.search.ProductSortIndex;
 import com.fasterxml.jackson.core.type.TypeReference;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.modelmapper.ModelMapper;
-import org.springframework.cache.annotation.Cacheable;
-import org.springframework.cache.annotation.CacheEvict;
-import org.springframework.cache.annotation.CachePut;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Optional;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
 
 @Service
 @RequiredArgsConstructor
 @Slf4j
 public class ProductService implements IProductService {
 
+    private static final TypeReference<List<Long>> ID_LIST = new TypeReference<List<Long>>() {};
+
     private final ProductRepository productRepository;
     private final CategoryRepository categoryRepository;
-    private final ImageRepository imageRepository;
     private final CartItemRepository cartItemRepository;
     private final OrderItemRepository orderItemRepository;
-    private final ModelMapper modelMapper;
     private final CacheService cacheService;
+    private final ProductSearchIndex productSearchIndex;
+    private final ProductSortIndex productSortIndex;
+    private final ProductCountRegistry productCountRegistry;
+    private final ProductDtoAssembler productDtoAssembler;
+    private final ProductCatalog productCatalog;
+    private final ProductEntityCache productEntityCache;
+    private final ProductCacheInvalidator productCacheInvalidator;
 
     @Override
     public Product addProduct(AddProductRequest request) {
@@ -84,11 +99,9 @@ public class ProductService implements IProductService {
         }
         
         request.setCategory(category);
+        // Affected cached queries are evicted by ProductCacheInvalidator after commit
         Product newProduct = productRepository.save(createProduct(request, category));
-        
-        // Clear caches when new product is added
-        clearProductCaches();
-        log.info("New product added and caches cleared: {}", newProduct.getName());
+        log.info("New product added: {}", newProduct.getName());
         
         return newProduct;
     }
@@ -132,9 +145,6 @@ public class ProductService implements IProductService {
         productRepository.findById(id).ifPresentOrElse(productRepository::delete, () -> {
             throw new ProductNotFoundException("Product not found!");
         });
-        
-        // Clear custom cache as well
-        clearProductCaches();
     }
 
     @Override
@@ -182,206 +192,165 @@ public class ProductService implements IProductService {
     @Override
     // @Cacheable(value = "productCache", key = "'all-products'") // Disabled: Using String-only Redis to avoid JSON conflicts
     public List<Product> getAllProducts() {
-        // Use fallback to CacheService if Spring Cache is not available
-        String cacheKey = "products:all:optimized";
-        
-        // Try to get from cache first (with proper TypeReference for List<Product>)
-        try {
-            Optional<List<Product>> cachedValue = cacheService.get(cacheKey, new TypeReference<List<Product>>(){});
-            if (cachedValue.isPresent()) {
-                List<Product> cachedProducts = cachedValue.get();
-                log.info("Cache HIT for getAllProducts (optimized)");
-                return cachedProducts;
-            }
-        } catch (Exception e) {
-            log.warn("Cache get failed, falling back to database: {}", e.getMessage());
+        // Served from the in-memory catalog snapshot once it is built
+        CatalogSnapshot catalog = productCatalog.snapshot();
+        if (catalog != null) {
+            return catalog.getAllProducts();
         }
-        
-        // Cache miss - get from database with JOIN FETCH optimization
-        log.info("Cache MISS for getAllProducts (optimized) - fetching from database");
-        List<Product> products = productRepository.findAllWithImagesAndCategory();
-        
-        // Cache the result for 30 minutes
-        cacheService.put(cacheKey, products, Duration.ofMinutes(30));
-        
-        return products;
+
+        // Concurrent misses share one database load
+        return getOrLoadProducts("products:all:ids", Duration.ofMinutes(30), List.of(ProductCacheInvalidator.CATALOG), () -> {
+            log.info("Cache MISS for getAllProducts (optimized) - fetching from database");
+            return productRepository.findAllWithImagesAndCategory();
+        });
     }
 
     @Override
     // @Cacheable(value = "categoryCache", key = "#category") // Disabled: Using String-only Redis to avoid JSON conflicts
     public List<Product> getProductsByCategory(String category) {
-        // Use fallback to CacheService if Spring Cache is not available
-        String cacheKey = "products:category:optimized:" + category;
-        
-        // Try cache first (with proper TypeReference for List<Product>)
-        try {
-            Optional<List<Product>> cachedValue = cacheService.get(cacheKey, new TypeReference<List<Product>>(){});
-            if (cachedValue.isPresent()) {
-                List<Product> cachedProducts = cachedValue.get();
-                log.info("Cache HIT for getProductsByCategory (optimized): {}", category);
-                return cachedProducts;
-            }
-        } catch (Exception e) {
-            log.warn("Cache get failed for category {}, falling back to database: {}", category, e.getMessage());
+        CatalogSnapshot catalog = productCatalog.snapshot();
+        if (catalog != null) {
+            return catalog.getProductsByCategory(category);
         }
-        
-        // Cache miss - get from database with JOIN FETCH optimization
-        log.info("Cache MISS for getProductsByCategory (optimized): {} - fetching from database", category);
-        List<Product> products = productRepository.findByCategoryNameWithImagesAndCategory(category);
-        
-        // Cache for 30 minutes
-        cacheService.put(cacheKey, products, Duration.ofMinutes(30));
-        
-        return products;
+
+        return getOrLoadProducts("products:category:ids:" + category, Duration.ofMinutes(30),
+                List.of(ProductCacheInvalidator.category(category)), () -> {
+            log.info("Cache MISS for getProductsByCategory (optimized): {} - fetching from database", category);
+            return productRepository.findByCategoryNameWithImagesAndCategory(category);
+        });
     }
 
     @Override
     public List<Product> getProductsByBrand(String brand) {
+        CatalogSnapshot catalog = productCatalog.snapshot();
+        if (catalog != null) {
+            return catalog.getProductsByBrand(brand);
+        }
         return productRepository.findByBrand(brand);
     }
 
     @Override
     public List<Product> getProductsByCategoryAndBrand(String category, String brand) {
+        CatalogSnapshot catalog = productCatalog.snapshot();
+        if (catalog != null) {
+            return catalog.getProductsByCategory(category).stream()
+                    .filter(product -> Objects.equals(product.getBrand(), brand))
+                    .toList();
+        }
         return productRepository.findByCategoryNameAndBrand(category, brand);
     }
 
     @Override
     public List<Product> getProductsByName(String name) {
+        CatalogSnapshot catalog = productCatalog.snapshot();
+        if (catalog != null) {
+            return catalog.getProductsByName(name);
+        }
         return productRepository.findByName(name);
     }
 
     @Override
     // @Cacheable(value = "productCache", key = "'search-' + #name") // Temporarily disabled
     public List<Product> getProductsByNameContaining(String name) {
-        // Use fallback to CacheService if Spring Cache is not available
-        String cacheKey = "products:search:optimized:" + name.toLowerCase();
-        
-        // Try cache first (with proper TypeReference for List<Product>)
-        try {
-            Optional<List<Product>> cachedValue = cacheService.get(cacheKey, new TypeReference<List<Product>>(){});
-            if (cachedValue.isPresent()) {
-                List<Product> cachedProducts = cachedValue.get();
-                log.info("Cache HIT for search (optimized): {}", name);
-                return cachedProducts;
-            }
-        } catch (Exception e) {
-            log.warn("Cache get failed for search {}, falling back to database: {}", name, e.getMessage());
+        CatalogSnapshot catalog = productCatalog.snapshot();
+        if (catalog != null && productSearchIndex.isReady()) {
+            return catalog.getProducts(productSearchIndex.search(name));
         }
-        
-        // Cache miss - get from database with JOIN FETCH optimization
-        log.info("Cache MISS for search (optimized): {} - fetching from database", name);
-        List<Product> products = productRepository.findByNameContainingWithImagesAndCategory(name);
-        
-        // Cache search results for 15 minutes
-        cacheService.put(cacheKey, products, Duration.ofMinutes(15));
-        
-        return products;
+
+        // Resolve ids from the search index, fall back to LIKE query until it is built
+        return getOrLoadProducts("products:search:ids:" + name.toLowerCase(), Duration.ofMinutes(15),
+                List.of(productCacheInvalidator.search(name)), () -> {
+            log.info("Cache MISS for search (optimized): {} - fetching from database", name);
+            return productSearchIndex.isReady()
+                    ? findByIdsInOrder(productSearchIndex.search(name))
+                    : productRepository.findByNameContainingWithImagesAndCategory(name);
+        });
     }
 
     @Override
     // @Cacheable(value = "productCache", key = "'category-search-' + #category + '-' + #search") // Temporarily disabled
     public List<Product> getProductsByCategoryAndNameContaining(String category, String search) {
-        // Use fallback to CacheService if Spring Cache is not available
-        String cacheKey = "products:category_search:optimized:" + category.toLowerCase() + ":" + search.toLowerCase();
-        
-        // Try cache first (with proper TypeReference for List<Product>)
-        try {
-            Optional<List<Product>> cachedValue = cacheService.get(cacheKey, new TypeReference<List<Product>>(){});
-            if (cachedValue.isPresent()) {
-                List<Product> cachedProducts = cachedValue.get();
-                log.info("Cache HIT for category search (optimized): {} - {}", category, search);
-                return cachedProducts;
-            }
-        } catch (Exception e) {
-            log.warn("Cache get failed for category search {}-{}, falling back to database: {}", category, search, e.getMessage());
+        CatalogSnapshot catalog = productCatalog.snapshot();
+        if (catalog != null && productSearchIndex.isReady()) {
+            return catalog.getProducts(productSearchIndex.search(search, category));
         }
-        
-        // Cache miss - get from database with JOIN FETCH optimization
-        log.info("Cache MISS for category search (optimized): {} - {} - fetching from database", category, search);
-        List<Product> products = productRepository.findByCategoryNameAndNameContainingWithImagesAndCategory(category, search);
-        
-        // Cache search results for 15 minutes
-        cacheService.put(cacheKey, products, Duration.ofMinutes(15));
-        
-        return products;
+
+        String cacheKey = "products:category_search:ids:" + category.toLowerCase() + ":" + search.toLowerCase();
+        return getOrLoadProducts(cacheKey, Duration.ofMinutes(15),
+                List.of(ProductCacheInvalidator.category(category), productCacheInvalidator.search(search)), () -> {
+            log.info("Cache MISS for category search (optimized): {} - {} - fetching from database", category, search);
+            return productSearchIndex.isReady()
+                    ? findByIdsInOrder(productSearchIndex.search(search, category))
+                    : productRepository.findByCategoryNameAndNameContainingWithImagesAndCategory(category, search);
+        });
     }
 
     @Override
     public List<Product> getProductsByBrandAndName(String brand, String name) {
+        CatalogSnapshot catalog = productCatalog.snapshot();
+        if (catalog != null) {
+            return catalog.getProductsByName(name).stream()
+                    .filter(product -> Objects.equals(product.getBrand(), brand))
+                    .toList();
+        }
         return productRepository.findByBrandAndName(brand, name);
     }
 
     @Override
     public Long countProductsByBrandAndName(String brand, String name) {
+        if (productCatalog.isReady()) {
+            return (long) getProductsByBrandAndName(brand, name).size();
+        }
         return productRepository.countByBrandAndName(brand, name);
     }
 
     @Override
-    public List<ProductDto> getConvertedProducts(List<Product> products) {
-        return products.stream().map(this::convertToDto).toList();
+    public long getCatalogVersion() {
+        return productCatalog.version();
     }
-    @Override
-    public ProductDto convertToDto(Product product) {
-        // Manual mapping instead of ModelMapper to avoid collection conversion issues
-        ProductDto productDto = new ProductDto();
-        productDto.setId(product.getId());
-        productDto.setName(product.getName());
-        productDto.setBrand(product.getBrand());
-        productDto.setPrice(product.getPrice());
-        productDto.setInventory(product.getInventory());
-        productDto.setDescription(product.getDescription());
-        productDto.setCategory(product.getCategory());
-        
-        // Discount fields
-        productDto.setDiscountPrice(product.getDiscountPrice());
-        productDto.setDiscountPercentage(product.getDiscountPercentage());
-        productDto.setIsOnSale(product.getIsOnSale());
-        productDto.setIsFlashSale(product.getIsFlashSale());
-        productDto.setSaleStartDate(product.getSaleStartDate());
-        productDto.setSaleEndDate(product.getSaleEndDate());
-        productDto.setFlashSaleStock(product.getFlashSaleStock());
-        
-        // Get images and convert them - manuel mapping to avoid ModelMapper issues
-        List<Image> images = imageRepository.findByProductId(product.getId());
-        List<ImageDto> imageDtos = images.stream()
-                .map(this::convertImageToDto)
-                .toList();
-        productDto.setImages(imageDtos);
 
-        // Set calculated fields for discounts
-        productDto.setEffectivePrice(product.getEffectivePrice());
-        productDto.setSavings(product.getSavings());
-        productDto.setCurrentlyOnSale(product.isCurrentlyOnSale());
+    @Override
+    public Long countProducts() {
+        return productCountRegistry.isReady() ? productCountRegistry.total() : productRepository.count();
+    }
 
-        return productDto;
+    @Override
+    public List<ProductDto> getConvertedProducts(List<Product> products) {
+        return productDtoAssembler.toDtos(products);
     }
 
-    private ImageDto convertImageToDto(Image image) {
-        if (image == null) {
-            return null;
-        }
-        
-        ImageDto imageDto = new ImageDto();
-        imageDto.setId(image.getId());
-        imageDto.setFileName(image.getFileName());
-        imageDto.setDownloadUrl(image.getDownloadUrl());
-        
-        return imageDto;
+    @Override
+    public ProductDto convertToDto(Product product) {
+        return productDtoAssembler.toDto(product);
     }
 
     // Sale-related methods implementation
     @Override
     public List<Product> getProductsOnSale() {
+        CatalogSnapshot catalog = productCatalog.snapshot();
+        if (catalog != null) {
+            return catalog.getProductsOnSale();
+        }
         return productRepository.findByIsOnSaleTrueOrderBySaleStartDateDesc();
     }
 
     @Override
     public List<Product> getFlashSaleProducts() {
+        CatalogSnapshot catalog = productCatalog.snapshot();
+        if (catalog != null) {
+            return catalog.getFlashSaleProducts();
+        }
         return productRepository.findByIsFlashSaleTrueOrderBySaleStartDateDesc();
     }
 
     @Override
     public List<Product> getProductsOnSaleByCategory(String category) {
+        CatalogSnapshot catalog = productCatalog.snapshot();
+        if (catalog != null) {
+            return catalog.getProductsOnSale().stream()
+                    .filter(product -> product.getCategory() != null && product.getCategory().getName().equalsIgnoreCase(category))
+                    .toList();
+        }
         return productRepository.findByIsOnSaleTrueAndCategoryNameOrderBySaleStartDateDesc(category);
     }
 
@@ -396,6 +365,8 @@ public class ProductService implements IProductService {
         product.setSaleEndDate(saleRequest.getSaleEndDate());
         product.setIsFlashSale(saleRequest.getIsFlashSale());
         product.setFlashSaleStock(saleRequest.getFlashSaleStock());
+        // A new allotment replaces whatever was left of the previous one on every node
+        product.setFlashSaleAllotment(product.getFlashSaleAllotment() != null ? product.getFlashSaleAllotment() + 1 : 1);
         
         productRepository.save(product);
     }
@@ -419,174 +390,205 @@ public class ProductService implements IProductService {
     @Override
     public Page<Product> getAllProducts(Pageable pageable) {
         // Simplified cache key for consistency
-        String cacheKey = "products:paginated:fast:" + pageable.getPageNumber() + ":" + pageable.getPageSize();
-        
-        // Try cache first - cache the product list only, not the Page object
-        try {
-            TypeReference<List<Product>> typeReference = new TypeReference<List<Product>>() {};
-            Optional<List<Product>> cachedValue = cacheService.get(cacheKey, typeReference);
-            if (cachedValue.isPresent()) {
-                List<Product> cachedProducts = cachedValue.get();
-                log.info("Cache HIT for getAllProducts paginated (fast) - page: {}", pageable.getPageNumber());
-                
-                // Get total count from database (this is fast)
-                long totalElements = productRepository.count();
-                
-                // Create Page manually from cached list
-                return new org.springframework.data.domain.PageImpl<>(cachedProducts, pageable, totalElements);
-            }
-        } catch (Exception e) {
-            log.warn("Cache get failed for paginated products, falling back to database: {}", e.getMessage());
+        String cacheKey = "products:paginated:ids:" + pageable.getPageNumber() + ":" + pageable.getPageSize() + ":" + sortCacheSuffix(pageable);
+
+        // Any supported order is served from the in-memory sort index
+        if (productSortIndex.isReady()) {
+            return getSortedPageFromIndex(null, null, pageable);
         }
         
-        // Cache miss - FAST 2-step database approach
-        log.info("Cache MISS for getAllProducts paginated (fast) - page: {} - fetching from database", pageable.getPageNumber());
-        
-        // Step 1: Get only IDs with pagination (super fast, no JOIN)
-        Page<Long> productIds = productRepository.findAllProductIds(pageable);
-        
-        // Step 2: Get full objects with JOIN FETCH for these specific IDs (fast, single query)
-        List<Product> products = productRepository.findByIdsWithImagesAndCategory(productIds.getContent());
-        
-        // Create Page from results
-        Page<Product> result = new org.springframework.data.domain.PageImpl<>(products, pageable, productIds.getTotalElements());
-        
-        // Cache only the content list for 10 minutes
-        cacheService.put(cacheKey, result.getContent(), Duration.ofMinutes(10));
-        
-        return result;
+        // Total comes from the in-memory count registry when it is built
+        return getOrLoadPage(cacheKey, pageable, List.of(ProductCacheInvalidator.CATALOG), productRepository::findAllProductIds,
+                () -> productCountRegistry.isReady() ? productCountRegistry.total() : productRepository.count());
     }
 
     @Override
     public Page<Product> getProductsByCategory(String category, Pageable pageable) {
         // Simplified cache key for category results
-        String cacheKey = "products:category_paginated:fast:" + category.toLowerCase() + ":" + pageable.getPageNumber() + ":" + pageable.getPageSize();
-        
-        // Try cache first - cache the product list only
-        try {
-            TypeReference<List<Product>> typeReference = new TypeReference<List<Product>>() {};
-            Optional<List<Product>> cachedValue = cacheService.get(cacheKey, typeReference);
-            if (cachedValue.isPresent()) {
-                List<Product> cachedProducts = cachedValue.get();
-                log.info("Cache HIT for getProductsByCategory paginated (fast) - category: {}, page: {}", category, pageable.getPageNumber());
-                
-                // Get total count for this category (fast query)
-                long totalElements = productRepository.countByCategoryName(category);
-                
-                // Create Page manually from cached list
-                return new org.springframework.data.domain.PageImpl<>(cachedProducts, pageable, totalElements);
-            }
-        } catch (Exception e) {
-            log.warn("Cache get failed for paginated category products {}, falling back to database: {}", category, e.getMessage());
+        String cacheKey = "products:category_paginated:ids:" + category.toLowerCase() + ":" + pageable.getPageNumber() + ":" + pageable.getPageSize() + ":" + sortCacheSuffix(pageable);
+
+        if (productSortIndex.isReady()) {
+            return getSortedPageFromIndex(category, null, pageable);
         }
         
-        // Cache miss - FAST 2-step database approach
-        log.info("Cache MISS for getProductsByCategory paginated (fast) - category: {}, page: {} - fetching from database", category, pageable.getPageNumber());
-        
-        // Step 1: Get only IDs with pagination (super fast, no JOIN)
-        Page<Long> productIds = productRepository.findProductIdsByCategory(category, pageable);
-        
-        // Step 2: Get full objects with JOIN FETCH for these specific IDs (fast, single query)
-        List<Product> products = productRepository.findByIdsWithImagesAndCategory(productIds.getContent());
-        
-        // Create Page from results
-        Page<Product> result = new org.springframework.data.domain.PageImpl<>(products, pageable, productIds.getTotalElements());
-        
-        // Cache only the content list for 10 minutes
-        cacheService.put(cacheKey, result.getContent(), Duration.ofMinutes(10));
-        
-        return result;
+        return getOrLoadPage(cacheKey, pageable, List.of(ProductCacheInvalidator.category(category)),
+                page -> productRepository.findProductIdsByCategory(category, page),
+                () -> productCountRegistry.isReady()
+                        ? productCountRegistry.countByCategory(category)
+                        : productRepository.countByCategoryName(category));
     }
 
     @Override
     public Page<Product> getProductsByNameContaining(String search, Pageable pageable) {
         // Simplified cache key for search results
-        String cacheKey = "products:search_paginated:fast:" + search.toLowerCase() + ":" + pageable.getPageNumber() + ":" + pageable.getPageSize();
-        
-        // Try cache first - cache the product list only
-        try {
-            TypeReference<List<Product>> typeReference = new TypeReference<List<Product>>() {};
-            Optional<List<Product>> cachedValue = cacheService.get(cacheKey, typeReference);
-            if (cachedValue.isPresent()) {
-                List<Product> cachedProducts = cachedValue.get();
-                log.info("Cache HIT for getProductsByNameContaining paginated (fast) - search: {}, page: {}", search, pageable.getPageNumber());
-                
-                // Use efficient count query instead of loading all results
-                long totalElements = productRepository.findByNameContaining(search).size();
-                
-                // Create Page manually from cached list
-                return new org.springframework.data.domain.PageImpl<>(cachedProducts, pageable, totalElements);
-            }
-        } catch (Exception e) {
-            log.warn("Cache get failed for paginated search products {}, falling back to database: {}", search, e.getMessage());
+        String cacheKey = "products:search_paginated:ids:" + search.toLowerCase() + ":" + pageable.getPageNumber() + ":" + pageable.getPageSize() + ":" + sortCacheSuffix(pageable);
+
+        // Matching ids come from the in-memory search index, only the page itself is loaded from the database
+        if (productSearchIndex.isReady() && productSortIndex.isReady()) {
+            return getSortedPageFromIndex(null, productSearchIndex.search(search), pageable);
         }
         
-        // Cache miss - FAST 2-step database approach
-        log.info("Cache MISS for getProductsByNameContaining paginated (fast) - search: {}, page: {} - fetching from database", search, pageable.getPageNumber());
-        
-        // Step 1: Get only IDs with pagination (super fast, no JOIN)
-        Page<Long> productIds = productRepository.findProductIdsByNameContaining(search, pageable);
-        
-        // Step 2: Get full objects with JOIN FETCH for these specific IDs (fast, single query)
-        List<Product> products = productRepository.findByIdsWithImagesAndCategory(productIds.getContent());
-        
-        // Create Page from results
-        Page<Product> result = new org.springframework.data.domain.PageImpl<>(products, pageable, productIds.getTotalElements());
-        
-        // Cache only the content list for 10 minutes
-        cacheService.put(cacheKey, result.getContent(), Duration.ofMinutes(10));
-        
-        return result;
+        return getOrLoadPage(cacheKey, pageable, List.of(productCacheInvalidator.search(search)),
+                page -> productRepository.findProductIdsByNameContaining(search, page),
+                () -> productRepository.countByNameContaining(search));
     }
 
     @Override
     public Page<Product> getProductsByCategoryAndNameContaining(String category, String search, Pageable pageable) {
         // Simplified cache key for category+search results
-        String cacheKey = "products:category_search_paginated:fast:" + category.toLowerCase() + ":" + search.toLowerCase() + ":" + pageable.getPageNumber() + ":" + pageable.getPageSize();
-        
-        // Try cache first - cache the product list only
-        try {
-            TypeReference<List<Product>> typeReference = new TypeReference<List<Product>>() {};
-            Optional<List<Product>> cachedValue = cacheService.get(cacheKey, typeReference);
-            if (cachedValue.isPresent()) {
-                List<Product> cachedProducts = cachedValue.get();
-                log.info("Cache HIT for getProductsByCategoryAndNameContaining paginated (fast) - category: {}, search: {}, page: {}", category, search, pageable.getPageNumber());
-                
-                // For category+search, count matching products (this is fast)
-                long totalElements = productRepository.findByCategoryNameAndNameContaining(category, search).size();
-                
-                // Create Page manually from cached list
-                return new org.springframework.data.domain.PageImpl<>(cachedProducts, pageable, totalElements);
-            }
-        } catch (Exception e) {
-            log.warn("Cache get failed for paginated category+search products {}-{}, falling back to database: {}", category, search, e.getMessage());
+        String cacheKey = "products:category_search_paginated:ids:" + category.toLowerCase() + ":" + search.toLowerCase() + ":" + pageable.getPageNumber() + ":" + pageable.getPageSize() + ":" + sortCacheSuffix(pageable);
+
+        if (productSearchIndex.isReady() && productSortIndex.isReady()) {
+            return getSortedPageFromIndex(null, productSearchIndex.search(search, category), pageable);
         }
         
-        // Cache miss - FAST 2-step database approach
-        log.info("Cache MISS for getProductsByCategoryAndNameContaining paginated (fast) - category: {}, search: {}, page: {} - fetching from database", category, search, pageable.getPageNumber());
-        
-        // Step 1: Get only IDs with pagination (super fast, no JOIN)
-        Page<Long> productIds = productRepository.findProductIdsByCategoryAndNameContaining(category, search, pageable);
-        
-        // Step 2: Get full objects with JOIN FETCH for these specific IDs (fast, single query)
-        List<Product> products = productRepository.findByIdsWithImagesAndCategory(productIds.getContent());
-        
-        // Create Page from results
-        Page<Product> result = new org.springframework.data.domain.PageImpl<>(products, pageable, productIds.getTotalElements());
-        
-        // Cache only the content list for 10 minutes
-        cacheService.put(cacheKey, result.getContent(), Duration.ofMinutes(10));
-        
-        return result;
+        return getOrLoadPage(cacheKey, pageable,
+                List.of(ProductCacheInvalidator.category(category), productCacheInvalidator.search(search)),
+                page -> productRepository.findProductIdsByCategoryAndNameContaining(category, search, page),
+                () -> productRepository.countByCategoryNameAndNameContaining(category, search));
+    }
+
+    @Override
+    public Page<Product> getProductsByIds(List<Long> pageIds, Pageable pageable, long total) {
+        return new org.springframework.data.domain.PageImpl<>(findByIdsInOrder(pageIds), pageable, total);
+    }
+
+    // Keyset paginated methods: one extra id is fetched to know whether a next page exists.
+    // Any supported order is served from the sort index; the database seeks by name only.
+    @Override
+    public Slice<Product> getAllProducts(String cursor, Sort.Order order, int size) {
+        ProductCursor after = ProductCursor.decode(cursor, order);
+        if (productSortIndex.isReady()) {
+            return toSlice(productSortIndex.pageAfter(order, null, null, sortKeyOf(after), idOrNull(after), size + 1), size);
+        }
+        List<Long> ids = productRepository.findProductIdsAfter(
+                after == null, sortKeyOf(after), idOf(after), keysetLimit(order, size));
+        return toSlice(ids, size);
+    }
+
+    @Override
+    public Slice<Product> getProductsByCategory(String category, String cursor, Sort.Order order, int size) {
+        ProductCursor after = ProductCursor.decode(cursor, order);
+        if (productSortIndex.isReady()) {
+            return toSlice(productSortIndex.pageAfter(order, category, null, sortKeyOf(after), idOrNull(after), size + 1), size);
+        }
+        List<Long> ids = productRepository.findProductIdsByCategoryAfter(
+                category, after == null, sortKeyOf(after), idOf(after), keysetLimit(order, size));
+        return toSlice(ids, size);
     }
 
-    private void clearProductCaches() {
-        try {
-            // Clear all product-related caches
-            cacheService.deleteByPattern("products:*");
-            log.info("Product caches cleared successfully");
-        } catch (Exception e) {
-            log.warn("Failed to clear product caches: {}", e.getMessage());
+    @Override
+    public Slice<Product> getProductsByNameContaining(String search, String cursor, Sort.Order order, int size) {
+        ProductCursor after = ProductCursor.decode(cursor, order);
+        if (productSearchIndex.isReady() && productSortIndex.isReady()) {
+            return toSlice(productSortIndex.pageAfter(order, null, productSearchIndex.matchingIds(search, null),
+                    sortKeyOf(after), idOrNull(after), size + 1), size);
+        }
+        List<Long> ids = productRepository.findProductIdsByNameContainingAfter(
+                search, after == null, sortKeyOf(after), idOf(after), keysetLimit(order, size));
+        return toSlice(ids, size);
+    }
+
+    @Override
+    public Slice<Product> getProductsByCategoryAndNameContaining(String category, String search, String cursor,
+                                                                 Sort.Order order, int size) {
+        ProductCursor after = ProductCursor.decode(cursor, order);
+        if (productSearchIndex.isReady() && productSortIndex.isReady()) {
+            return toSlice(productSortIndex.pageAfter(order, null, productSearchIndex.matchingIds(search, category),
+                    sortKeyOf(after), idOrNull(after), size + 1), size);
+        }
+        List<Long> ids = productRepository.findProductIdsByCategoryAndNameContainingAfter(
+                category, search, after == null, sortKeyOf(after), idOf(after), keysetLimit(order, size));
+        return toSlice(ids, size);
+    }
+
+    // The seek queries order by name ascending, other orders wait for the sort index
+    private static Pageable keysetLimit(Sort.Order order, int size) {
+        if (ProductSortIndex.SortField.of(order.getProperty()) != ProductSortIndex.SortField.NAME
+                || ProductSortIndex.isDescending(order)) {
+            throw new ServiceBusyException("Cursor pages in this order are available once the product index is built", 1);
+        }
+        return PageRequest.of(0, size + 1);
+    }
+
+    private Slice<Product> toSlice(List<Long> ids, int size) {
+        boolean hasNext = ids.size() > size;
+        List<Product> products = findByIdsInOrder(hasNext ? ids.subList(0, size) : ids);
+        return new SliceImpl<>(products, PageRequest.of(0, size), hasNext);
+    }
+
+    private static String sortKeyOf(ProductCursor cursor) {
+        return cursor != null ? cursor.getSortKey() : "";
+    }
+
+    private static Long idOf(ProductCursor cursor) {
+        return cursor != null ? cursor.getId() : 0L;
+    }
+
+    private static Long idOrNull(ProductCursor cursor) {
+        return cursor != null ? cursor.getId() : null;
+    }
+
+    private Page<Product> getSortedPageFromIndex(String category, List<Long> candidates, Pageable pageable) {
+        ProductSortIndex.SortedPage page = productSortIndex.page(sortOrderOf(pageable), category, candidates,
+                pageable.getOffset(), pageable.getPageSize());
+        return new org.springframework.data.domain.PageImpl<>(findByIdsInOrder(page.getProductIds()), pageable, page.getTotal());
+    }
+
+    // Query keys cache only the ids, the products themselves come from the entity cache.
+    // The scopes tell ProductCacheInvalidator which product writes affect the key.
+    private List<Product> getOrLoadProducts(String cacheKey, Duration ttl, List<String> scopes, Supplier<List<Product>> query) {
+        AtomicReference<List<Product>> loaded = new AtomicReference<>();
+        List<Long> ids = cacheService.getOrLoad(cacheKey, ID_LIST, ttl, scopes, () -> {
+            List<Product> products = query.get();
+            productEntityCache.putAll(products);
+            loaded.compareAndSet(null, products);
+            return products.stream().map(Product::getId).toList();
+        });
+        return loaded.get() != null ? loaded.get() : productEntityCache.getProducts(ids);
+    }
+
+    // Caches the page of ids only, its products are assembled from the entity cache.
+    // The total comes from the id query when this request ran it, otherwise from the count query.
+    private Page<Product> getOrLoadPage(String cacheKey, Pageable pageable, List<String> scopes,
+                                        Function<Pageable, Page<Long>> idQuery, LongSupplier count) {
+        // A page also depends on the sort values of its scope
+        ProductSortIndex.SortField sortField = ProductSortIndex.SortField.of(sortOrderOf(pageable).getProperty());
+        List<String> dependencies = new ArrayList<>(scopes);
+        scopes.forEach(scope -> dependencies.add(ProductCacheInvalidator.sorted(scope, sortField)));
+
+        long[] loadedTotal = {-1};
+        List<Long> ids = cacheService.getOrLoad(cacheKey, ID_LIST, Duration.ofMinutes(10), dependencies, () -> {
+            log.info("Cache MISS for page {} - fetching from database", cacheKey);
+            Page<Long> productIds = idQuery.apply(pageable);
+            loadedTotal[0] = productIds.getTotalElements();
+            return productIds.getContent();
+        });
+        long total = loadedTotal[0] >= 0 ? loadedTotal[0] : count.getAsLong();
+        return new org.springframework.data.domain.PageImpl<>(productEntityCache.getProducts(ids), pageable, total);
+    }
+
+    // Only the first order of the requested sort is used, ties are broken by id; unsorted means by name
+    private static Sort.Order sortOrderOf(Pageable pageable) {
+        Sort.Order order = pageable.getSort().stream().findFirst().orElse(Sort.Order.asc("name"));
+        ProductSortIndex.SortField.of(order.getProperty());
+        return order;
+    }
+
+    private static String sortCacheSuffix(Pageable pageable) {
+        Sort.Order order = sortOrderOf(pageable);
+        return order.getProperty().toLowerCase() + "_" + order.getDirection().name().toLowerCase();
+    }
+
+    // Hydrates products with images and category, keeping the order of the given ids
+    private List<Product> findByIdsInOrder(List<Long> ids) {
+        if (ids.isEmpty()) {
+            return List.of();
+        }
+        CatalogSnapshot catalog = productCatalog.snapshot();
+        if (catalog != null) {
+            return catalog.getProducts(ids);
         }
+        return productEntityCache.getProducts(ids);
     }
 }
@@ -0,0 +1,39 @@
+package com.seyman.dreamshops.service.search;
+
+import com.seyman.dreamshops.model.Product;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * In-memory structure derived from the product table.
+ * Built once on startup and then kept in sync on every product write, of this node and of
+ * the others.
+ */
+public interface IProductIndex {
+
+    void rebuild(List<Product> products);
+
+    void index(Product product);
+
+    void remove(Long productId);
+
+    /**
+     * Indexes the products of one change, e.g. all products written by a transaction.
+     */
+    default void indexAll(List<Product> products) {
+        products.forEach(this::index);
+    }
+
+    /**
+     * Applies the product writes of another node. That node already did the shared part of
+     * the write, such as evicting cache entries, so an index over shared state only has its
+     * own bookkeeping to catch up on. By default the same as a local write.
+     */
+    default void applyRemote(List<Product> products, Collection<Long> removedIds) {
+        if (!products.isEmpty()) {
+            indexAll(products);
+        }
+        removedIds.forEach(this::remove);
+    }
+}
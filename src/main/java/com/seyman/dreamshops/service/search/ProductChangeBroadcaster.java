@@ -0,0 +1,166 @@
+package com.seyman.dreamshops.service.search;
+
+import com.seyman.dreamshops.model.Product;
+import com.seyman.dreamshops.repository.ProductRepository;
+import com.seyman.dreamshops.service.cache.RedisChannelListener;
+import com.seyman.dreamshops.service.catalog.ProductCatalog;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps the in-memory product indexes of all nodes in step. After a commit, the ids of the
+ * products and product images it changed are published on a Redis channel; the
+ * other nodes collect them and re-read those rows in one query per interval, then apply them
+ * with {@link IProductIndex#applyRemote}. Messages are "nodeId|type|id,id,...".
+ * <p>
+ * Pub/sub does not keep messages for a node that is disconnected, so after a lost
+ * subscription the indexes are rebuilt from the database.
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class ProductChangeBroadcaster implements RedisChannelListener {
+
+    public enum ChangeType {
+        PRODUCT, IMAGES
+    }
+
+    private final ProductRepository productRepository;
+    private final ObjectProvider<IProductIndex> productIndexes;
+    private final ObjectProvider<ProductCatalog> productCatalog;
+    private final ObjectProvider<ProductIndexInitializer> productIndexInitializer;
+    private final PlatformTransactionManager transactionManager;
+
+    @Autowired(required = false)
+    private RedisTemplate<String, String> redisTemplate;
+
+    @Value("${products.change-channel:products:changes}")
+    private String changeChannel;
+
+    // Nothing listens on the channel unless Redis is enabled
+    @Value("${spring.data.redis.repositories.enabled:false}")
+    private boolean redisEnabled;
+
+    private final String nodeId = UUID.randomUUID().toString();
+    private final Set<Long> changedProducts = ConcurrentHashMap.newKeySet();
+    private final Set<Long> changedImages = ConcurrentHashMap.newKeySet();
+    private volatile boolean rebuildPending;
+    private TransactionTemplate readTransaction;
+
+    @PostConstruct
+    void init() {
+        if (!redisEnabled) {
+            redisTemplate = null;
+        }
+        readTransaction = new TransactionTemplate(transactionManager);
+        readTransaction.setReadOnly(true);
+    }
+
+    @Override
+    public String channel() {
+        return changeChannel;
+    }
+
+    /**
+     * Tells the other nodes about a committed change. Without Redis there are none.
+     */
+    public void publish(ChangeType type, Collection<Long> ids) {
+        if (redisTemplate == null || ids.isEmpty()) {
+            return;
+        }
+        String message = nodeId + "|" + type + "|" + ids.stream().map(String::valueOf).collect(Collectors.joining(","));
+        try {
+            redisTemplate.convertAndSend(changeChannel, message);
+        } catch (Exception e) {
+            log.warn("Failed to publish {} change of {}, other nodes stay stale until their next rebuild: {}",
+                    type, ids, e.getMessage());
+        }
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String[] parts = new String(message.getBody(), StandardCharsets.UTF_8).split("\\|", 3);
+        if (parts.length != 3 || nodeId.equals(parts[0])) {
+            return;
+        }
+        try {
+            Set<Long> target = switch (ChangeType.valueOf(parts[1])) {
+                case PRODUCT -> changedProducts;
+                case IMAGES -> changedImages;
+            };
+            Arrays.stream(parts[2].split(",")).map(Long::valueOf).forEach(target::add);
+        } catch (RuntimeException e) {
+            log.warn("Ignoring malformed product change message: {}", e.getMessage());
+        }
+    }
+
+    @Override
+    public void onResubscribed() {
+        rebuildPending = true;
+    }
+
+    /**
+     * Applies the changes received since the last run, all of a kind at once.
+     */
+    @Scheduled(fixedDelayString = "${products.change-apply-interval-ms:200}")
+    public void applyRemoteChanges() {
+        if (rebuildPending) {
+            rebuildPending = false;
+            changedProducts.clear();
+            changedImages.clear();
+            log.info("Rebuilding product indexes, changes of other nodes may have been missed");
+            readTransaction.executeWithoutResult(status -> productIndexInitializer.getObject().rebuildAll());
+            return;
+        }
+        try {
+            applyProducts(drain(changedProducts));
+            List<Long> images = drain(changedImages);
+            if (!images.isEmpty()) {
+                productCatalog.ifAvailable(catalog -> catalog.refreshImages(images));
+            }
+        } catch (RuntimeException e) {
+            log.error("Failed to apply product changes of other nodes, rebuilding the indexes next: {}", e.getMessage(), e);
+            rebuildPending = true;
+        }
+    }
+
+    private void applyProducts(List<Long> ids) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        List<Product> products = readTransaction.execute(status -> productRepository.findByIdsWithImagesAndCategory(ids));
+        List<Product> found = products != null ? products : List.of();
+        Set<Long> removed = new HashSet<>(ids);
+        found.forEach(product -> removed.remove(product.getId()));
+        productIndexes.forEach(index -> index.applyRemote(found, removed));
+        log.debug("Applied {} product changes of other nodes", ids.size());
+    }
+
+    // A change arriving meanwhile is either drained with these or stays for the next run
+    private static List<Long> drain(Set<Long> ids) {
+        List<Long> drained = new ArrayList<>(ids);
+        drained.forEach(ids::remove);
+        return drained;
+    }
+}
@@ -0,0 +1,207 @@
+package com.seyman.dreamshops.service.search;
+
+import com.seyman.dreamshops.model.Product;
+import com.seyman.dreamshops.repository.ProductRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Global, per-category and per-brand product counts kept in memory, categories and brands
+ * case insensitive. Updated by {@link ProductIndexListener} on every product write and
+ * periodically reconciled against the database in case an update was missed.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class ProductCountRegistry implements IProductIndex {
+
+    private final ProductRepository productRepository;
+
+    private Map<Long, CountKey> products = new HashMap<>();
+    // Replaced as a whole by a rebuild or reconciliation, so a reader never sees them half filled
+    private volatile Map<String, Long> categoryCounts = new ConcurrentHashMap<>();
+    private volatile Map<String, Long> brandCounts = new ConcurrentHashMap<>();
+
+    // Products written while a reconciliation reads the database, their counts in memory are newer
+    private Set<Long> changedDuringReconcile;
+
+    private volatile long total = 0;
+    private volatile boolean ready = false;
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    public long total() {
+        return total;
+    }
+
+    public long countByCategory(String category) {
+        return category == null ? 0 : categoryCounts.getOrDefault(ProductSearchIndex.normalize(category), 0L);
+    }
+
+    public long countByBrand(String brand) {
+        return brand == null ? 0 : brandCounts.getOrDefault(ProductSearchIndex.normalize(brand), 0L);
+    }
+
+    @Override
+    public synchronized void rebuild(List<Product> allProducts) {
+        Map<Long, CountKey> keys = new HashMap<>();
+        allProducts.forEach(product -> keys.put(product.getId(), CountKey.of(product)));
+        replaceAll(keys);
+        // A reconciliation reading meanwhile is older than this
+        changedDuringReconcile = null;
+        ready = true;
+    }
+
+    @Override
+    public synchronized void index(Product product) {
+        if (product == null || product.getId() == null) {
+            return;
+        }
+        trackChange(product.getId());
+        CountKey key = CountKey.of(product);
+        CountKey previous = products.put(product.getId(), key);
+        if (previous != null) {
+            decrement(previous);
+        } else {
+            total++;
+        }
+        increment(key);
+    }
+
+    @Override
+    public synchronized void remove(Long productId) {
+        trackChange(productId);
+        CountKey previous = products.remove(productId);
+        if (previous != null) {
+            decrement(previous);
+            total--;
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${catalog.counts.reconcile-interval-ms:300000}",
+            initialDelayString = "${catalog.counts.reconcile-interval-ms:300000}")
+    @Transactional(readOnly = true)
+    public void reconcile() {
+        if (!ready) {
+            return;
+        }
+        Set<Long> changed = new HashSet<>();
+        synchronized (this) {
+            changedDuringReconcile = changed;
+        }
+        try {
+            Map<Long, CountKey> keys = new HashMap<>();
+            for (Object[] row : productRepository.findIdsWithCategoryAndBrand()) {
+                keys.put((Long) row[0], new CountKey((String) row[1], (String) row[2]));
+            }
+            synchronized (this) {
+                if (changedDuringReconcile != changed) {
+                    log.debug("Product counts were rebuilt while reconciling, skipping this round");
+                    return;
+                }
+                // The database read may predate these writes, their current counts are kept
+                for (Long productId : changed) {
+                    CountKey current = products.get(productId);
+                    if (current != null) {
+                        keys.put(productId, current);
+                    } else {
+                        keys.remove(productId);
+                    }
+                }
+                if (!keys.equals(products)) {
+                    log.warn("Product counts drifted from database ({} in memory, {} in database), reconciling", total, keys.size());
+                    replaceAll(keys);
+                }
+            }
+        } catch (Exception e) {
+            log.warn("Failed to reconcile product counts: {}", e.getMessage());
+        } finally {
+            synchronized (this) {
+                if (changedDuringReconcile == changed) {
+                    changedDuringReconcile = null;
+                }
+            }
+        }
+    }
+
+    private void trackChange(Long productId) {
+        if (changedDuringReconcile != null) {
+            changedDuringReconcile.add(productId);
+        }
+    }
+
+    private void replaceAll(Map<Long, CountKey> keys) {
+        Map<String, Long> categories = new ConcurrentHashMap<>();
+        Map<String, Long> brands = new ConcurrentHashMap<>();
+        keys.values().forEach(key -> increment(key, categories, brands));
+        products = new HashMap<>(keys);
+        categoryCounts = categories;
+        brandCounts = brands;
+        total = keys.size();
+    }
+
+    private void increment(CountKey key) {
+        increment(key, categoryCounts, brandCounts);
+    }
+
+    private static void increment(CountKey key, Map<String, Long> categories, Map<String, Long> brands) {
+        if (key.category != null) {
+            categories.merge(key.category, 1L, Long::sum);
+        }
+        if (key.brand != null) {
+            brands.merge(key.brand, 1L, Long::sum);
+        }
+    }
+
+    private void decrement(CountKey key) {
+        if (key.category != null) {
+            categoryCounts.computeIfPresent(key.category, (name, count) -> count > 1 ? count - 1 : null);
+        }
+        if (key.brand != null) {
+            brandCounts.computeIfPresent(key.brand, (name, count) -> count > 1 ? count - 1 : null);
+        }
+    }
+
+    private static class CountKey {
+        private final String category;
+        private final String brand;
+
+        CountKey(String category, String brand) {
+            this.category = category != null ? ProductSearchIndex.normalize(category) : null;
+            this.brand = brand != null ? ProductSearchIndex.normalize(brand) : null;
+        }
+
+        static CountKey of(Product product) {
+            return new CountKey(product.getCategory() != null ? product.getCategory().getName() : null, product.getBrand());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof CountKey other)) {
+                return false;
+            }
+            return Objects.equals(category, other.category) && Objects.equals(brand, other.brand);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(category, brand);
+        }
+    }
+}
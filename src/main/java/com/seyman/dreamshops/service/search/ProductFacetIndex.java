@@ -0,0 +1,362 @@
+package com.seyman.dreamshops.service.search;
+
+import com.seyman.dreamshops.model.Product;
+import com.seyman.dreamshops.requests.ProductFilterRequest;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.math.BigDecimal;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Bitmap facet index for the product listing sidebar.
+ * Every product gets a dense ordinal; each category, brand, price band and flag keeps a
+ * BitSet of the ordinals having it. Filters are bitset intersections and facet counts are
+ * computed against all other active filters, so a single call returns the page ids and
+ * the complete sidebar. The live ordinals are also kept in name order, so a page is read off
+ * that order instead of sorting every match.
+ */
+@Service
+@Slf4j
+public class ProductFacetIndex implements IProductIndex {
+
+    public static final String CATEGORY = "category";
+    public static final String BRAND = "brand";
+    public static final String PRICE_BAND = "priceBand";
+    public static final String ON_SALE = "onSale";
+    public static final String FLASH_SALE = "flashSale";
+    public static final String IN_STOCK = "inStock";
+
+    private static final Comparator<FacetDocument> NAME_ORDER =
+            Comparator.comparing((FacetDocument doc) -> doc.sortName).thenComparing(doc -> doc.id);
+
+    private final BigDecimal[] priceBounds;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final Map<Long, Integer> ordinals = new HashMap<>();
+    private final List<FacetDocument> documents = new ArrayList<>();
+    private final Deque<Integer> freeOrdinals = new ArrayDeque<>();
+    private final BitSet live = new BitSet();
+    private final Map<String, Map<String, BitSet>> valueFacets = new LinkedHashMap<>();
+    private final Map<String, BitSet> flagFacets = new LinkedHashMap<>();
+    private int[] nameOrder = new int[0];
+    private int nameOrderSize;
+
+    public ProductFacetIndex(@Value("${facets.price-bands:1000,5000,10000,25000,50000,100000}") String priceBands) {
+        this.priceBounds = Arrays.stream(priceBands.split(","))
+                .map(String::trim)
+                .map(BigDecimal::new)
+                .sorted()
+                .toArray(BigDecimal[]::new);
+        valueFacets.put(CATEGORY, new TreeMap<>());
+        valueFacets.put(BRAND, new TreeMap<>());
+        valueFacets.put(PRICE_BAND, new LinkedHashMap<>());
+        for (int i = 0; i <= priceBounds.length; i++) {
+            valueFacets.get(PRICE_BAND).put(bandLabel(i), new BitSet());
+        }
+        flagFacets.put(ON_SALE, new BitSet());
+        flagFacets.put(FLASH_SALE, new BitSet());
+        flagFacets.put(IN_STOCK, new BitSet());
+    }
+
+    @Override
+    public void rebuild(List<Product> products) {
+        lock.writeLock().lock();
+        try {
+            ordinals.clear();
+            documents.clear();
+            freeOrdinals.clear();
+            live.clear();
+            valueFacets.get(CATEGORY).clear();
+            valueFacets.get(BRAND).clear();
+            valueFacets.get(PRICE_BAND).values().forEach(BitSet::clear);
+            flagFacets.values().forEach(BitSet::clear);
+            products.forEach(this::addDocument);
+            nameOrder = live.stream().boxed()
+                    .sorted(Comparator.comparing(documents::get, NAME_ORDER))
+                    .mapToInt(Integer::intValue)
+                    .toArray();
+            nameOrderSize = nameOrder.length;
+            log.info("Facet index built for {} products", ordinals.size());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void index(Product product) {
+        if (product == null || product.getId() == null) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            removeDocument(product.getId());
+            insertInNameOrder(addDocument(product));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void remove(Long productId) {
+        lock.writeLock().lock();
+        try {
+            removeDocument(productId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the ids of one page of matches in name order, the number of matches and the facet counts.
+     */
+    public FacetResult filter(ProductFilterRequest filter, long offset, int limit) {
+        lock.readLock().lock();
+        try {
+            Map<String, BitSet> selections = new LinkedHashMap<>();
+            selections.put(CATEGORY, union(CATEGORY, filter.getCategory()));
+            selections.put(BRAND, union(BRAND, filter.getBrand()));
+            selections.put(PRICE_BAND, union(PRICE_BAND, filter.getPriceBand()));
+            selections.put(ON_SALE, flag(ON_SALE, filter.getOnSale()));
+            selections.put(FLASH_SALE, flag(FLASH_SALE, filter.getFlashSale()));
+            selections.put(IN_STOCK, flag(IN_STOCK, filter.getInStock()));
+
+            BitSet matches = intersectExcept(selections, null);
+
+            // Each facet is counted against every other active filter but not its own
+            Map<String, Map<String, Integer>> facets = new LinkedHashMap<>();
+            for (Map.Entry<String, Map<String, BitSet>> facet : valueFacets.entrySet()) {
+                BitSet base = intersectExcept(selections, facet.getKey());
+                Map<String, Integer> counts = new LinkedHashMap<>();
+                facet.getValue().forEach((value, bits) -> counts.put(value, countIntersection(base, bits)));
+                facets.put(facet.getKey(), counts);
+            }
+            for (Map.Entry<String, BitSet> facet : flagFacets.entrySet()) {
+                BitSet base = intersectExcept(selections, facet.getKey());
+                int withFlag = countIntersection(base, facet.getValue());
+                Map<String, Integer> counts = new LinkedHashMap<>();
+                counts.put("true", withFlag);
+                counts.put("false", base.cardinality() - withFlag);
+                facets.put(facet.getKey(), counts);
+            }
+
+            int total = matches.cardinality();
+            return new FacetResult(page(matches, total, offset, limit), total, facets);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private List<Long> page(BitSet matches, int total, long offset, int limit) {
+        if (offset >= total || limit <= 0) {
+            return List.of();
+        }
+        int from = (int) offset;
+        int to = (int) Math.min(offset + limit, total);
+        // Walking the name order reaches the end of the page after about to * live / total
+        // ordinals; a selective filter is cheaper to serve by sorting just its matches
+        long walk = (long) to * nameOrderSize / total;
+        long sort = (long) total * (32 - Integer.numberOfLeadingZeros(total));
+        List<Long> ids = new ArrayList<>(to - from);
+        if (walk <= sort) {
+            int seen = 0;
+            for (int i = 0; i < nameOrderSize && seen < to; i++) {
+                int ordinal = nameOrder[i];
+                if (matches.get(ordinal) && seen++ >= from) {
+                    ids.add(documents.get(ordinal).id);
+                }
+            }
+            return ids;
+        }
+        List<FacetDocument> matched = new ArrayList<>(total);
+        matches.stream().forEach(ordinal -> matched.add(documents.get(ordinal)));
+        matched.sort(NAME_ORDER);
+        matched.subList(from, to).forEach(doc -> ids.add(doc.id));
+        return ids;
+    }
+
+    private BitSet union(String facet, List<String> values) {
+        if (values == null || values.isEmpty()) {
+            return null;
+        }
+        BitSet result = new BitSet();
+        for (String value : values) {
+            BitSet bits = valueFacets.get(facet).get(value);
+            if (bits != null) {
+                result.or(bits);
+            }
+        }
+        return result;
+    }
+
+    private BitSet flag(String facet, Boolean expected) {
+        if (expected == null) {
+            return null;
+        }
+        BitSet result = (BitSet) flagFacets.get(facet).clone();
+        if (!expected) {
+            result.xor(live);
+        }
+        return result;
+    }
+
+    private BitSet intersectExcept(Map<String, BitSet> selections, String excludedFacet) {
+        BitSet result = (BitSet) live.clone();
+        selections.forEach((facet, bits) -> {
+            if (bits != null && !facet.equals(excludedFacet)) {
+                result.and(bits);
+            }
+        });
+        return result;
+    }
+
+    private static int countIntersection(BitSet base, BitSet bits) {
+        BitSet copy = (BitSet) bits.clone();
+        copy.and(base);
+        return copy.cardinality();
+    }
+
+    private int addDocument(Product product) {
+        FacetDocument doc = new FacetDocument(product, bandLabel(bandOf(product.getEffectivePrice())));
+        int ordinal;
+        if (freeOrdinals.isEmpty()) {
+            ordinal = documents.size();
+            documents.add(doc);
+        } else {
+            ordinal = freeOrdinals.pop();
+            documents.set(ordinal, doc);
+        }
+        ordinals.put(doc.id, ordinal);
+        live.set(ordinal);
+        if (doc.category != null) {
+            valueFacets.get(CATEGORY).computeIfAbsent(doc.category, key -> new BitSet()).set(ordinal);
+        }
+        if (doc.brand != null) {
+            valueFacets.get(BRAND).computeIfAbsent(doc.brand, key -> new BitSet()).set(ordinal);
+        }
+        valueFacets.get(PRICE_BAND).get(doc.priceBand).set(ordinal);
+        flagFacets.get(ON_SALE).set(ordinal, doc.onSale);
+        flagFacets.get(FLASH_SALE).set(ordinal, doc.flashSale);
+        flagFacets.get(IN_STOCK).set(ordinal, doc.inStock);
+        return ordinal;
+    }
+
+    private void removeDocument(Long productId) {
+        Integer ordinal = ordinals.remove(productId);
+        if (ordinal == null) {
+            return;
+        }
+        FacetDocument doc = documents.get(ordinal);
+        int position = namePosition(doc);
+        System.arraycopy(nameOrder, position + 1, nameOrder, position, nameOrderSize - position - 1);
+        nameOrderSize--;
+        live.clear(ordinal);
+        clearValue(CATEGORY, doc.category, ordinal);
+        clearValue(BRAND, doc.brand, ordinal);
+        valueFacets.get(PRICE_BAND).get(doc.priceBand).clear(ordinal);
+        flagFacets.values().forEach(bits -> bits.clear(ordinal));
+        documents.set(ordinal, null);
+        freeOrdinals.push(ordinal);
+    }
+
+    private void insertInNameOrder(int ordinal) {
+        int position = namePosition(documents.get(ordinal));
+        if (nameOrderSize == nameOrder.length) {
+            nameOrder = Arrays.copyOf(nameOrder, Math.max(16, nameOrderSize * 2));
+        }
+        System.arraycopy(nameOrder, position, nameOrder, position + 1, nameOrderSize - position);
+        nameOrder[position] = ordinal;
+        nameOrderSize++;
+    }
+
+    // Position of the document in the name order, or where it would be inserted
+    private int namePosition(FacetDocument doc) {
+        int low = 0;
+        int high = nameOrderSize;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (NAME_ORDER.compare(documents.get(nameOrder[mid]), doc) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private void clearValue(String facet, String value, int ordinal) {
+        if (value == null) {
+            return;
+        }
+        BitSet bits = valueFacets.get(facet).get(value);
+        if (bits != null) {
+            bits.clear(ordinal);
+            if (bits.isEmpty()) {
+                valueFacets.get(facet).remove(value);
+            }
+        }
+    }
+
+    private int bandOf(BigDecimal price) {
+        if (price == null) {
+            return 0;
+        }
+        int band = 0;
+        while (band < priceBounds.length && price.compareTo(priceBounds[band]) >= 0) {
+            band++;
+        }
+        return band;
+    }
+
+    private String bandLabel(int band) {
+        String lower = band == 0 ? "0" : priceBounds[band - 1].stripTrailingZeros().toPlainString();
+        if (band == priceBounds.length) {
+            return lower + "+";
+        }
+        return lower + "-" + priceBounds[band].stripTrailingZeros().toPlainString();
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class FacetResult {
+        private final List<Long> productIds;
+        private final long totalElements;
+        private final Map<String, Map<String, Integer>> facets;
+    }
+
+    private static class FacetDocument {
+        private final Long id;
+        private final String sortName;
+        private final String category;
+        private final String brand;
+        private final String priceBand;
+        private final boolean onSale;
+        private final boolean flashSale;
+        private final boolean inStock;
+
+        FacetDocument(Product product, String priceBand) {
+            this.id = product.getId();
+            this.sortName = ProductSearchIndex.normalize(product.getName());
+            this.category = product.getCategory() != null ? product.getCategory().getName() : null;
+            this.brand = product.getBrand();
+            this.priceBand = priceBand;
+            this.onSale = Boolean.TRUE.equals(product.getIsOnSale());
+            this.flashSale = Boolean.TRUE.equals(product.getIsFlashSale());
+            this.inStock = product.getInventory() > 0;
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.seyman.dreamshops.service.search;
+
+import com.seyman.dreamshops.model.Product;
+import com.seyman.dreamshops.repository.ProductRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+
+/**
+ * Loads the catalog once on startup and builds every registered {@link IProductIndex}.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class ProductIndexInitializer implements ApplicationListener<ApplicationReadyEvent> {
+
+    private final ProductRepository productRepository;
+    private final List<IProductIndex> productIndexes;
+
+    @Override
+    @Transactional(readOnly = true)
+    public void onApplicationEvent(ApplicationReadyEvent event) {
+        rebuildAll();
+    }
+
+    public void rebuildAll() {
+        try {
+            List<Product> products = productRepository.findAllWithCategory();
+            productIndexes.forEach(index -> index.rebuild(products));
+            log.info("Rebuilt {} product indexes from {} products", productIndexes.size(), products.size());
+        } catch (Exception e) {
+            log.warn("Failed to build product indexes, falling back to database queries: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.seyman.dreamshops.service.search;
+
+import com.seyman.dreamshops.model.Product;
+import jakarta.persistence.PostPersist;
+import jakarta.persistence.PostRemove;
+import jakarta.persistence.PostUpdate;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * JPA entity listener keeping every {@link IProductIndex} in sync with product writes,
+ * including the ones made outside ProductService (e.g. inventory changes on orders).
+ * The writes of a transaction are collected and applied together after commit, so a rolled
+ * back transaction never reaches the indexes and each index takes one batch per commit. The
+ * ids then go to the other nodes through {@link ProductChangeBroadcaster}.
+ * A failing index is logged and left behind, it never fails the committed write.
+ */
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class ProductIndexListener {
+
+    // Resolved lazily: the indexes depend on repositories that are built with this listener
+    private final ObjectProvider<IProductIndex> productIndexes;
+    private final ObjectProvider<ProductChangeBroadcaster> productChangeBroadcaster;
+
+    @PostPersist
+    @PostUpdate
+    public void onSave(Product product) {
+        PendingChanges changes = pendingChanges();
+        changes.saved.put(product.getId(), product);
+        changes.removed.remove(product.getId());
+        applyIfUnbound(changes);
+    }
+
+    @PostRemove
+    public void onRemove(Product product) {
+        PendingChanges changes = pendingChanges();
+        changes.saved.remove(product.getId());
+        changes.removed.add(product.getId());
+        applyIfUnbound(changes);
+    }
+
+    /**
+     * For bulk updates, which bypass the entity callbacks: indexes the updated products after commit.
+     */
+    public void onBulkUpdate(Supplier<List<Product>> updatedProducts) {
+        PendingChanges changes = pendingChanges();
+        changes.bulkUpdates.add(updatedProducts);
+        applyIfUnbound(changes);
+    }
+
+    // The changes of the current transaction, found among its synchronizations so that a
+    // suspended outer transaction keeps its own
+    private PendingChanges pendingChanges() {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return new PendingChanges(false);
+        }
+        for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+            if (synchronization instanceof PendingChanges changes && changes.owner() == this) {
+                return changes;
+            }
+        }
+        PendingChanges changes = new PendingChanges(true);
+        TransactionSynchronizationManager.registerSynchronization(changes);
+        return changes;
+    }
+
+    private void applyIfUnbound(PendingChanges changes) {
+        if (!changes.bound) {
+            changes.afterCommit();
+        }
+    }
+
+    private final class PendingChanges implements TransactionSynchronization {
+        private final boolean bound;
+        private final Map<Long, Product> saved = new LinkedHashMap<>();
+        private final Set<Long> removed = new LinkedHashSet<>();
+        private final List<Supplier<List<Product>>> bulkUpdates = new ArrayList<>();
+
+        private PendingChanges(boolean bound) {
+            this.bound = bound;
+        }
+
+        private ProductIndexListener owner() {
+            return ProductIndexListener.this;
+        }
+
+        @Override
+        public void afterCommit() {
+            Map<Long, Product> products = new LinkedHashMap<>(saved);
+            try {
+                bulkUpdates.forEach(update -> update.get().forEach(product -> products.put(product.getId(), product)));
+            } catch (RuntimeException e) {
+                log.error("Failed to read bulk updated products, the indexes miss their change: {}", e.getMessage(), e);
+            }
+            List<Product> indexed = List.copyOf(products.values());
+            productIndexes.forEach(index -> {
+                try {
+                    if (!indexed.isEmpty()) {
+                        index.indexAll(indexed);
+                    }
+                    removed.forEach(index::remove);
+                } catch (RuntimeException e) {
+                    log.error("Failed to update product index {}, it is stale until the next change of the products: {}",
+                            index.getClass().getSimpleName(), e.getMessage(), e);
+                }
+            });
+
+            Set<Long> changedIds = new LinkedHashSet<>(products.keySet());
+            changedIds.addAll(removed);
+            productChangeBroadcaster.ifAvailable(broadcaster ->
+                    broadcaster.publish(ProductChangeBroadcaster.ChangeType.PRODUCT, changedIds));
+        }
+    }
+}
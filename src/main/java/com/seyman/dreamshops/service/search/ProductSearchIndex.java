@@ -0,0 +1,236 @@
+package com.seyman.dreamshops.service.search;
+
+import com.seyman.dreamshops.model.Product;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * N-gram inverted index over product name, brand, description and category.
+ * Replaces the LOWER(name) LIKE '%term%' table scans: every whitespace token of a
+ * product is split into 1, 2 and 3 character grams, a query term is resolved by
+ * intersecting the posting lists of its grams and verified against the document text.
+ */
+@Service
+@Slf4j
+public class ProductSearchIndex implements IProductIndex {
+
+    private static final int MAX_GRAM = 3;
+
+    private static final Comparator<SearchDocument> NAME_ORDER = Comparator
+            .comparing((SearchDocument doc) -> doc.sortName)
+            .thenComparing(doc -> doc.id);
+
+    // Replaced as a whole by a rebuild, so a search running meanwhile sees the old or the new one
+    private volatile Postings current = new Postings();
+
+    private volatile boolean ready = false;
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    @Override
+    public synchronized void rebuild(List<Product> products) {
+        Postings rebuilt = new Postings();
+        products.forEach(rebuilt::add);
+        current = rebuilt;
+        ready = true;
+        log.info("Product search index built with {} products and {} grams", rebuilt.documents.size(), rebuilt.postings.size());
+    }
+
+    @Override
+    public synchronized void index(Product product) {
+        if (product == null || product.getId() == null) {
+            return;
+        }
+        current.remove(product.getId());
+        current.add(product);
+    }
+
+    @Override
+    public synchronized void remove(Long productId) {
+        current.remove(productId);
+    }
+
+    /**
+     * Returns the ids of all products matching every term of the query, ordered by name.
+     */
+    public List<Long> search(String query) {
+        return search(query, null);
+    }
+
+    /**
+     * Same as {@link #search(String)} but restricted to a category (case insensitive).
+     */
+    public List<Long> search(String query, String category) {
+        List<SearchDocument> matches = matchingDocuments(query, category);
+        matches.sort(NAME_ORDER);
+        return matches.stream().map(doc -> doc.id).toList();
+    }
+
+    /**
+     * Ids of the products matching every term of the query, in no particular order; the
+     * sort index orders them.
+     */
+    public Set<Long> matchingIds(String query, String category) {
+        Set<Long> ids = new HashSet<>();
+        matchingDocuments(query, category).forEach(doc -> ids.add(doc.id));
+        return ids;
+    }
+
+    private List<SearchDocument> matchingDocuments(String query, String category) {
+        Postings index = current;
+        List<String> terms = tokenize(query);
+        String categoryFilter = category != null ? normalize(category) : null;
+
+        Set<Long> candidates = null;
+        for (String term : terms) {
+            Set<Long> matches = index.candidatesFor(term);
+            if (candidates == null) {
+                candidates = new HashSet<>(matches);
+            } else {
+                candidates.retainAll(matches);
+            }
+            if (candidates.isEmpty()) {
+                return Collections.emptyList();
+            }
+        }
+
+        List<SearchDocument> result = new ArrayList<>();
+        Iterable<Long> ids = candidates != null ? candidates : index.documents.keySet();
+        for (Long id : ids) {
+            SearchDocument doc = index.documents.get(id);
+            if (doc == null) {
+                continue;
+            }
+            if (categoryFilter != null && !categoryFilter.equals(doc.category)) {
+                continue;
+            }
+            if (terms.stream().allMatch(doc.text::contains)) {
+                result.add(doc);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Whether a product with this searchable text is matched by the query, i.e. contains every term.
+     */
+    public static boolean matches(String searchableText, String query) {
+        List<String> terms = tokenize(query);
+        return !terms.isEmpty() && terms.stream().allMatch(searchableText::contains);
+    }
+
+    /**
+     * Normalized text a query is matched against: name, brand, description and category.
+     */
+    public static String searchableText(Product product) {
+        String category = product.getCategory() != null ? normalize(product.getCategory().getName()) : "";
+        return String.join(" ",
+                normalize(product.getName()),
+                normalize(product.getBrand()),
+                normalize(product.getDescription()),
+                category);
+    }
+
+    public int size() {
+        return current.documents.size();
+    }
+
+    private static Set<String> grams(String text) {
+        Set<String> grams = new HashSet<>();
+        for (String token : text.split("\\s+")) {
+            for (int size = 1; size <= MAX_GRAM; size++) {
+                for (int i = 0; i + size <= token.length(); i++) {
+                    grams.add(token.substring(i, i + size));
+                }
+            }
+        }
+        return grams;
+    }
+
+    private static List<String> tokenize(String query) {
+        if (query == null || query.isBlank()) {
+            return Collections.emptyList();
+        }
+        return List.of(normalize(query).trim().split("\\s+"));
+    }
+
+    public static String normalize(String value) {
+        return value == null ? "" : value.toLowerCase(Locale.ROOT);
+    }
+
+    // The documents and the posting list of every gram. Writes go to the current one under the
+    // index lock; searches read it without locking, hence the concurrent maps.
+    private static class Postings {
+        private final Map<Long, SearchDocument> documents = new ConcurrentHashMap<>();
+        private final Map<String, Set<Long>> postings = new ConcurrentHashMap<>();
+
+        private Set<Long> candidatesFor(String term) {
+            if (term.length() <= MAX_GRAM) {
+                return postings.getOrDefault(term, Collections.emptySet());
+            }
+            Set<Long> candidates = null;
+            for (int i = 0; i + MAX_GRAM <= term.length(); i++) {
+                Set<Long> posting = postings.getOrDefault(term.substring(i, i + MAX_GRAM), Collections.emptySet());
+                if (candidates == null) {
+                    candidates = new HashSet<>(posting);
+                } else {
+                    candidates.retainAll(posting);
+                }
+                if (candidates.isEmpty()) {
+                    break;
+                }
+            }
+            return candidates;
+        }
+
+        private void add(Product product) {
+            SearchDocument doc = new SearchDocument(product);
+            documents.put(doc.id, doc);
+            for (String gram : grams(doc.text)) {
+                postings.computeIfAbsent(gram, g -> ConcurrentHashMap.newKeySet()).add(doc.id);
+            }
+        }
+
+        private void remove(Long productId) {
+            SearchDocument doc = documents.remove(productId);
+            if (doc == null) {
+                return;
+            }
+            for (String gram : grams(doc.text)) {
+                Set<Long> posting = postings.get(gram);
+                if (posting != null) {
+                    posting.remove(productId);
+                    if (posting.isEmpty()) {
+                        postings.remove(gram);
+                    }
+                }
+            }
+        }
+    }
+
+    private static class SearchDocument {
+        private final Long id;
+        private final String sortName;
+        private final String category;
+        private final String text;
+
+        SearchDocument(Product product) {
+            this.id = product.getId();
+            this.sortName = normalize(product.getName());
+            this.category = product.getCategory() != null ? normalize(product.getCategory().getName()) : null;
+            this.text = searchableText(product);
+        }
+    }
+}
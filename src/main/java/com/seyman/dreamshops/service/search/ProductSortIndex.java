@@ -0,0 +1,309 @@
+package com.seyman.dreamshops.service.search;
+
+import com.seyman.dreamshops.model.Product;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.Sort;
+import org.springframework.stereotype.Service;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Sorted id arrays for every supported listing order (name, price, effective price,
+ * inventory and id/newest). Writes replace the affected array copy-on-write with a binary
+ * search insert, so a page in any order is a slice of an array instead of a database sort.
+ */
+@Service
+@Slf4j
+public class ProductSortIndex implements IProductIndex {
+
+    public enum SortField {
+        NAME("name", doc -> doc.name),
+        PRICE("price", doc -> doc.price),
+        EFFECTIVE_PRICE("effectivePrice", doc -> doc.effectivePrice),
+        INVENTORY("inventory", doc -> doc.inventory),
+        ID("id", doc -> doc.id);
+
+        private final String property;
+        private final Comparator<SortDocument> order;
+
+        SortField(String property, Function<SortDocument, Comparable<?>> key) {
+            this.property = property;
+            this.order = keyOrder(key).thenComparing(doc -> doc.id);
+        }
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private static Comparator<SortDocument> keyOrder(Function<SortDocument, Comparable<?>> key) {
+            return Comparator.comparing((Function) key, Comparator.nullsFirst(Comparator.naturalOrder()));
+        }
+
+        // "newest" is accepted as an alias of id since ids are assigned in insertion order
+        public static SortField of(String property) {
+            if ("newest".equalsIgnoreCase(property)) {
+                return ID;
+            }
+            return Arrays.stream(values())
+                    .filter(field -> field.property.equalsIgnoreCase(property))
+                    .findFirst()
+                    .orElseThrow(() -> new IllegalArgumentException("Unsupported sort field: " + property));
+        }
+
+        /**
+         * The value of the product this field sorts by, as text for a cursor; empty for none.
+         */
+        public String keyOf(Product product) {
+            Object value = switch (this) {
+                case NAME -> product.getName();
+                case PRICE -> product.getPrice();
+                case EFFECTIVE_PRICE -> product.getEffectivePrice();
+                case INVENTORY -> product.getInventory();
+                case ID -> null;
+            };
+            if (value instanceof BigDecimal decimal) {
+                return decimal.toPlainString();
+            }
+            return value != null ? value.toString() : "";
+        }
+
+        // The inverse of keyOf, in the form the documents hold; a malformed number is an IllegalArgumentException
+        private Object parse(String key) {
+            if (this == NAME) {
+                return ProductSearchIndex.normalize(key);
+            }
+            if (key == null || key.isEmpty()) {
+                return null;
+            }
+            return switch (this) {
+                case PRICE, EFFECTIVE_PRICE -> new BigDecimal(key);
+                case INVENTORY -> Integer.valueOf(key);
+                default -> null;
+            };
+        }
+    }
+
+    private final Map<Long, SortDocument> documents = new HashMap<>();
+    private final Map<SortField, SortDocument[]> sorted = new EnumMap<>(SortField.class);
+
+    private volatile boolean ready = false;
+
+    public ProductSortIndex() {
+        for (SortField field : SortField.values()) {
+            sorted.put(field, new SortDocument[0]);
+        }
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    @Override
+    public synchronized void rebuild(List<Product> products) {
+        documents.clear();
+        products.forEach(product -> documents.put(product.getId(), new SortDocument(product)));
+        for (SortField field : SortField.values()) {
+            SortDocument[] docs = documents.values().toArray(new SortDocument[0]);
+            Arrays.sort(docs, field.order);
+            sorted.put(field, docs);
+        }
+        ready = true;
+        log.info("Sort index built for {} products", documents.size());
+    }
+
+    @Override
+    public synchronized void index(Product product) {
+        if (product == null || product.getId() == null) {
+            return;
+        }
+        SortDocument doc = new SortDocument(product);
+        SortDocument previous = documents.put(doc.id, doc);
+        for (SortField field : SortField.values()) {
+            SortDocument[] docs = sorted.get(field);
+            if (previous != null) {
+                docs = without(docs, previous, field.order);
+            }
+            sorted.put(field, with(docs, doc, field.order));
+        }
+    }
+
+    @Override
+    public synchronized void remove(Long productId) {
+        SortDocument previous = documents.remove(productId);
+        if (previous == null) {
+            return;
+        }
+        for (SortField field : SortField.values()) {
+            sorted.put(field, without(sorted.get(field), previous, field.order));
+        }
+    }
+
+    /**
+     * Returns one page of ids in the given order.
+     *
+     * @param category   only products of this category (case insensitive), or null for all
+     * @param candidates only these ids (e.g. search matches), or null for all
+     */
+    public SortedPage page(Sort.Order order, String category, Collection<Long> candidates, long offset, int limit) {
+        SortField field = SortField.of(order.getProperty());
+        boolean descending = isDescending(order);
+
+        SortDocument[] docs;
+        if (candidates != null) {
+            // A small candidate set is cheaper to sort than to find in the full array
+            List<SortDocument> matches = new ArrayList<>(candidates.size());
+            synchronized (this) {
+                for (Long id : candidates) {
+                    SortDocument doc = documents.get(id);
+                    if (doc != null) {
+                        matches.add(doc);
+                    }
+                }
+            }
+            matches.sort(field.order);
+            docs = matches.toArray(new SortDocument[0]);
+        } else {
+            synchronized (this) {
+                docs = sorted.get(field);
+            }
+        }
+
+        List<Long> pageIds = new ArrayList<>(limit);
+        long total = 0;
+        for (int i = 0; i < docs.length; i++) {
+            SortDocument doc = docs[descending ? docs.length - 1 - i : i];
+            if (category != null && !category.equalsIgnoreCase(doc.category)) {
+                continue;
+            }
+            if (total >= offset && pageIds.size() < limit) {
+                pageIds.add(doc.id);
+            }
+            total++;
+            if (category == null && pageIds.size() == limit) {
+                // Without a category filter every document counts, no need to walk the rest
+                total = docs.length;
+                break;
+            }
+        }
+        return new SortedPage(pageIds, total);
+    }
+
+    /**
+     * Keyset variant of {@link #page}: at most {@code limit} ids in the given order that come
+     * strictly after the product with the given sort key (see {@link SortField#keyOf}) and id,
+     * or from the start without an id. Walks the sorted array from the cursor position, so a
+     * page costs its own length plus the products filtered out on the way.
+     *
+     * @param candidates only these ids (e.g. search matches), or null for all
+     */
+    public List<Long> pageAfter(Sort.Order order, String category, Set<Long> candidates,
+                                String afterKey, Long afterId, int limit) {
+        SortField field = SortField.of(order.getProperty());
+        boolean descending = isDescending(order);
+        SortDocument[] docs;
+        synchronized (this) {
+            docs = sorted.get(field);
+        }
+
+        int from = descending ? docs.length - 1 : 0;
+        if (afterId != null) {
+            SortDocument probe = new SortDocument(field, field.parse(afterKey), afterId);
+            // First document ordered after the probe; going down, the one before the first not before it
+            int low = 0;
+            int high = docs.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                int comparison = field.order.compare(docs[mid], probe);
+                if (comparison < 0 || (!descending && comparison == 0)) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            from = descending ? low - 1 : low;
+        }
+
+        List<Long> pageIds = new ArrayList<>(limit);
+        for (int i = from; i >= 0 && i < docs.length && pageIds.size() < limit; i += descending ? -1 : 1) {
+            SortDocument doc = docs[i];
+            if (category != null && !category.equalsIgnoreCase(doc.category)) {
+                continue;
+            }
+            if (candidates == null || candidates.contains(doc.id)) {
+                pageIds.add(doc.id);
+            }
+        }
+        return pageIds;
+    }
+
+    /**
+     * Whether the order walks the index backwards; "newest" is always newest first.
+     */
+    public static boolean isDescending(Sort.Order order) {
+        return order.isDescending() || "newest".equalsIgnoreCase(order.getProperty());
+    }
+
+    private static SortDocument[] with(SortDocument[] docs, SortDocument doc, Comparator<SortDocument> order) {
+        int position = -Arrays.binarySearch(docs, doc, order) - 1;
+        SortDocument[] result = new SortDocument[docs.length + 1];
+        System.arraycopy(docs, 0, result, 0, position);
+        result[position] = doc;
+        System.arraycopy(docs, position, result, position + 1, docs.length - position);
+        return result;
+    }
+
+    private static SortDocument[] without(SortDocument[] docs, SortDocument doc, Comparator<SortDocument> order) {
+        int position = Arrays.binarySearch(docs, doc, order);
+        if (position < 0) {
+            return docs;
+        }
+        SortDocument[] result = new SortDocument[docs.length - 1];
+        System.arraycopy(docs, 0, result, 0, position);
+        System.arraycopy(docs, position + 1, result, position, docs.length - position - 1);
+        return result;
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class SortedPage {
+        private final List<Long> productIds;
+        private final long total;
+    }
+
+    private static class SortDocument {
+        private final Long id;
+        private final String name;
+        private final String category;
+        private final BigDecimal price;
+        private final BigDecimal effectivePrice;
+        private final Integer inventory;
+
+        // Probe for a binary search, holding only the value of the field
+        SortDocument(SortField field, Object value, Long id) {
+            this.id = id;
+            this.name = field == SortField.NAME ? (String) value : null;
+            this.category = null;
+            this.price = field == SortField.PRICE ? (BigDecimal) value : null;
+            this.effectivePrice = field == SortField.EFFECTIVE_PRICE ? (BigDecimal) value : null;
+            this.inventory = field == SortField.INVENTORY ? (Integer) value : null;
+        }
+
+        SortDocument(Product product) {
+            this.id = product.getId();
+            this.name = ProductSearchIndex.normalize(product.getName());
+            this.category = product.getCategory() != null ? product.getCategory().getName() : null;
+            this.price = product.getPrice();
+            this.effectivePrice = product.getEffectivePrice();
+            this.inventory = product.getInventory();
+        }
+    }
+}
@@ -0,0 +1,331 @@
+package com.seyman.dreamshops.service.search;
+
+import com.seyman.dreamshops.dto.SuggestionDto;
+import com.seyman.dreamshops.model.Product;
+import com.seyman.dreamshops.repository.OrderItemRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Typeahead over product names, brands and category names.
+ * Every word start of a suggestion is inserted into a prefix trie whose nodes keep their
+ * top completions precomputed, so a lookup is one walk down the trie and never touches
+ * the database. The trie is immutable: a product change copies only the paths of the
+ * suggestions it affects, with their top completions, and swaps in the new root.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class ProductSuggester implements IProductIndex {
+
+    public static final int MAX_SUGGESTIONS = 10;
+
+    private static final Comparator<Suggestion> BY_POPULARITY = Comparator
+            .comparingLong((Suggestion s) -> s.weight).reversed()
+            .thenComparing(s -> s.text, String.CASE_INSENSITIVE_ORDER);
+
+    private final OrderItemRepository orderItemRepository;
+
+    private final Map<Long, Product> products = new HashMap<>();
+    private final Map<Long, Long> orderedQuantities = new HashMap<>();
+    // The suggestions in the trie by key, see Suggestion#key
+    private final Map<String, Suggestion> suggestions = new HashMap<>();
+
+    private volatile TrieNode root = TrieNode.EMPTY;
+
+    @Override
+    public synchronized void rebuild(List<Product> allProducts) {
+        orderedQuantities.clear();
+        try {
+            for (Object[] row : orderItemRepository.sumQuantityGroupByProduct()) {
+                orderedQuantities.put((Long) row[0], ((Number) row[1]).longValue());
+            }
+        } catch (Exception e) {
+            log.warn("Could not load order quantities for suggestion weights: {}", e.getMessage());
+        }
+        products.clear();
+        allProducts.forEach(product -> products.put(product.getId(), product));
+        root = buildTrie();
+        log.info("Suggestion trie built for {} products", products.size());
+    }
+
+    @Override
+    public synchronized void index(Product product) {
+        if (product == null || product.getId() == null) {
+            return;
+        }
+        Product previous = products.put(product.getId(), product);
+        long weight = weight(product.getId());
+        TrieNode updated = replace(root, Suggestion.productKey(product.getId()), product.getName() != null
+                ? new Suggestion(product.getName(), "product", product.getId(), weight) : null);
+        Map<String, Long> groupWeights = new LinkedHashMap<>();
+        Map<String, String> groupTexts = new HashMap<>();
+        if (previous != null) {
+            addGroups(previous, -weight, groupWeights, groupTexts);
+        }
+        addGroups(product, weight, groupWeights, groupTexts);
+        root = adjustGroups(updated, groupWeights, groupTexts);
+    }
+
+    @Override
+    public synchronized void remove(Long productId) {
+        Product previous = products.remove(productId);
+        if (previous == null) {
+            return;
+        }
+        TrieNode updated = replace(root, Suggestion.productKey(productId), null);
+        Map<String, Long> groupWeights = new LinkedHashMap<>();
+        Map<String, String> groupTexts = new HashMap<>();
+        addGroups(previous, -weight(productId), groupWeights, groupTexts);
+        root = adjustGroups(updated, groupWeights, groupTexts);
+    }
+
+    public List<SuggestionDto> suggest(String query, int limit) {
+        String prefix = normalize(query);
+        if (prefix.isEmpty() || limit <= 0) {
+            return Collections.emptyList();
+        }
+        TrieNode node = root;
+        for (int i = 0; i < prefix.length() && node != null; i++) {
+            node = node.child(prefix.charAt(i));
+        }
+        if (node == null) {
+            return Collections.emptyList();
+        }
+        return Arrays.stream(node.top)
+                .limit(Math.min(limit, MAX_SUGGESTIONS))
+                .map(s -> new SuggestionDto(s.text, s.type, s.productId))
+                .toList();
+    }
+
+    private long weight(Long productId) {
+        return 1 + orderedQuantities.getOrDefault(productId, 0L);
+    }
+
+    private TrieNode buildTrie() {
+        Map<String, Long> groupWeights = new LinkedHashMap<>();
+        Map<String, String> groupTexts = new HashMap<>();
+        suggestions.clear();
+        for (Product product : products.values()) {
+            long weight = weight(product.getId());
+            if (product.getName() != null) {
+                Suggestion suggestion = new Suggestion(product.getName(), "product", product.getId(), weight);
+                suggestions.put(suggestion.key, suggestion);
+            }
+            addGroups(product, weight, groupWeights, groupTexts);
+        }
+        groupWeights.forEach((key, weight) -> {
+            Suggestion suggestion = new Suggestion(groupTexts.get(key), key.substring(0, key.indexOf(':')), null, weight);
+            suggestions.put(key, suggestion);
+        });
+
+        TrieBuilder builder = new TrieBuilder();
+        for (Suggestion suggestion : suggestions.values()) {
+            wordStarts(suggestion.text).forEach(key -> builder.insert(key, suggestion));
+        }
+        return builder.freeze();
+    }
+
+    // Sums the weight of the product into its brand and category, keeping the first spelling seen
+    private static void addGroups(Product product, long weight, Map<String, Long> groupWeights, Map<String, String> groupTexts) {
+        if (product.getBrand() != null) {
+            String key = Suggestion.groupKey("brand", product.getBrand());
+            groupWeights.merge(key, weight, Long::sum);
+            groupTexts.putIfAbsent(key, product.getBrand());
+        }
+        if (product.getCategory() != null && product.getCategory().getName() != null) {
+            String key = Suggestion.groupKey("category", product.getCategory().getName());
+            groupWeights.merge(key, weight, Long::sum);
+            groupTexts.putIfAbsent(key, product.getCategory().getName());
+        }
+    }
+
+    // Applies weight changes to brand and category suggestions, dropping those left without products
+    private TrieNode adjustGroups(TrieNode node, Map<String, Long> weightChanges, Map<String, String> texts) {
+        for (Map.Entry<String, Long> change : weightChanges.entrySet()) {
+            if (change.getValue() == 0) {
+                continue;
+            }
+            String key = change.getKey();
+            Suggestion current = suggestions.get(key);
+            long weight = (current != null ? current.weight : 0) + change.getValue();
+            node = replace(node, key, weight > 0
+                    ? new Suggestion(current != null ? current.text : texts.get(key), key.substring(0, key.indexOf(':')), null, weight)
+                    : null);
+        }
+        return node;
+    }
+
+    // Puts the suggestion in place of the one with the same key, on the paths of both
+    private TrieNode replace(TrieNode node, String key, Suggestion replacement) {
+        Suggestion current = replacement != null ? suggestions.put(key, replacement) : suggestions.remove(key);
+        Set<String> added = replacement != null ? wordStarts(replacement.text) : Set.of();
+        Set<String> paths = new LinkedHashSet<>(current != null ? wordStarts(current.text) : Set.of());
+        paths.addAll(added);
+        for (String path : paths) {
+            node = node.update(path, 0, key, added.contains(path) ? replacement : null);
+        }
+        return node;
+    }
+
+    private static Set<String> wordStarts(String value) {
+        String text = normalize(value);
+        Set<String> starts = new LinkedHashSet<>();
+        for (int i = 0; i < text.length(); i++) {
+            if (i == 0 || text.charAt(i - 1) == ' ') {
+                starts.add(text.substring(i));
+            }
+        }
+        return starts;
+    }
+
+    private static String normalize(String value) {
+        return value == null ? "" : ProductSearchIndex.normalize(value).trim().replaceAll("\\s+", " ");
+    }
+
+    private static class Suggestion {
+        private final String text;
+        private final String type;
+        private final Long productId;
+        private final long weight;
+        // A product is one suggestion, a brand or category one for all its spellings
+        private final String key;
+
+        Suggestion(String text, String type, Long productId, long weight) {
+            this.text = text;
+            this.type = type;
+            this.productId = productId;
+            this.weight = weight;
+            this.key = productId != null ? productKey(productId) : groupKey(type, text);
+        }
+
+        static String productKey(Long productId) {
+            return "product:" + productId;
+        }
+
+        static String groupKey(String type, String text) {
+            return type + ":" + normalize(text);
+        }
+    }
+
+    private static class TrieBuilder {
+        private final TreeMap<Character, TrieBuilder> children = new TreeMap<>();
+        private final List<Suggestion> terminals = new ArrayList<>();
+
+        void insert(String key, Suggestion suggestion) {
+            TrieBuilder node = this;
+            for (int i = 0; i < key.length(); i++) {
+                node = node.children.computeIfAbsent(key.charAt(i), c -> new TrieBuilder());
+            }
+            node.terminals.add(suggestion);
+        }
+
+        TrieNode freeze() {
+            char[] labels = new char[children.size()];
+            TrieNode[] frozen = new TrieNode[children.size()];
+            int i = 0;
+            for (Map.Entry<Character, TrieBuilder> entry : children.entrySet()) {
+                labels[i] = entry.getKey();
+                frozen[i] = entry.getValue().freeze();
+                i++;
+            }
+            return new TrieNode(labels, frozen, terminals.toArray(Suggestion[]::new));
+        }
+    }
+
+    private static class TrieNode {
+        private static final TrieNode EMPTY = new TrieNode(new char[0], new TrieNode[0], new Suggestion[0]);
+
+        private final char[] labels;
+        private final TrieNode[] children;
+        // Suggestions whose path ends here
+        private final Suggestion[] terminals;
+        private final Suggestion[] top;
+
+        TrieNode(char[] labels, TrieNode[] children, Suggestion[] terminals) {
+            this.labels = labels;
+            this.children = children;
+            this.terminals = terminals;
+            Set<Suggestion> candidates = new LinkedHashSet<>(Arrays.asList(terminals));
+            for (TrieNode child : children) {
+                candidates.addAll(Arrays.asList(child.top));
+            }
+            this.top = candidates.stream()
+                    .sorted(BY_POPULARITY)
+                    .limit(MAX_SUGGESTIONS)
+                    .toArray(Suggestion[]::new);
+        }
+
+        TrieNode child(char c) {
+            int index = Arrays.binarySearch(labels, c);
+            return index >= 0 ? children[index] : null;
+        }
+
+        boolean isEmpty() {
+            return labels.length == 0 && terminals.length == 0;
+        }
+
+        /**
+         * Copies the nodes on the path with the suggestion of the key replaced at its end, or
+         * removed there if the replacement is null; the rest of the trie is shared.
+         */
+        TrieNode update(String path, int depth, String key, Suggestion replacement) {
+            if (depth == path.length()) {
+                List<Suggestion> updated = new ArrayList<>(terminals.length + 1);
+                for (Suggestion terminal : terminals) {
+                    if (!terminal.key.equals(key)) {
+                        updated.add(terminal);
+                    }
+                }
+                if (replacement != null) {
+                    updated.add(replacement);
+                }
+                return new TrieNode(labels, children, updated.toArray(Suggestion[]::new));
+            }
+            char c = path.charAt(depth);
+            int index = Arrays.binarySearch(labels, c);
+            if (index < 0 && replacement == null) {
+                return this;
+            }
+            TrieNode child = index >= 0 ? children[index] : EMPTY;
+            TrieNode updatedChild = child.update(path, depth + 1, key, replacement);
+            if (index >= 0 && updatedChild.isEmpty()) {
+                char[] remainingLabels = new char[labels.length - 1];
+                TrieNode[] remainingChildren = new TrieNode[children.length - 1];
+                System.arraycopy(labels, 0, remainingLabels, 0, index);
+                System.arraycopy(labels, index + 1, remainingLabels, index, labels.length - index - 1);
+                System.arraycopy(children, 0, remainingChildren, 0, index);
+                System.arraycopy(children, index + 1, remainingChildren, index, children.length - index - 1);
+                return new TrieNode(remainingLabels, remainingChildren, terminals);
+            }
+            if (index >= 0) {
+                TrieNode[] updatedChildren = children.clone();
+                updatedChildren[index] = updatedChild;
+                return new TrieNode(labels, updatedChildren, terminals);
+            }
+            int insertAt = -index - 1;
+            char[] grownLabels = new char[labels.length + 1];
+            TrieNode[] grownChildren = new TrieNode[children.length + 1];
+            System.arraycopy(labels, 0, grownLabels, 0, insertAt);
+            System.arraycopy(labels, insertAt, grownLabels, insertAt + 1, labels.length - insertAt);
+            System.arraycopy(children, 0, grownChildren, 0, insertAt);
+            System.arraycopy(children, insertAt, grownChildren, insertAt + 1, children.length - insertAt);
+            grownLabels[insertAt] = c;
+            grownChildren[insertAt] = updatedChild;
+            return new TrieNode(grownLabels, grownChildren, terminals);
+        }
+    }
+}
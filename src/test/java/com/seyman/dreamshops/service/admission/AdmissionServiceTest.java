@@ -0,0 +1,119 @@
+package com.seyman.dreamshops.service.admission;
+
+import com.seyman.dreamshops.dto.AdmissionDto;
+import com.seyman.dreamshops.exceptions.AdmissionRequiredException;
+import com.seyman.dreamshops.exceptions.ServiceBusyException;
+import com.seyman.dreamshops.service.cache.SharedStateStore;
+import com.seyman.dreamshops.service.inventory.FlashSaleStockLedger;
+import com.seyman.dreamshops.service.order.OrderIntakeService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * One checkout slot per second and no burst: the first slot opens right away, the next one
+ * only after the test is over.
+ */
+class AdmissionServiceTest {
+
+    private final FlashSaleStockLedger flashSaleStockLedger = mock(FlashSaleStockLedger.class);
+    private final SharedStateStore sharedStateStore = new SharedStateStore();
+    private AdmissionService service;
+
+    @BeforeEach
+    void setUp() {
+        service = newNode();
+        when(flashSaleStockLedger.isSaleLive()).thenReturn(true);
+    }
+
+    @Test
+    void checkoutRunsWithoutSlotWhileNoSaleIsLive() {
+        when(flashSaleStockLedger.isSaleLive()).thenReturn(false);
+
+        assertThat(service.admitCheckout(1L, null, () -> "placed")).isEqualTo("placed");
+        assertThat(service.admitCheckout(1L, null, () -> "placed")).isEqualTo("placed");
+    }
+
+    @Test
+    void openSlotIsUsedOnceAndTheNextOneQueues() {
+        AdmissionDto admission = service.admit(1L);
+        assertThat(admission.getStatus()).isEqualTo("ADMITTED");
+
+        assertThat(service.admitCheckout(1L, admission.getToken(), () -> "placed")).isEqualTo("placed");
+
+        assertThatThrownBy(() -> service.admitCheckout(1L, admission.getToken(), () -> "placed again"))
+                .isInstanceOf(AdmissionRequiredException.class)
+                .satisfies(e -> {
+                    AdmissionDto next = ((AdmissionRequiredException) e).getAdmission();
+                    assertThat(next.getStatus()).isEqualTo("WAITING");
+                    assertThat(next.getPosition()).isEqualTo(1);
+                    assertThat(next.getToken()).isNotEqualTo(admission.getToken());
+                });
+    }
+
+    @Test
+    void failedCheckoutLeavesTheSlotUsable() {
+        String token = service.admit(1L).getToken();
+
+        assertThatThrownBy(() -> service.admitCheckout(1L, token, () -> {
+            throw new IllegalStateException("Cart is empty");
+        })).isInstanceOf(IllegalStateException.class);
+
+        assertThat(service.admitCheckout(1L, token, () -> "placed")).isEqualTo("placed");
+    }
+
+    @Test
+    void userKeepsTheSlotTheyHold() {
+        AdmissionDto first = service.admit(1L);
+        AdmissionDto again = service.admit(1L);
+
+        assertThat(again.getToken()).isEqualTo(first.getToken());
+        assertThat(service.getAdmission(1L).getToken()).isEqualTo(first.getToken());
+    }
+
+    @Test
+    void slotOfAnotherUserIsNotAccepted() {
+        String token = service.admit(1L).getToken();
+
+        // User 2 gets a slot of their own, which is behind user 1's
+        assertThatThrownBy(() -> service.admitCheckout(2L, token, () -> "placed"))
+                .isInstanceOf(AdmissionRequiredException.class);
+        assertThat(service.admitCheckout(1L, token, () -> "placed")).isEqualTo("placed");
+    }
+
+    @Test
+    void slotIsSharedAcrossNodes() {
+        String token = service.admit(1L).getToken();
+        AdmissionService otherNode = newNode();
+
+        assertThat(otherNode.getAdmission(1L).getToken()).isEqualTo(token);
+        assertThat(otherNode.admitCheckout(1L, token, () -> "placed")).isEqualTo("placed");
+        assertThatThrownBy(() -> service.admitCheckout(1L, token, () -> "placed again"))
+                .isInstanceOf(AdmissionRequiredException.class);
+    }
+
+    @Test
+    void usersBeyondTheLongestWaitAreTurnedAway() {
+        ReflectionTestUtils.setField(service, "maxWaitSeconds", 0L);
+        service.admit(1L);
+
+        assertThatThrownBy(() -> service.admit(2L)).isInstanceOf(ServiceBusyException.class);
+    }
+
+    private AdmissionService newNode() {
+        AdmissionService node = new AdmissionService(flashSaleStockLedger, mock(OrderIntakeService.class), sharedStateStore);
+        ReflectionTestUtils.setField(node, "enabled", true);
+        ReflectionTestUtils.setField(node, "secret", "admission-test-secret");
+        ReflectionTestUtils.setField(node, "initialRate", 1.0);
+        ReflectionTestUtils.setField(node, "burst", 1);
+        ReflectionTestUtils.setField(node, "slotSeconds", 60L);
+        ReflectionTestUtils.setField(node, "maxWaitSeconds", 300L);
+        node.init();
+        return node;
+    }
+}
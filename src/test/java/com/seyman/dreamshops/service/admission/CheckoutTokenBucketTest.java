@@ -0,0 +1,61 @@
+package com.seyman.dreamshops.service.admission;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.offset;
+
+class CheckoutTokenBucketTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    void burstIsAvailableRightAwayAndLaterCallersQueue() {
+        CheckoutTokenBucket bucket = new CheckoutTokenBucket(1, 3);
+
+        assertThat(bucket.reserve(SECOND * 10)).isZero();
+        assertThat(bucket.reserve(SECOND * 10)).isZero();
+        assertThat(bucket.reserve(SECOND * 10)).isZero();
+        long fourth = bucket.reserve(SECOND * 10);
+        long fifth = bucket.reserve(SECOND * 10);
+
+        // One interval per token queued ahead, less the little time the test took
+        assertThat(fourth).isBetween(SECOND / 2, SECOND);
+        assertThat(fifth - fourth).isBetween(SECOND * 9 / 10, SECOND * 11 / 10);
+    }
+
+    @Test
+    void reservationBeyondTheLongestWaitIsRefusedAndTakesNothing() {
+        CheckoutTokenBucket bucket = new CheckoutTokenBucket(1, 1);
+        bucket.reserve(SECOND);
+        bucket.reserve(SECOND * 10);
+        long waitBefore = bucket.currentWaitNanos();
+
+        assertThat(bucket.reserve(SECOND)).isEqualTo(-1);
+        assertThat(bucket.currentWaitNanos()).isLessThanOrEqualTo(waitBefore);
+    }
+
+    @Test
+    void newRateAppliesToTheNextReservation() {
+        CheckoutTokenBucket bucket = new CheckoutTokenBucket(1, 1);
+        bucket.setRate(2, 5);
+
+        assertThat(bucket.perSecond()).isCloseTo(2, offset(0.001));
+        assertThat(bucket.intervalNanos()).isEqualTo(SECOND / 2);
+        for (int i = 0; i < 5; i++) {
+            assertThat(bucket.reserve(0)).isZero();
+        }
+        assertThat(bucket.reserve(0)).isEqualTo(-1);
+    }
+
+    @Test
+    void rejectsRatesThatAreNotPositive() {
+        CheckoutTokenBucket bucket = new CheckoutTokenBucket(1, 1);
+
+        assertThatThrownBy(() -> bucket.setRate(0, 1)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> bucket.setRate(1, 0)).isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,186 @@
+package com.seyman.dreamshops.service.cache;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Keys without a namespace, so no generation is read from Redis. Without a RedisTemplate the
+ * in-memory tier is the cache.
+ */
+class CacheServiceTest {
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void circuitOpensOnRedisFailuresAndClosesWhenTheProbeSucceeds() {
+        AtomicBoolean redisDown = new AtomicBoolean(true);
+        RedisTemplate<String, String> redisTemplate = mock(RedisTemplate.class);
+        when(redisTemplate.execute(any(RedisCallback.class))).thenAnswer(invocation -> {
+            if (redisDown.get()) {
+                throw new RedisConnectionFailureException("Connection refused");
+            }
+            return "PONG";
+        });
+        CacheService cache = new CacheService();
+        ReflectionTestUtils.setField(cache, "redisTemplate", redisTemplate);
+        ReflectionTestUtils.setField(cache, "circuitFailureThreshold", 3);
+        ReflectionTestUtils.setField(cache, "writeBehindEnabled", false);
+        cache.init();
+
+        for (int i = 0; i < 3; i++) {
+            assertThat(cache.get("greeting", String.class)).isEmpty();
+        }
+        assertThat(cache.getCircuit().isOpen()).isTrue();
+
+        // Short-circuited to the in-memory tier, Redis is not called
+        clearInvocations(redisTemplate);
+        cache.put("greeting", "hello", Duration.ofMinutes(1));
+        assertThat(cache.get("greeting", String.class)).contains("hello");
+        verify(redisTemplate, never()).execute(any(RedisCallback.class));
+
+        cache.probeRedis();
+        assertThat(cache.getCircuit().isOpen()).isTrue();
+
+        redisDown.set(false);
+        cache.probeRedis();
+        assertThat(cache.getCircuit().isOpen()).isFalse();
+        // Other nodes may have invalidated what was kept locally meanwhile
+        redisDown.set(true);
+        assertThat(cache.get("greeting", String.class)).isEmpty();
+    }
+
+    @Test
+    void queuedWritesOfInvalidatedKeysAreCancelled() {
+        CacheService cache = new CacheService();
+        ReflectionTestUtils.setField(cache, "writeBehindThreads", 1);
+        cache.init();
+        // The writes below stay queued until the invalidations are done
+        CountDownLatch release = holdWriter(cache);
+
+        cache.putAsync("deleted", "stale", Duration.ofMinutes(1));
+        cache.putAsync("kept", "fresh", Duration.ofMinutes(1));
+        cache.putAllAsync(Map.of("batch-deleted", "stale", "batch-kept", "fresh"), Duration.ofMinutes(1));
+        cache.putAsync("rewritten", "older", Duration.ofMinutes(1));
+        cache.putAsync("rewritten", "newer", Duration.ofMinutes(1));
+        cache.delete("deleted");
+        cache.delete("batch-deleted");
+        release.countDown();
+        // Runs what is still queued before returning
+        cache.shutdown();
+
+        assertThat(cache.get("deleted", String.class)).isEmpty();
+        assertThat(cache.get("kept", String.class)).contains("fresh");
+        assertThat(cache.get("batch-deleted", String.class)).isEmpty();
+        assertThat(cache.get("batch-kept", String.class)).contains("fresh");
+        assertThat(cache.get("rewritten", String.class)).contains("newer");
+    }
+
+    @Test
+    void writeDroppedFromAFullQueueLeavesNothingPending() {
+        CacheService cache = new CacheService();
+        ReflectionTestUtils.setField(cache, "writeBehindThreads", 1);
+        ReflectionTestUtils.setField(cache, "writeBehindQueueCapacity", 1);
+        cache.init();
+        CountDownLatch release = holdWriter(cache);
+
+        cache.putAsync("queued", "value", Duration.ofMinutes(1));
+        cache.putAsync("dropped", "value", Duration.ofMinutes(1));
+        release.countDown();
+        // Runs what is still queued before returning
+        cache.shutdown();
+
+        assertThat(cache.get("queued", String.class)).contains("value");
+        assertThat(cache.get("dropped", String.class)).isEmpty();
+        assertThat((Map<?, ?>) ReflectionTestUtils.getField(cache, "pendingWrites")).isEmpty();
+    }
+
+    @Test
+    void concurrentMissesShareOneLoad() throws Exception {
+        CacheService cache = new CacheService();
+        ReflectionTestUtils.setField(cache, "writeBehindEnabled", false);
+        ReflectionTestUtils.setField(cache, "singleFlightWaitMillis", 5000L);
+        cache.init();
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Supplier<String> slowLoader = () -> {
+            loads.incrementAndGet();
+            loading.countDown();
+            await(release);
+            return "loaded";
+        };
+        ExecutorService callers = Executors.newFixedThreadPool(4);
+        try {
+            Future<String> first = callers.submit(() -> cache.getOrLoad("greeting", String.class, Duration.ofMinutes(1), slowLoader));
+            assertThat(loading.await(5, TimeUnit.SECONDS)).isTrue();
+            List<Future<String>> others = List.of(
+                    callers.submit(() -> cache.getOrLoad("greeting", String.class, Duration.ofMinutes(1), slowLoader)),
+                    callers.submit(() -> cache.getOrLoad("greeting", String.class, Duration.ofMinutes(1), slowLoader)),
+                    callers.submit(() -> cache.getOrLoad("greeting", String.class, Duration.ofMinutes(1), slowLoader)));
+            release.countDown();
+
+            assertThat(first.get(5, TimeUnit.SECONDS)).isEqualTo("loaded");
+            for (Future<String> other : others) {
+                assertThat(other.get(5, TimeUnit.SECONDS)).isEqualTo("loaded");
+            }
+            assertThat(loads).hasValue(1);
+            assertThat(cache.get("greeting", String.class)).contains("loaded");
+        } finally {
+            callers.shutdownNow();
+        }
+    }
+
+    @Test
+    void failedLoadIsRethrownAndNotCached() {
+        CacheService cache = new CacheService();
+        ReflectionTestUtils.setField(cache, "writeBehindEnabled", false);
+        cache.init();
+
+        assertThatThrownBy(() -> cache.getOrLoad("greeting", String.class, Duration.ofMinutes(1), () -> {
+            throw new IllegalStateException("Database unavailable");
+        })).isInstanceOf(IllegalStateException.class).hasMessage("Database unavailable");
+        assertThat(cache.get("greeting", String.class)).isEmpty();
+
+        assertThat(cache.getOrLoad("greeting", String.class, Duration.ofMinutes(1), () -> "loaded")).isEqualTo("loaded");
+        assertThat(cache.getOrLoad("greeting", String.class, Duration.ofMinutes(1), () -> "loaded again")).isEqualTo("loaded");
+    }
+
+    // Occupies the only write-behind thread until the returned latch is released
+    private static CountDownLatch holdWriter(CacheService cache) {
+        CountDownLatch release = new CountDownLatch(1);
+        ((ThreadPoolExecutor) ReflectionTestUtils.getField(cache, "writeBehindExecutor")).execute(() -> await(release));
+        return release;
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
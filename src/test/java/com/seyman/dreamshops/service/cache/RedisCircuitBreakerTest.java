@@ -0,0 +1,54 @@
+package com.seyman.dreamshops.service.cache;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RedisCircuitBreakerTest {
+
+    @Test
+    void opensAfterTheThresholdOfConsecutiveFailures() {
+        RedisCircuitBreaker circuit = new RedisCircuitBreaker(3);
+
+        assertThat(circuit.recordFailure()).isFalse();
+        assertThat(circuit.recordFailure()).isFalse();
+        assertThat(circuit.allowRequest()).isTrue();
+        assertThat(circuit.recordFailure()).isTrue();
+
+        assertThat(circuit.isOpen()).isTrue();
+        assertThat(circuit.allowRequest()).isFalse();
+        assertThat(circuit.shortCircuitedCount()).isEqualTo(1);
+        assertThat(circuit.openedCount()).isEqualTo(1);
+        // Failures while open do not open it again
+        assertThat(circuit.recordFailure()).isFalse();
+        assertThat(circuit.failureCount()).isEqualTo(4);
+    }
+
+    @Test
+    void successResetsTheRunOfFailures() {
+        RedisCircuitBreaker circuit = new RedisCircuitBreaker(3);
+
+        circuit.recordFailure();
+        circuit.recordFailure();
+        circuit.recordSuccess();
+        circuit.recordFailure();
+        circuit.recordFailure();
+
+        assertThat(circuit.state()).isEqualTo(RedisCircuitBreaker.State.CLOSED);
+        assertThat(circuit.consecutiveFailures()).isEqualTo(2);
+    }
+
+    @Test
+    void closeLetsRequestsThroughAgain() {
+        RedisCircuitBreaker circuit = new RedisCircuitBreaker(1);
+        circuit.recordFailure();
+
+        assertThat(circuit.close()).isTrue();
+        assertThat(circuit.close()).isFalse();
+        assertThat(circuit.allowRequest()).isTrue();
+        assertThat(circuit.consecutiveFailures()).isZero();
+        // A new run of failures is needed to open it again
+        assertThat(circuit.recordFailure()).isTrue();
+        assertThat(circuit.openedCount()).isEqualTo(2);
+    }
+}
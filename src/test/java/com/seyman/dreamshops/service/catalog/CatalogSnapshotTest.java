@@ -0,0 +1,131 @@
+package com.seyman.dreamshops.service.catalog;
+
+import com.seyman.dreamshops.model.Category;
+import com.seyman.dreamshops.model.Product;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CatalogSnapshotTest {
+
+    private static final LocalDateTime NOON = LocalDateTime.of(2026, 1, 1, 12, 0);
+
+    private final Map<Long, Category> categories = new HashMap<>();
+
+    @Test
+    void changesAppliedOneByOneMatchAFreshBuild() {
+        Random random = new Random(42);
+        Map<Long, Product> current = new HashMap<>();
+        CatalogSnapshot snapshot = CatalogSnapshot.of(1, List.of());
+
+        for (int step = 0; step < 500; step++) {
+            List<Product> changed = new ArrayList<>();
+            List<Long> removed = new ArrayList<>();
+            for (int i = random.nextInt(4); i >= 0; i--) {
+                long id = 1 + random.nextInt(40);
+                if (random.nextInt(5) == 0) {
+                    removed.add(id);
+                    current.remove(id);
+                } else {
+                    Product product = product(id, random);
+                    changed.add(product);
+                    current.put(id, product);
+                }
+            }
+            snapshot = snapshot.with(snapshot.getVersion() + 1, changed, removed);
+        }
+        CatalogSnapshot fresh = CatalogSnapshot.of(1, current.values());
+
+        assertThat(snapshot.size()).isEqualTo(fresh.size());
+        assertThat(ids(snapshot.getAllProducts())).isEqualTo(ids(fresh.getAllProducts()));
+        assertThat(ids(snapshot.getProductsOnSale())).isEqualTo(ids(fresh.getProductsOnSale()));
+        assertThat(ids(snapshot.getFlashSaleProducts())).isEqualTo(ids(fresh.getFlashSaleProducts()));
+        for (String category : List.of("Phones", "phones", "Laptops", "Tablets")) {
+            assertThat(ids(snapshot.getProductsByCategory(category))).isEqualTo(ids(fresh.getProductsByCategory(category)));
+        }
+        for (String brand : List.of("Apple", "Samsung", "Lenovo")) {
+            assertThat(ids(snapshot.getProductsByBrand(brand))).isEqualTo(ids(fresh.getProductsByBrand(brand)));
+        }
+        for (String name : List.of("Alpha", "alpha", "Beta", "Gamma")) {
+            assertThat(ids(snapshot.getProductsByName(name))).isEqualTo(ids(fresh.getProductsByName(name)));
+        }
+        for (long id = 1; id <= 40; id++) {
+            assertThat(snapshot.getProduct(id)).isSameAs(current.get(id));
+        }
+        for (int hour = 0; hour < 24; hour++) {
+            long now = millis(NOON.plusHours(hour - 12));
+            assertThat(snapshot.nextSaleChange(now)).isEqualTo(fresh.nextSaleChange(now));
+        }
+    }
+
+    @Test
+    void nameListsKeepNameThenIdOrder() {
+        CatalogSnapshot snapshot = CatalogSnapshot.of(1, List.of(
+                named(3L, "beta"), named(1L, "Beta"), named(2L, "alpha")));
+
+        snapshot = snapshot.with(2, List.of(named(4L, "Alpha"), named(2L, "gamma")), List.of(3L));
+
+        assertThat(ids(snapshot.getAllProducts())).containsExactly(4L, 1L, 2L);
+        assertThat(ids(snapshot.getProductsByName("Beta"))).containsExactly(1L);
+        assertThat(snapshot.getProductsByName("beta")).isEmpty();
+    }
+
+    @Test
+    void nextSaleChangeIsTheNextStartOrEnd() {
+        Product running = named(1L, "Running");
+        running.setIsOnSale(true);
+        running.setSaleStartDate(NOON.minusHours(1));
+        running.setSaleEndDate(NOON.plusHours(2));
+        Product upcoming = named(2L, "Upcoming");
+        upcoming.setIsOnSale(true);
+        upcoming.setSaleStartDate(NOON.plusHours(1));
+        CatalogSnapshot snapshot = CatalogSnapshot.of(1, List.of(running, upcoming));
+
+        assertThat(snapshot.nextSaleChange(millis(NOON))).isEqualTo(millis(NOON.plusHours(1)));
+        assertThat(snapshot.nextSaleChange(millis(NOON.plusHours(1)))).isEqualTo(millis(NOON.plusHours(2)) + 1);
+
+        snapshot = snapshot.with(2, List.of(), List.of(1L, 2L));
+        assertThat(snapshot.nextSaleChange(millis(NOON))).isEqualTo(Long.MAX_VALUE);
+    }
+
+    private Product product(long id, Random random) {
+        Product product = named(id, List.of("Alpha", "alpha", "Beta", "Gamma", "delta").get(random.nextInt(5)));
+        product.setBrand(List.of("Apple", "Samsung", "Lenovo").get(random.nextInt(3)));
+        product.setPrice(BigDecimal.valueOf(random.nextInt(100)));
+        product.setInventory(random.nextInt(5));
+        Category category = new Category(List.of("Phones", "Laptops", "Tablets").get(random.nextInt(3)));
+        category.setId((long) category.getName().length());
+        product.setCategory(category);
+        product.setIsOnSale(random.nextBoolean());
+        product.setIsFlashSale(random.nextInt(3) == 0);
+        if (random.nextBoolean()) {
+            product.setSaleStartDate(NOON.plusHours(random.nextInt(24) - 12));
+            product.setSaleEndDate(product.getSaleStartDate().plusHours(random.nextInt(6)));
+        }
+        return CatalogSnapshot.copyOf(product, categories, List.of());
+    }
+
+    private static Product named(Long id, String name) {
+        Product product = new Product();
+        product.setId(id);
+        product.setName(name);
+        return product;
+    }
+
+    private static List<Long> ids(List<Product> products) {
+        return products.stream().map(Product::getId).toList();
+    }
+
+    private static long millis(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+}
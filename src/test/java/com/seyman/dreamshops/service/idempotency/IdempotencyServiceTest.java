@@ -0,0 +1,185 @@
+package com.seyman.dreamshops.service.idempotency;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.seyman.dreamshops.exceptions.ServiceBusyException;
+import com.seyman.dreamshops.response.ApiResponse;
+import com.seyman.dreamshops.service.cache.SharedStateStore;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class IdempotencyServiceTest {
+
+    private static final String STORE_KEY = "idempotency:orders:anonymous:key-1";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final AtomicInteger executions = new AtomicInteger();
+    private SharedStateStore sharedStateStore;
+    private IdempotencyService service;
+
+    @BeforeEach
+    void setUp() {
+        sharedStateStore = new SharedStateStore();
+        service = new IdempotencyService(sharedStateStore, objectMapper);
+        ReflectionTestUtils.setField(service, "ttlHours", 24L);
+        ReflectionTestUtils.setField(service, "waitTimeoutMillis", 500L);
+        ReflectionTestUtils.setField(service, "claimTtlMillis", 30_000L);
+    }
+
+    @Test
+    void retryReplaysTheStoredResponse() {
+        ResponseEntity<ApiResponse> first = service.execute("orders", "key-1", "cart-1", created(7));
+        ResponseEntity<ApiResponse> retry = service.execute("orders", "key-1", "cart-1", created(8));
+
+        assertThat(executions).hasValue(1);
+        assertThat(first.getStatusCode()).isEqualTo(HttpStatus.CREATED);
+        assertThat(first.getHeaders().containsKey(IdempotencyService.REPLAYED_HEADER)).isFalse();
+        assertThat(retry.getStatusCode()).isEqualTo(HttpStatus.CREATED);
+        assertThat(retry.getHeaders().getFirst(IdempotencyService.REPLAYED_HEADER)).isEqualTo("true");
+        assertThat(retry.getBody().getMessage()).isEqualTo("Order created");
+        assertThat(objectMapper.valueToTree(retry.getBody().getData()).get("orderId").asInt()).isEqualTo(7);
+    }
+
+    @Test
+    void keyReusedForAnotherRequestIsRejected() {
+        service.execute("orders", "key-1", "cart-1", created(7));
+
+        ResponseEntity<ApiResponse> other = service.execute("orders", "key-1", "cart-2", created(8));
+
+        assertThat(other.getStatusCode()).isEqualTo(HttpStatus.UNPROCESSABLE_ENTITY);
+        assertThat(executions).hasValue(1);
+    }
+
+    @Test
+    void serverErrorsAndFailuresAreNotKept() {
+        service.execute("orders", "key-1", "cart-1", () -> {
+            executions.incrementAndGet();
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(new ApiResponse("Busy", null));
+        });
+        assertThatThrownBy(() -> service.execute("orders", "key-1", "cart-1", () -> {
+            executions.incrementAndGet();
+            throw new IllegalStateException("Failed");
+        })).isInstanceOf(IllegalStateException.class);
+        assertThat(sharedStateStore.get(STORE_KEY)).isEmpty();
+
+        ResponseEntity<ApiResponse> retry = service.execute("orders", "key-1", "cart-1", created(7));
+
+        assertThat(retry.getStatusCode()).isEqualTo(HttpStatus.CREATED);
+        assertThat(executions).hasValue(3);
+    }
+
+    @Test
+    void concurrentRequestsWithTheSameKeyExecuteOnce() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            Supplier<ResponseEntity<ApiResponse>> slow = () -> {
+                started.countDown();
+                await(release);
+                return created(7).get();
+            };
+            Future<ResponseEntity<ApiResponse>> first = executor.submit(() -> service.execute("orders", "key-1", "cart-1", slow));
+            assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+            List<Future<ResponseEntity<ApiResponse>>> others = List.of(
+                    executor.submit(() -> service.execute("orders", "key-1", "cart-1", slow)),
+                    executor.submit(() -> service.execute("orders", "key-1", "cart-1", slow)));
+            release.countDown();
+
+            assertThat(first.get(5, TimeUnit.SECONDS).getStatusCode()).isEqualTo(HttpStatus.CREATED);
+            for (Future<ResponseEntity<ApiResponse>> other : others) {
+                ResponseEntity<ApiResponse> response = other.get(5, TimeUnit.SECONDS);
+                assertThat(response.getStatusCode()).isEqualTo(HttpStatus.CREATED);
+                assertThat(response.getHeaders().getFirst(IdempotencyService.REPLAYED_HEADER)).isEqualTo("true");
+            }
+            assertThat(executions).hasValue(1);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void claimHeldElsewhereAnswersConflictUntilItCompletes() throws Exception {
+        IdempotencyService.StoredResponse claim = new IdempotencyService.StoredResponse("other-node", "cart-1", 0, null, null);
+        sharedStateStore.set(STORE_KEY, objectMapper.writeValueAsString(claim), Duration.ofSeconds(30));
+
+        ResponseEntity<ApiResponse> waiting = service.execute("orders", "key-1", "cart-1", created(8));
+        assertThat(waiting.getStatusCode()).isEqualTo(HttpStatus.CONFLICT);
+        assertThat(waiting.getHeaders().getFirst(HttpHeaders.RETRY_AFTER)).isEqualTo("1");
+
+        IdempotencyService.StoredResponse done = new IdempotencyService.StoredResponse(
+                null, "cart-1", 201, "Order created", objectMapper.writeValueAsString(Map.of("orderId", 7)));
+        sharedStateStore.set(STORE_KEY, objectMapper.writeValueAsString(done), Duration.ofHours(1));
+        ResponseEntity<ApiResponse> replayed = service.execute("orders", "key-1", "cart-1", created(8));
+
+        assertThat(replayed.getStatusCode()).isEqualTo(HttpStatus.CREATED);
+        assertThat(replayed.getHeaders().getFirst(IdempotencyService.REPLAYED_HEADER)).isEqualTo("true");
+        assertThat(executions).hasValue(0);
+    }
+
+    @Test
+    void expiredClaimOfACrashedNodeIsTakenOver() throws Exception {
+        IdempotencyService.StoredResponse claim = new IdempotencyService.StoredResponse("crashed-node", "cart-1", 0, null, null);
+        sharedStateStore.set(STORE_KEY, objectMapper.writeValueAsString(claim), Duration.ofMillis(100));
+
+        ResponseEntity<ApiResponse> response = service.execute("orders", "key-1", "cart-1", created(7));
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.CREATED);
+        assertThat(response.getHeaders().containsKey(IdempotencyService.REPLAYED_HEADER)).isFalse();
+        assertThat(executions).hasValue(1);
+    }
+
+    @Test
+    void fullStoreRefusesNewKeysAndKeepsTheRecordsItHolds() {
+        ReflectionTestUtils.setField(sharedStateStore, "maxLocalEntries", 1);
+        service.execute("orders", "key-1", "cart-1", created(7));
+
+        assertThatThrownBy(() -> service.execute("orders", "key-2", "cart-1", created(8)))
+                .isInstanceOf(ServiceBusyException.class);
+        ResponseEntity<ApiResponse> retry = service.execute("orders", "key-1", "cart-1", created(9));
+
+        assertThat(retry.getHeaders().getFirst(IdempotencyService.REPLAYED_HEADER)).isEqualTo("true");
+        assertThat(objectMapper.valueToTree(retry.getBody().getData()).get("orderId").asInt()).isEqualTo(7);
+        assertThat(executions).hasValue(1);
+    }
+
+    @Test
+    void requestsWithoutKeyAlwaysExecute() {
+        service.execute("orders", null, "cart-1", created(7));
+        service.execute("orders", " ", "cart-1", created(7));
+
+        assertThat(executions).hasValue(2);
+    }
+
+    private Supplier<ResponseEntity<ApiResponse>> created(int orderId) {
+        return () -> {
+            executions.incrementAndGet();
+            return ResponseEntity.status(HttpStatus.CREATED).body(new ApiResponse("Order created", Map.of("orderId", orderId)));
+        };
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
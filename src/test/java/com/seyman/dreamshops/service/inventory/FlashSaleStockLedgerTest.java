@@ -0,0 +1,198 @@
+package com.seyman.dreamshops.service.inventory;
+
+import com.seyman.dreamshops.dto.StockShortageDto;
+import com.seyman.dreamshops.exceptions.InsufficientStockException;
+import com.seyman.dreamshops.model.Product;
+import com.seyman.dreamshops.service.cache.SharedStateStore;
+import jakarta.persistence.EntityManager;
+import org.hibernate.Session;
+import org.hibernate.jdbc.Work;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.when;
+
+class FlashSaleStockLedgerTest {
+
+    @TempDir
+    Path journalDir;
+
+    // flash_sale_stock as last written by a flush
+    private final Map<Long, Integer> table = new ConcurrentHashMap<>();
+    private final List<FlashSaleStockLedger> ledgers = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        ledgers.forEach(FlashSaleStockLedger::shutdown);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    void reservesAllOrNothing() {
+        FlashSaleStockLedger ledger = ledger(new SharedStateStore(), product(1L, 5, 1L), product(2L, 1, 1L));
+
+        List<FlashSaleReservation> taken = ledger.reserve(quantities(1L, 3, 3L, 1));
+        assertThat(taken).containsExactly(new FlashSaleReservation(1L, 1, 3));
+
+        assertThatThrownBy(() -> ledger.reserve(quantities(1L, 1, 2L, 2)))
+                .isInstanceOf(InsufficientStockException.class)
+                .satisfies(e -> assertThat(((InsufficientStockException) e).getShortages())
+                        .containsExactly(new StockShortageDto(2L, "Product 2", 2, 1)));
+        // The unit of product 1 taken before the shortage went back
+        assertThat(ledger.remaining(1L)).isEqualTo(2);
+        assertThat(ledger.remaining(3L)).isNull();
+    }
+
+    @Test
+    void rejectsNonPositiveQuantities() {
+        FlashSaleStockLedger ledger = ledger(new SharedStateStore(), product(1L, 5, 1L));
+
+        assertThatThrownBy(() -> ledger.reserve(quantities(1L, 0)))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThat(ledger.remaining(1L)).isEqualTo(5);
+    }
+
+    @Test
+    void rollbackGivesTheReservationBack() {
+        FlashSaleStockLedger ledger = ledger(new SharedStateStore(), product(1L, 5, 1L));
+
+        TransactionSynchronizationManager.initSynchronization();
+        ledger.reserve(quantities(1L, 4));
+        assertThat(ledger.remaining(1L)).isEqualTo(1);
+        List<TransactionSynchronization> synchronizations = TransactionSynchronizationManager.getSynchronizations();
+        TransactionSynchronizationManager.clearSynchronization();
+        synchronizations.forEach(synchronization ->
+                synchronization.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK));
+
+        assertThat(ledger.remaining(1L)).isEqualTo(5);
+    }
+
+    @Test
+    void releaseOfAReplacedAllotmentIsDropped() {
+        FlashSaleStockLedger ledger = ledger(new SharedStateStore(), product(1L, 5, 1L));
+        List<FlashSaleReservation> taken = ledger.reserve(quantities(1L, 2));
+
+        ledger.index(product(1L, 10, 2L));
+        ledger.release(taken);
+        assertThat(ledger.remaining(1L)).isEqualTo(10);
+
+        List<FlashSaleReservation> current = ledger.reserve(quantities(1L, 2));
+        ledger.release(current);
+        assertThat(ledger.remaining(1L)).isEqualTo(10);
+    }
+
+    @Test
+    void recoversJournaledReservationsOverAStaleTable() throws Exception {
+        FlashSaleStockLedger crashed = ledger(new SharedStateStore(), product(1L, 5, 1L));
+        crashed.reserve(quantities(1L, 2));
+        crashed.release(List.of(new FlashSaleReservation(1L, 1, 1)));
+        crashed.reserve(quantities(1L, 3));
+        // The journal thread dies with the node before any flush reached the table
+        ((ScheduledExecutorService) ReflectionTestUtils.getField(crashed, "journalExecutor")).shutdownNow();
+        ledgers.remove(crashed);
+
+        FlashSaleStockLedger restarted = ledger(new SharedStateStore(), product(1L, 5, 1L));
+
+        assertThat(restarted.remaining(1L)).isEqualTo(1);
+        assertThat(table).containsEntry(1L, 1);
+    }
+
+    @Test
+    void nodesSharingRedisSellOneAllotment() {
+        SharedStateStore store = spy(new SharedStateStore());
+        doReturn(true).when(store).isShared();
+        FlashSaleStockLedger nodeA = ledger(store, product(1L, 5, 1L));
+        FlashSaleStockLedger nodeB = ledger(store, product(1L, 5, 1L));
+
+        List<FlashSaleReservation> onA = nodeA.reserve(quantities(1L, 3));
+        assertThatThrownBy(() -> nodeB.reserve(quantities(1L, 3)))
+                .isInstanceOf(InsufficientStockException.class);
+        nodeB.reserve(quantities(1L, 2));
+
+        // An order placed on A is cancelled on B
+        nodeB.release(onA);
+        assertThat(nodeB.remaining(1L)).isEqualTo(3);
+        assertThat(store.get("flash-sale:stock:1:1")).contains("3");
+    }
+
+    private FlashSaleStockLedger ledger(SharedStateStore store, Product... products) {
+        EntityManager entityManager = mock(EntityManager.class);
+        Session session = mock(Session.class);
+        when(entityManager.unwrap(Session.class)).thenReturn(session);
+        doAnswer(invocation -> {
+            invocation.<Work>getArgument(0).execute(connection());
+            return null;
+        }).when(session).doWork(any());
+
+        FlashSaleStockLedger ledger = new FlashSaleStockLedger(entityManager, mock(PlatformTransactionManager.class), store);
+        ReflectionTestUtils.setField(ledger, "journalDir", journalDir.toString());
+        ReflectionTestUtils.setField(ledger, "journalSyncMs", 5L);
+        // Nothing reaches the table on its own during a test
+        ReflectionTestUtils.setField(ledger, "flushIntervalMs", 60_000L);
+        ReflectionTestUtils.setField(ledger, "commitTimeoutMs", 1000L);
+        ReflectionTestUtils.setField(ledger, "stripeThreshold", 64);
+        ledger.rebuild(List.of(products));
+        ledgers.add(ledger);
+        return ledger;
+    }
+
+    private Connection connection() throws Exception {
+        Connection connection = mock(Connection.class);
+        PreparedStatement statement = mock(PreparedStatement.class);
+        Map<Long, Integer> batch = new LinkedHashMap<>();
+        int[] stock = new int[1];
+        doAnswer(invocation -> stock[0] = invocation.getArgument(1)).when(statement).setInt(anyInt(), anyInt());
+        doAnswer(invocation -> batch.put(invocation.getArgument(1), stock[0])).when(statement).setLong(anyInt(), anyLong());
+        when(statement.executeBatch()).thenAnswer(invocation -> {
+            table.putAll(batch);
+            return new int[batch.size()];
+        });
+        when(connection.prepareStatement(anyString())).thenReturn(statement);
+        return connection;
+    }
+
+    private static Product product(Long id, int flashSaleStock, Long allotment) {
+        Product product = new Product();
+        product.setId(id);
+        product.setName("Product " + id);
+        product.setIsFlashSale(true);
+        product.setFlashSaleStock(flashSaleStock);
+        product.setFlashSaleAllotment(allotment);
+        return product;
+    }
+
+    private static Map<Long, Integer> quantities(Object... productAndQuantity) {
+        Map<Long, Integer> quantities = new LinkedHashMap<>();
+        for (int i = 0; i < productAndQuantity.length; i += 2) {
+            quantities.put((Long) productAndQuantity[i], (Integer) productAndQuantity[i + 1]);
+        }
+        return quantities;
+    }
+}
@@ -0,0 +1,200 @@
+package com.seyman.dreamshops.service.inventory;
+
+import com.seyman.dreamshops.dto.StockShortageDto;
+import com.seyman.dreamshops.exceptions.InsufficientStockException;
+import com.seyman.dreamshops.repository.ProductRepository;
+import com.seyman.dreamshops.service.search.ProductIndexListener;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.TypedQuery;
+import org.hibernate.Session;
+import org.hibernate.jdbc.Work;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Runs the reservation batches against a product table kept in a map: the mocked statements
+ * apply the conditional UPDATEs the way the database would.
+ */
+class InventoryReservationServiceTest {
+
+    private final Map<Long, Integer> inventory = new HashMap<>();
+    private final List<String> batches = new ArrayList<>();
+    private InventoryReservationService service;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() throws SQLException {
+        EntityManager entityManager = mock(EntityManager.class);
+        Session session = mock(Session.class);
+        when(entityManager.unwrap(Session.class)).thenReturn(session);
+        Connection connection = mock(Connection.class);
+        when(connection.prepareStatement(anyString())).thenAnswer(invocation -> statement(invocation.getArgument(0)));
+        doAnswer(invocation -> {
+            invocation.<Work>getArgument(0).execute(connection);
+            return null;
+        }).when(session).doWork(any());
+
+        TypedQuery<Object[]> query = mock(TypedQuery.class);
+        List<Long> queried = new ArrayList<>();
+        when(entityManager.createQuery(anyString(), eq(Object[].class))).thenReturn(query);
+        when(query.setParameter(eq("ids"), any())).thenAnswer(invocation -> {
+            queried.clear();
+            queried.addAll(invocation.<Collection<Long>>getArgument(1));
+            return query;
+        });
+        when(query.getResultList()).thenAnswer(invocation -> queried.stream()
+                .filter(inventory::containsKey)
+                .map(id -> new Object[]{id, "Product " + id, inventory.get(id)})
+                .toList());
+
+        service = new InventoryReservationService(entityManager, mock(ProductRepository.class),
+                mock(ProductIndexListener.class), mock(PlatformTransactionManager.class));
+    }
+
+    @Test
+    void reservesEveryOrderInOneBatchWhenStockSuffices() {
+        inventory.put(1L, 5);
+        inventory.put(2L, 5);
+
+        List<List<StockShortageDto>> shortages = service.reserveAll(List.of(
+                Map.of(1L, 2, 2L, 1),
+                Map.of(1L, 3)));
+
+        assertThat(shortages).containsExactly(List.of(), List.of());
+        assertThat(inventory).containsEntry(1L, 0).containsEntry(2L, 4);
+        assertThat(batches).containsExactly("reserve");
+    }
+
+    @Test
+    void earlierOrderWinsAndTheShortOrderGetsNoneOfItsLines() {
+        inventory.put(1L, 3);
+        inventory.put(2L, 5);
+
+        List<List<StockShortageDto>> shortages = service.reserveAll(List.of(
+                Map.of(1L, 2),
+                Map.of(1L, 2, 2L, 1),
+                Map.of(2L, 1)));
+
+        assertThat(shortages.get(0)).isEmpty();
+        assertThat(shortages.get(1)).containsExactly(new StockShortageDto(1L, "Product 1", 2, 1));
+        assertThat(shortages.get(2)).isEmpty();
+        // The line the short order took on product 2 went back
+        assertThat(inventory).containsEntry(1L, 1).containsEntry(2L, 4);
+    }
+
+    @Test
+    void stockReleasedByTheFirstShortOrderServesTheOthers() {
+        inventory.put(1L, 3);
+        inventory.put(2L, 1);
+
+        List<List<StockShortageDto>> shortages = service.reserveAll(List.of(
+                orderOf(1L, 1, 2L, 10),
+                orderOf(1L, 3)));
+
+        // Order 1 was only short because order 0 held a unit it then gave back
+        assertThat(shortages.get(0)).containsExactly(new StockShortageDto(2L, "Product 2", 10, 1));
+        assertThat(shortages.get(1)).isEmpty();
+        assertThat(inventory).containsEntry(1L, 0).containsEntry(2L, 1);
+        assertThat(batches).containsExactly("reserve", "release", "reserve");
+    }
+
+    @Test
+    void deletedProductIsShortWithNothingAvailable() {
+        inventory.put(1L, 3);
+
+        List<List<StockShortageDto>> shortages = service.reserveAll(List.of(orderOf(1L, 1, 9L, 1)));
+
+        assertThat(shortages.get(0)).containsExactly(new StockShortageDto(9L, null, 1, 0));
+        assertThat(inventory).containsEntry(1L, 3);
+    }
+
+    @Test
+    void reserveLeavesInventoryUnchangedWhenShort() {
+        inventory.put(1L, 2);
+        inventory.put(2L, 0);
+
+        assertThatThrownBy(() -> service.reserve(orderOf(1L, 2, 2L, 1)))
+                .isInstanceOf(InsufficientStockException.class)
+                .satisfies(e -> assertThat(((InsufficientStockException) e).getShortages())
+                        .containsExactly(new StockShortageDto(2L, "Product 2", 1, 0)));
+        assertThat(inventory).containsEntry(1L, 2).containsEntry(2L, 0);
+    }
+
+    @Test
+    void releasePutsQuantitiesBack() {
+        inventory.put(1L, 1);
+        inventory.put(2L, 0);
+
+        service.release(Map.of(1L, 2, 2L, 3));
+
+        assertThat(inventory).containsEntry(1L, 3).containsEntry(2L, 3);
+    }
+
+    // Map.of has no order, the line order within an order must not matter anyway
+    private static Map<Long, Integer> orderOf(Object... productAndQuantity) {
+        Map<Long, Integer> order = new LinkedHashMap<>();
+        for (int i = 0; i < productAndQuantity.length; i += 2) {
+            order.put((Long) productAndQuantity[i], (Integer) productAndQuantity[i + 1]);
+        }
+        return order;
+    }
+
+    private PreparedStatement statement(String sql) throws SQLException {
+        boolean reserve = sql.contains("inventory >= ?");
+        List<long[]> lines = new ArrayList<>();
+        long[] current = new long[2];
+        PreparedStatement statement = mock(PreparedStatement.class);
+        doAnswer(invocation -> {
+            int index = invocation.getArgument(0);
+            if (index == 1) {
+                current[0] = invocation.<Integer>getArgument(1);
+            }
+            return null;
+        }).when(statement).setInt(anyInt(), anyInt());
+        doAnswer(invocation -> {
+            current[1] = invocation.<Long>getArgument(1);
+            return null;
+        }).when(statement).setLong(anyInt(), anyLong());
+        doAnswer(invocation -> {
+            lines.add(current.clone());
+            return null;
+        }).when(statement).addBatch();
+        when(statement.executeBatch()).thenAnswer(invocation -> {
+            batches.add(reserve ? "reserve" : "release");
+            int[] counts = new int[lines.size()];
+            for (int i = 0; i < lines.size(); i++) {
+                int quantity = (int) lines.get(i)[0];
+                Long productId = lines.get(i)[1];
+                Integer stock = inventory.get(productId);
+                if (stock != null && (!reserve || stock >= quantity)) {
+                    inventory.put(productId, reserve ? stock - quantity : stock + quantity);
+                    counts[i] = 1;
+                }
+            }
+            return counts;
+        });
+        return statement;
+    }
+}
@@ -0,0 +1,87 @@
+package com.seyman.dreamshops.service.search;
+
+import com.seyman.dreamshops.model.Category;
+import com.seyman.dreamshops.model.Product;
+import com.seyman.dreamshops.requests.ProductFilterRequest;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ProductFacetIndexTest {
+
+    private final ProductFacetIndex index = new ProductFacetIndex("1000,5000");
+
+    @Test
+    void pagesFollowNameOrderAfterWrites() {
+        Random random = new Random(7);
+        Map<Long, Product> current = new HashMap<>();
+        for (long id = 1; id <= 200; id++) {
+            current.put(id, product(id, random));
+        }
+        index.rebuild(new ArrayList<>(current.values()));
+
+        for (int step = 0; step < 300; step++) {
+            long id = 1 + random.nextInt(250);
+            if (random.nextInt(4) == 0) {
+                index.remove(id);
+                current.remove(id);
+            } else {
+                Product product = product(id, random);
+                index.index(product);
+                current.put(id, product);
+            }
+        }
+
+        // A broad filter walks the name order, a selective one sorts its few matches
+        ProductFilterRequest all = new ProductFilterRequest();
+        ProductFilterRequest selective = new ProductFilterRequest();
+        selective.setBrand(List.of("Lenovo"));
+        selective.setFlashSale(true);
+        selective.setInStock(true);
+        for (ProductFilterRequest filter : List.of(all, selective)) {
+            List<Long> expected = current.values().stream()
+                    .filter(product -> filter.getBrand() == null || filter.getBrand().contains(product.getBrand()))
+                    .filter(product -> filter.getFlashSale() == null || product.getIsFlashSale())
+                    .filter(product -> filter.getInStock() == null || product.getInventory() > 0)
+                    .sorted(Comparator.comparing((Product product) -> product.getName().toLowerCase())
+                            .thenComparing(Product::getId))
+                    .map(Product::getId)
+                    .toList();
+            for (int offset = 0; offset <= expected.size(); offset += 5) {
+                ProductFacetIndex.FacetResult result = index.filter(filter, offset, 5);
+                assertThat(result.getTotalElements()).isEqualTo(expected.size());
+                assertThat(result.getProductIds())
+                        .isEqualTo(expected.subList(offset, Math.min(offset + 5, expected.size())));
+            }
+        }
+    }
+
+    @Test
+    void pageBeyondTheMatchesIsEmpty() {
+        index.rebuild(List.of(product(1L, new Random(1))));
+
+        ProductFacetIndex.FacetResult result = index.filter(new ProductFilterRequest(), 12, 12);
+
+        assertThat(result.getProductIds()).isEmpty();
+        assertThat(result.getTotalElements()).isEqualTo(1);
+    }
+
+    private static Product product(long id, Random random) {
+        Category category = new Category(List.of("Phones", "Laptops").get(random.nextInt(2)));
+        Product product = new Product(List.of("Alpha", "alpha", "Beta", "Gamma", "delta").get(random.nextInt(5)),
+                List.of("Apple", "Samsung", "Lenovo").get(random.nextInt(3)), random.nextInt(3),
+                BigDecimal.valueOf(random.nextInt(8000)), null, category);
+        product.setId(id);
+        product.setIsOnSale(false);
+        product.setIsFlashSale(random.nextInt(6) == 0);
+        return product;
+    }
+}